@@ -0,0 +1,124 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei;
+
+import static com.google.common.hash.Hashing.sha1;
+import static com.google.common.io.Files.createParentDirs;
+import static com.google.common.io.Files.createTempDir;
+import static com.google.common.io.Files.hash;
+import static java.nio.file.Files.createLink;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.modeshape.jcr.api.Binary;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hp.hpl.jena.query.Dataset;
+
+/**
+ * Benchmarks generating triples from a binary read as a stream, as from any
+ * binary store, against the same binary mapped into memory from a directory
+ * laid out as a ModeShape file-system binary store. Editions of 100 MiB and
+ * more are where the difference, if any, shows; they are streamed past the
+ * stylesheets here, so the transform itself costs less there.
+ *
+ * @author ajs6f
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class BinaryReadBenchmark {
+
+    /**
+     * Size of the TEI document in bytes.
+     */
+    @Param({"1048576", "104857600", "268435456"})
+    public long size;
+
+    TeiTripleGenerator streaming;
+
+    TeiTripleGenerator mapping;
+
+    Binary binary;
+
+    /**
+     * The size above which both generators stream.
+     */
+    private static final long STREAMING_THRESHOLD = 64L * 1024 * 1024;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final File tei =
+            new TeiCorpusGenerator(size, 4, 0.2, 0).generate(new File(System
+                    .getProperty("java.io.tmpdir")));
+        final String hexHash = hash(tei, sha1()).toString();
+        final File directory = createTempDir();
+        final File stored =
+            new File(directory, hexHash.substring(0, 2) + "/" +
+                    hexHash.substring(2, 4) + "/" + hexHash.substring(4, 6) +
+                    "/" + hexHash);
+        createParentDirs(stored);
+        createLink(stored.toPath(), tei.toPath());
+        streaming = new TeiTripleGenerator();
+        mapping = new TeiTripleGenerator();
+        mapping.setBinaryFiles(new FileSystemBinaries(directory));
+        streaming.setStreamingThreshold(STREAMING_THRESHOLD);
+        mapping.setStreamingThreshold(STREAMING_THRESHOLD);
+        binary = mock(Binary.class);
+        when(binary.getHexHash()).thenReturn(hexHash);
+        when(binary.getSize()).thenReturn(tei.length());
+        when(binary.getStream()).thenAnswer(new Answer<InputStream>() {
+
+            @Override
+            public InputStream answer(final InvocationOnMock invocation)
+                throws Throwable {
+                return new FileInputStream(tei);
+            }
+        });
+    }
+
+    @Benchmark
+    public Dataset stream() {
+        return streaming.getProperties(binary, PipelineBenchmark.BASE_URI);
+    }
+
+    @Benchmark
+    public Dataset mapped() {
+        return mapping.getProperties(binary, PipelineBenchmark.BASE_URI);
+    }
+}
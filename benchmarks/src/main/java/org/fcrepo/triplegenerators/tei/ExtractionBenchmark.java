@@ -0,0 +1,98 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import org.apache.any23.Any23;
+import org.apache.any23.source.ByteArrayDocumentSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks extracting triples from the RDF/XML of one document with a
+ * default {@link Any23}, which detects the MIME type and chooses among all
+ * of its extractors, against {@link RdfXmlExtraction}, which does neither.
+ * The difference is a fixed cost per document, so it shows best on small
+ * ones.
+ *
+ * @author ajs6f
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ExtractionBenchmark {
+
+    /**
+     * Size of the TEI document in bytes.
+     */
+    @Param({"1024", "10240", "1048576"})
+    public long size;
+
+    byte[] rdfXml;
+
+    final Any23 any23 = new Any23();
+
+    final RdfXmlExtraction extraction = new RdfXmlExtraction();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final File tei =
+            new TeiCorpusGenerator(size, 4, 0.2, 0).generate(new File(System
+                    .getProperty("java.io.tmpdir")));
+        try (final InputStream in = new FileInputStream(tei)) {
+            rdfXml = new TeiTripleGenerator(1).createRDFXML(in);
+        }
+    }
+
+    @Benchmark
+    public long any23() throws Exception {
+        try (final ModelTripleHandler handler = new ModelTripleHandler()) {
+            any23.extract(new ByteArrayDocumentSource(rdfXml,
+                    PipelineBenchmark.BASE_URI, "application/rdf+xml"),
+                    handler);
+            return handler.size();
+        }
+    }
+
+    @Benchmark
+    public long rdfXmlExtraction() throws Exception {
+        try (final ModelTripleHandler handler = new ModelTripleHandler()) {
+            extraction.extract(new ByteArrayInputStream(rdfXml),
+                    PipelineBenchmark.BASE_URI, handler);
+            return handler.size();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+import java.util.Random;
+
+import org.apache.any23.extractor.ExtractionContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openrdf.model.Resource;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+
+/**
+ * Benchmarks {@link ModelTripleHandler#receiveTriple} over triples shaped like
+ * those tei2rdf.xslt produces: many fragment subjects, a handful of
+ * predicates, and a mix of URI, URI-like and plain literal objects.
+ *
+ * @author ajs6f
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ModelTripleHandlerBenchmark {
+
+    private static final String DCT = "http://purl.org/dc/terms/";
+
+    /**
+     * Number of triples received per operation.
+     */
+    @Param({"10000"})
+    public int triples;
+
+    Resource[] s;
+
+    URI[] p;
+
+    Value[] o;
+
+    ExtractionContext context;
+
+    @Setup
+    public void setUp() {
+        final ValueFactory vf = ValueFactoryImpl.getInstance();
+        final Random random = new Random(0);
+        final URI[] predicates =
+            {vf.createURI(DCT, "isPartOf"),
+                    vf.createURI("http://www.w3.org/2000/01/rdf-schema#label"),
+                    vf.createURI("http://www.w3.org/1999/02/22-rdf-syntax-ns#type"),
+                    vf.createURI(DCT, "publisher"),
+                    vf.createURI(DCT, "provenance")};
+        s = new Resource[triples];
+        p = new URI[triples];
+        o = new Value[triples];
+        for (int i = 0; i < triples; i++) {
+            s[i] = vf.createURI(PipelineBenchmark.BASE_URI + "#p_" + i / 3);
+            p[i] = predicates[random.nextInt(predicates.length)];
+            switch (random.nextInt(3)) {
+                case 0:
+                    o[i] = vf.createURI(PipelineBenchmark.BASE_URI + "#div_" +
+                            i / 30);
+                    break;
+                case 1:
+                    o[i] = vf.createLiteral("http://www.ancientwisdoms.ac.uk");
+                    break;
+                default:
+                    o[i] = vf.createLiteral("p_" + i / 3);
+            }
+        }
+        context =
+            new ExtractionContext("benchmark", vf
+                    .createURI(PipelineBenchmark.BASE_URI));
+    }
+
+    @Benchmark
+    public long receiveTriple() throws Exception {
+        try (final ModelTripleHandler handler = new ModelTripleHandler()) {
+            for (int i = 0; i < triples; i++) {
+                handler.receiveTriple(s[i], p[i], o[i], null, context);
+            }
+            return handler.getModel().size();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei;
+
+import static com.google.common.io.ByteStreams.nullOutputStream;
+import static com.hp.hpl.jena.rdf.model.ResourceFactory.createResource;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.modeshape.jcr.api.JcrConstants.JCR_CONTENT;
+import static org.modeshape.jcr.api.JcrConstants.JCR_DATA;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import javax.jcr.Binary;
+import javax.jcr.Node;
+import javax.jcr.Property;
+
+import org.fcrepo.rdf.GraphSubjects;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.query.Dataset;
+
+/**
+ * Benchmarks each stage of TEI triple generation, and the whole of it, over
+ * synthetic TEI from {@link TeiCorpusGenerator}. Run with {@code -prof gc} to
+ * see allocation rates.
+ *
+ * @author ajs6f
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PipelineBenchmark {
+
+    static final String BASE_URI = "http://localhost/fcrepo/tei";
+
+    /**
+     * Size of the TEI document in bytes.
+     */
+    @Param({"10240", "1048576", "104857600"})
+    public long size;
+
+    /**
+     * How deeply {@code <div>}s nest.
+     */
+    @Param({"4"})
+    public int depth;
+
+    /**
+     * The chance that a paragraph carries a {@code <relation>}.
+     */
+    @Param({"0.2"})
+    public double relationDensity;
+
+    TeiTripleGenerator generator;
+
+    File tei;
+
+    byte[] rdfXml;
+
+    Node node;
+
+    GraphSubjects subjects;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        generator = new TeiTripleGenerator();
+        tei =
+            new TeiCorpusGenerator(size, depth, relationDensity, 0)
+                    .generate(new File(System.getProperty("java.io.tmpdir")));
+        try (final InputStream in = open()) {
+            rdfXml = generator.createRDFXML(in);
+        }
+        node = mock(Node.class);
+        final Property property = mock(Property.class);
+        final Binary binary = mock(Binary.class);
+        subjects = mock(GraphSubjects.class);
+        when(subjects.getGraphSubject(node)).thenReturn(
+                createResource(BASE_URI));
+        when(node.getNode(JCR_CONTENT)).thenReturn(node);
+        when(node.getProperty(JCR_DATA)).thenReturn(property);
+        when(property.getBinary()).thenReturn(binary);
+        when(binary.getSize()).thenReturn(tei.length());
+        when(binary.getStream()).thenAnswer(new Answer<InputStream>() {
+
+            @Override
+            public InputStream answer(final InvocationOnMock invocation)
+                throws Throwable {
+                return new FileInputStream(tei);
+            }
+        });
+    }
+
+    InputStream open() throws Exception {
+        return new BufferedInputStream(new FileInputStream(tei));
+    }
+
+    @Benchmark
+    public byte[] createRDFXML() throws Exception {
+        try (final InputStream in = open()) {
+            return generator.createRDFXML(in);
+        }
+    }
+
+    @Benchmark
+    public Dataset extractTriples() throws Exception {
+        return generator.extractTriples(rdfXml, BASE_URI);
+    }
+
+    @Benchmark
+    public Dataset generateTriples() throws Exception {
+        try (final InputStream in = open()) {
+            return generator.generateTriples(in, BASE_URI);
+        }
+    }
+
+    @Benchmark
+    public Dataset streamTriples() throws Exception {
+        try (
+            final InputStream in = open();
+            final ModelTripleHandler handler = new ModelTripleHandler()) {
+            return generator.streamTriples(in, BASE_URI, handler);
+        }
+    }
+
+    @Benchmark
+    public Dataset getProperties() {
+        return generator.getProperties(node, subjects);
+    }
+
+    @Benchmark
+    public Graph export() throws Exception {
+        try (final InputStream in = open()) {
+            return generator.export(in, BASE_URI, nullOutputStream());
+        }
+    }
+}
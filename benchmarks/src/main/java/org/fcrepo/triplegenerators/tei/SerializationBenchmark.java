@@ -0,0 +1,116 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei;
+
+import static com.google.common.io.ByteStreams.nullOutputStream;
+import static com.google.common.io.Files.createTempDir;
+import static com.hp.hpl.jena.graph.GraphUtil.addInto;
+import static com.hp.hpl.jena.rdf.model.ModelFactory.createModelForGraph;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.io.CountingOutputStream;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.mem.GraphMem;
+import com.hp.hpl.jena.rdf.model.Model;
+
+/**
+ * Benchmarks serializing the triples of a document as fcrepo would, with no
+ * prefixes, with the prefixes the stylesheets declare, and with those and a
+ * prefix for the fragments of the document's URI as well. Each invocation
+ * returns the size of its serialization. No base URI is given to the writer,
+ * as fcrepo gives none.
+ *
+ * @author ajs6f
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SerializationBenchmark {
+
+    /**
+     * Size of the TEI document in bytes.
+     */
+    @Param({"1048576", "10485760"})
+    public long size;
+
+    /**
+     * The Jena name of the serialization.
+     */
+    @Param({"TURTLE", "RDF/XML", "RDF/XML-ABBREV"})
+    public String lang;
+
+    /**
+     * Which prefixes the model carries: {@code none}, {@code declared} or
+     * {@code fragments}.
+     */
+    @Param({"none", "declared", "fragments"})
+    public String prefixes;
+
+    Model model;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final TeiTripleGenerator generator = new TeiTripleGenerator();
+        generator.setFragmentPrefix("fragments".equals(prefixes) ? "" : null);
+        final File directory = createTempDir();
+        final File tei =
+            new TeiCorpusGenerator(size, 4, 0.2, 0).generate(directory);
+        try (final InputStream in =
+                new BufferedInputStream(new FileInputStream(tei))) {
+            model =
+                generator.getProperties(in, PipelineBenchmark.BASE_URI)
+                        .getNamedModel(generator.getPropertyModelName());
+        } finally {
+            tei.delete();
+            directory.delete();
+        }
+        if ("none".equals(prefixes)) {
+            final Graph bare = new GraphMem();
+            addInto(bare, model.getGraph());
+            model = createModelForGraph(bare);
+        }
+    }
+
+    @Benchmark
+    public long write() {
+        final CountingOutputStream out =
+            new CountingOutputStream(nullOutputStream());
+        model.write(out, lang);
+        return out.getCount();
+    }
+}
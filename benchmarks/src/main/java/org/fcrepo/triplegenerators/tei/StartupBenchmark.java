@@ -0,0 +1,106 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import org.fcrepo.triplegenerators.tei.xslt.TemplatesCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks creating a {@link TeiTripleGenerator}. {@link #firstGenerator()}
+ * is the first in a fresh JVM, as on a new node or in a short-lived job;
+ * {@link #compilingGenerator()} compiles the stylesheets again in a warm JVM;
+ * {@link #sharingGenerator()} takes them from the {@link TemplatesCache}, as
+ * every generator after the first does. Each generator is closed before it
+ * is returned, so that reports on its pools do not pile up in the registry.
+ *
+ * @author ajs6f
+ */
+@OutputTimeUnit(MILLISECONDS)
+public class StartupBenchmark {
+
+    /**
+     * Forgets the compiled stylesheets before each generator is created.
+     */
+    @State(Scope.Benchmark)
+    public static class Cold {
+
+        @Setup(Level.Invocation)
+        public void forget() {
+            TemplatesCache.shared().clear();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Fork(10)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    public TeiTripleGenerator firstGenerator(final Cold cold)
+        throws Exception {
+        try (final TeiTripleGenerator generator = new TeiTripleGenerator(1)) {
+            return generator;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Fork(1)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    public TeiTripleGenerator compilingGenerator(final Cold cold)
+        throws Exception {
+        try (final TeiTripleGenerator generator = new TeiTripleGenerator(1)) {
+            return generator;
+        }
+    }
+
+    /**
+     * Doesn't forget the compiled stylesheets.
+     */
+    @State(Scope.Benchmark)
+    public static class Warm {
+
+        @Setup(Level.Trial)
+        public void preload() throws Exception {
+            new TeiTripleGenerator(1).close();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Fork(1)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    public TeiTripleGenerator sharingGenerator(final Warm warm)
+        throws Exception {
+        try (final TeiTripleGenerator generator = new TeiTripleGenerator(1)) {
+            return generator;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static java.lang.String.format;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.io.CountingOutputStream;
+
+/**
+ * Writes synthetic TEI documents for benchmarking. A document has a header
+ * with title, authors, publication and source statements, and a body of
+ * nested {@code <div>}s holding {@code <p>}s of filler text, some of them
+ * carrying {@code <relation>}s that point at other paragraphs. Documents are
+ * grown until they reach a requested size, and are reproducible for a given
+ * seed.
+ *
+ * @author ajs6f
+ */
+public class TeiCorpusGenerator {
+
+    private static final String[] WORDS = {"philosophy", "sage", "Miletus",
+            "wisdom", "Greek", "collection", "saying", "Egypt", "revolution",
+            "period", "time", "progression", "he", "was", "the", "first",
+            "who", "and", "of", "a", "in"};
+
+    private static final String[] PREDICATES = {"saws:isVariantOf",
+            "saws:isDirectCopyOf", "saws:isVersionOf", "dct:references"};
+
+    private final long targetBytes;
+
+    private final int depth;
+
+    private final double relationDensity;
+
+    private final long seed;
+
+    /**
+     * @param targetBytes The size at which to stop adding divisions
+     * @param depth How deeply to nest {@code <div>}s
+     * @param relationDensity The chance that a paragraph carries a
+     *        {@code <relation>}
+     * @param seed Seed for the random choices made while writing
+     */
+    public TeiCorpusGenerator(final long targetBytes, final int depth,
+            final double relationDensity, final long seed) {
+        this.targetBytes = targetBytes;
+        this.depth = depth;
+        this.relationDensity = relationDensity;
+        this.seed = seed;
+    }
+
+    /**
+     * Writes a document into a file in {@code directory}, reusing one written
+     * earlier with the same parameters.
+     *
+     * @param directory
+     * @return The file with the document
+     * @throws IOException
+     */
+    public File generate(final File directory) throws IOException {
+        final File file =
+            new File(directory, format("tei-%d-%d-%s-%d.xml", targetBytes,
+                    depth, relationDensity, seed));
+        if (!file.isFile()) {
+            final File temp = new File(directory, file.getName() + ".tmp");
+            try (final OutputStream out = new FileOutputStream(temp)) {
+                write(out);
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Couldn't create " + file);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * @param out Where to write a TEI document
+     * @throws IOException
+     */
+    public void write(final OutputStream out) throws IOException {
+        final Random random = new Random(seed);
+        final CountingOutputStream counter = new CountingOutputStream(out);
+        final Writer w = new BufferedWriter(new OutputStreamWriter(counter, UTF_8));
+        w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        w.write("<TEI xmlns=\"http://www.tei-c.org/ns/1.0\" xml:id=\"CORPUS\">\n");
+        w.write("<teiHeader><fileDesc><titleStmt><title>Synthetic edition ");
+        w.write(Long.toString(seed));
+        w.write("</title><author>Anonymous</author><author>Pseudo-");
+        w.write(WORDS[random.nextInt(WORDS.length)]);
+        w.write("</author></titleStmt>");
+        w.write("<publicationStmt><p>http://www.ancientwisdoms.ac.uk</p></publicationStmt>");
+        w.write("<sourceDesc><p>Generated for benchmarking</p></sourceDesc>");
+        w.write("</fileDesc></teiHeader>\n<text><body>\n");
+        final List<String> paragraphs = new ArrayList<>();
+        int division = 0;
+        do {
+            w.flush();
+            writeDiv(w, random, paragraphs, "d" + division++, 1);
+            w.flush();
+        } while (counter.getCount() < targetBytes);
+        w.write("</body></text>\n</TEI>\n");
+        w.flush();
+    }
+
+    private void writeDiv(final Writer w, final Random random,
+        final List<String> paragraphs, final String id, final int level)
+        throws IOException {
+        w.write("<div xml:id=\"");
+        w.write(id);
+        w.write("\"><head>");
+        writeWords(w, random, 3);
+        w.write("</head>\n");
+        final int paras = 1 + random.nextInt(4);
+        for (int i = 0; i < paras; i++) {
+            final String pid = id + "p" + i;
+            // leave some paragraphs for add-ids to name
+            if (random.nextBoolean()) {
+                w.write("<p xml:id=\"");
+                w.write(pid);
+                w.write("\">");
+            } else {
+                w.write("<p>");
+            }
+            writeWords(w, random, 20 + random.nextInt(60));
+            if (random.nextDouble() < relationDensity && !paragraphs.isEmpty()) {
+                w.write("<relation active=\"");
+                w.write(pid);
+                w.write("\" rel=\"");
+                w.write(PREDICATES[random.nextInt(PREDICATES.length)]);
+                w.write("\" passive=\"");
+                w.write(paragraphs.get(random.nextInt(paragraphs.size())));
+                w.write("\" resp=\"#benchmark\"/>");
+            }
+            w.write("</p>\n");
+            paragraphs.add(pid);
+        }
+        if (level < depth) {
+            final int children = 1 + random.nextInt(3);
+            for (int i = 0; i < children; i++) {
+                writeDiv(w, random, paragraphs, id + "." + i, level + 1);
+            }
+        }
+        w.write("</div>\n");
+    }
+
+    private static void writeWords(final Writer w, final Random random,
+        final int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                w.write(' ');
+            }
+            w.write(WORDS[random.nextInt(WORDS.length)]);
+        }
+    }
+
+    /**
+     * Writes a document to a file.
+     *
+     * @param args target size in bytes, nesting depth, relation density and
+     *        output file
+     * @throws IOException
+     */
+    public static void main(final String[] args) throws IOException {
+        try (final OutputStream out = new FileOutputStream(args[3])) {
+            new TeiCorpusGenerator(Long.parseLong(args[0]), Integer
+                    .parseInt(args[1]), Double.parseDouble(args[2]), 0)
+                    .write(out);
+        }
+    }
+}
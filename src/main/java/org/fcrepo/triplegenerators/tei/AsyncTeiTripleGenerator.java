@@ -0,0 +1,305 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei;
+
+import static com.google.common.util.concurrent.Futures.addCallback;
+import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.fcrepo.triplegenerators.tei.TeiMetrics.ASYNC_REJECTIONS;
+import static org.fcrepo.triplegenerators.tei.TeiMetrics.ASYNC_TIMEOUTS;
+import static org.modeshape.jcr.api.JcrConstants.JCR_CONTENT;
+import static org.modeshape.jcr.api.JcrConstants.JCR_DATA;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jcr.Binary;
+import javax.jcr.RepositoryException;
+
+import org.fcrepo.rdf.GraphSubjects;
+import org.slf4j.Logger;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.hp.hpl.jena.query.Dataset;
+
+/**
+ * Generates triples on threads of its own, so that callers need not wait for
+ * a large document to be transformed. At most a fixed number of documents
+ * are transformed at once and a fixed number more wait their turn; further
+ * documents are refused at once with a {@link RejectedExecutionException}.
+ * Cancelling a {@link ListenableFuture} from this generator, or letting it
+ * run past the timeout, interrupts the transform, which then stops at its
+ * next read of TEI or its next triple.
+ * <p>
+ * The results are those of
+ * {@link TeiTripleGenerator#getProperties(Binary, String)}: a document that
+ * cannot be transformed produces a {@link Dataset} holding only a problems
+ * graph. A document that times out produces a {@link TimeoutException}.
+ * <p>
+ * The depth of each generator's queue is reported, until it is closed, under
+ * a name of its own: {@code async-queue.1}, {@code async-queue.2} and so on.
+ *
+ * @author ajs6f
+ */
+public class AsyncTeiTripleGenerator implements AutoCloseable {
+
+    private final TeiTripleGenerator generator;
+
+    private final ThreadPoolExecutor executor;
+
+    private final ScheduledThreadPoolExecutor timeouts;
+
+    private volatile long timeoutNanos = 0;
+
+    private volatile long shutdownNanos = SECONDS.toNanos(60);
+
+    private final String metricName;
+
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    private static final Logger LOGGER =
+        getLogger(AsyncTeiTripleGenerator.class);
+
+    /**
+     * @param generator
+     * @param concurrency The most documents to transform at once.
+     * @param queueDepth The most documents to hold waiting for a thread.
+     */
+    public AsyncTeiTripleGenerator(final TeiTripleGenerator generator,
+            final int concurrency, final int queueDepth) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException(
+                    "At least one document must be transformed at a time!");
+        }
+        if (queueDepth < 1) {
+            throw new IllegalArgumentException(
+                    "At least one document must be allowed to wait!");
+        }
+        this.generator = generator;
+        this.executor =
+            new ThreadPoolExecutor(concurrency, concurrency, 0, MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueDepth),
+                    new ThreadFactoryBuilder().setNameFormat("tei-async-%d")
+                            .setDaemon(true).build());
+        this.timeouts =
+            new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+                    .setNameFormat("tei-async-timeouts").setDaemon(true)
+                    .build());
+        timeouts.setRemoveOnCancelPolicy(true);
+        this.metricName = "async-queue." + INSTANCES.incrementAndGet();
+        TeiMetrics.register(executor.getQueue(), metricName);
+    }
+
+    /**
+     * @param timeout How long a document may take once its transform has
+     *        begun, or {@code 0} (the default) for no limit.
+     * @param unit
+     */
+    public void setTimeout(final long timeout, final TimeUnit unit) {
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * @param unit
+     * @return How long a document may take, or {@code 0} for no limit.
+     */
+    public long getTimeout(final TimeUnit unit) {
+        return unit.convert(timeoutNanos, NANOSECONDS);
+    }
+
+    /**
+     * Generates triples for a repository node. The node is read in the
+     * calling thread, because a JCR session may not be used from several
+     * threads; only its binary is read by our own.
+     *
+     * @param node
+     * @param subjects
+     * @return The triples of {@code node}, or the problems found with it, when
+     *         they are ready.
+     */
+    public ListenableFuture<Dataset> getProperties(final javax.jcr.Node node,
+        final GraphSubjects subjects) {
+        String baseUri = "unknown";
+        try {
+            baseUri = subjects.getGraphSubject(node).getURI();
+            return getProperties(node.getNode(JCR_CONTENT).getProperty(
+                    JCR_DATA).getBinary(), baseUri);
+        } catch (final RepositoryException e) {
+            return immediateFuture(generator.exceptionRdf(baseUri, e));
+        }
+    }
+
+    /**
+     * @param binary A {@link Binary} with TEI XML.
+     * @param baseUri
+     * @return The triples of {@code binary}, or the problems found with it,
+     *         when they are ready.
+     */
+    public ListenableFuture<Dataset> getProperties(final Binary binary,
+        final String baseUri) {
+        final SettableFuture<Dataset> result = SettableFuture.create();
+        final ListenableFutureTask<Dataset> task =
+            ListenableFutureTask.create(new Callable<Dataset>() {
+
+                @Override
+                public Dataset call() {
+                    final ScheduledFuture<?> timeout = timeout(result, baseUri);
+                    try {
+                        return generator.getProperties(binary, baseUri);
+                    } finally {
+                        if (timeout != null) {
+                            timeout.cancel(false);
+                        }
+                    }
+                }
+            });
+        try {
+            executor.execute(task);
+        } catch (final RejectedExecutionException e) {
+            ASYNC_REJECTIONS.inc();
+            LOGGER.debug("Refused {}: too many documents waiting.", baseUri);
+            return immediateFailedFuture(e);
+        }
+        addCallback(task, new FutureCallback<Dataset>() {
+
+            @Override
+            public void onSuccess(final Dataset dataset) {
+                result.set(dataset);
+            }
+
+            @Override
+            public void onFailure(final Throwable t) {
+                if (t instanceof CancellationException) {
+                    result.cancel(false);
+                } else {
+                    result.setException(t);
+                }
+            }
+        });
+        // however the result is settled, there is no more use for the task
+        result.addListener(new Runnable() {
+
+            @Override
+            public void run() {
+                if (!task.isDone()) {
+                    task.cancel(true);
+                    executor.purge();
+                }
+            }
+        }, sameThreadExecutor());
+        return result;
+    }
+
+    /**
+     * @param result
+     * @param baseUri
+     * @return A timer that fails {@code result} if our timeout passes first,
+     *         or {@code null} if we have none.
+     */
+    private ScheduledFuture<?> timeout(final SettableFuture<Dataset> result,
+        final String baseUri) {
+        final long nanos = timeoutNanos;
+        if (nanos <= 0) {
+            return null;
+        }
+        return timeouts.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                if (result.setException(new TimeoutException(format(
+                        "Generating triples for %s took more than %d ms!",
+                        baseUri, NANOSECONDS.toMillis(nanos))))) {
+                    ASYNC_TIMEOUTS.inc();
+                    LOGGER.warn("Abandoned {} after {} ms.", baseUri,
+                            NANOSECONDS.toMillis(nanos));
+                }
+            }
+        }, nanos, NANOSECONDS);
+    }
+
+    /**
+     * @param timeout How long {@link #close()} waits for the documents
+     *        already accepted, by default 60 s.
+     * @param unit
+     */
+    public void setShutdownTimeout(final long timeout, final TimeUnit unit) {
+        this.shutdownNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * @return The name under which the depth of our queue is reported.
+     */
+    String getMetricName() {
+        return metricName;
+    }
+
+    /**
+     * @return The number of documents waiting for a thread.
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return The number of documents being transformed.
+     */
+    public int getActive() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Refuses further documents and waits for those already accepted. After
+     * the shutdown timeout, it interrupts any still running and cancels the
+     * results of any still waiting for a thread.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(shutdownNanos, NANOSECONDS)) {
+                LOGGER.warn("Async executor did not terminate in {} ms!",
+                        NANOSECONDS.toMillis(shutdownNanos));
+                for (final Runnable task : executor.shutdownNow()) {
+                    // settles the result of a document that never started
+                    ((Future<?>) task).cancel(false);
+                }
+            }
+        } finally {
+            timeouts.shutdownNow();
+            TeiMetrics.unregister(metricName);
+        }
+    }
+}
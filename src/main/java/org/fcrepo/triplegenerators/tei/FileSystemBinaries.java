@@ -0,0 +1,88 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.File;
+
+import javax.jcr.Binary;
+import javax.jcr.RepositoryException;
+
+import org.slf4j.Logger;
+
+/**
+ * Finds the files in which a ModeShape file-system binary store keeps
+ * binaries, so that they can be mapped into memory and read in place rather
+ * than through {@link Binary#getStream()}. The store names each file for the
+ * SHA-1 of its content, in three levels of directories named for the first
+ * three pairs of hex digits of the SHA-1, and never changes a file once it is
+ * written; a binary that has since been collected as garbage is simply not
+ * found.
+ *
+ * @author ajs6f
+ */
+public class FileSystemBinaries {
+
+    private final File directory;
+
+    private static final Logger LOGGER = getLogger(FileSystemBinaries.class);
+
+    /**
+     * @param directory The directory of the binary store, as configured for
+     *        the repository.
+     */
+    public FileSystemBinaries(final File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return The directory of the binary store.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @param binary
+     * @return The file that holds {@code binary}, or {@code null} if it is not
+     *         held in a file of this store, in which case it must be read as a
+     *         stream.
+     * @throws RepositoryException
+     */
+    public File find(final Binary binary) throws RepositoryException {
+        if (!(binary instanceof org.modeshape.jcr.api.Binary)) {
+            return null;
+        }
+        final String hash =
+            ((org.modeshape.jcr.api.Binary) binary).getHexHash();
+        if (hash == null || hash.length() < 6) {
+            return null;
+        }
+        final File file =
+            new File(new File(new File(new File(directory, hash
+                    .substring(0, 2)), hash.substring(2, 4)), hash.substring(
+                    4, 6)), hash);
+        // a stray file is not the binary, whatever its name
+        if (!file.isFile() || !file.canRead() ||
+                file.length() != binary.getSize()) {
+            LOGGER.debug("No file for binary {} in {}", hash, directory);
+            return null;
+        }
+        return file;
+    }
+}
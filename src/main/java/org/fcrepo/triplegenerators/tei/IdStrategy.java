@@ -0,0 +1,63 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei;
+
+/**
+ * How add-ids.xslt names elements that lack an {@code xml:id}, and so how the
+ * subjects of their triples are named. Either way, a name begins with the
+ * qualified name of its element and an underscore.
+ *
+ * @author ajs6f
+ */
+public enum IdStrategy {
+
+    /**
+     * Names from {@code generate-id()}, which are unique but differ from one
+     * run to the next.
+     */
+    GENERATED("generated"),
+
+    /**
+     * Names from the position of each element among the elements of its
+     * parent, after the name of its parent, counted from the nearest ancestor
+     * with its own {@code xml:id}: {@code hi_p12.3.1} is the first child
+     * element of the third child element of the element {@code p12}. Text,
+     * comments and processing instructions are not counted. The same TEI
+     * always gets the same names, re-indenting or commenting it changes none,
+     * and an edit changes only those of the elements after an element it adds
+     * or removes under the same ancestor with an {@code xml:id}.
+     */
+    PATH("path");
+
+    /**
+     * The name of the parameter of add-ids.xslt that selects a strategy.
+     */
+    public static final String PARAMETER = "id-strategy";
+
+    private final String parameterValue;
+
+    private IdStrategy(final String parameterValue) {
+        this.parameterValue = parameterValue;
+    }
+
+    /**
+     * @return The value of {@link #PARAMETER} that selects this strategy.
+     */
+    public String getParameterValue() {
+        return parameterValue;
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei;
+
+import static java.lang.Thread.currentThread;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Fails any read made by an interrupted thread. Neither Saxon nor the StAX
+ * parser pays attention to interruption, but both give up when their input
+ * fails, so this is how a cancelled transform is stopped while it is still
+ * parsing.
+ *
+ * @author ajs6f
+ */
+class InterruptibleInputStream extends FilterInputStream {
+
+    /**
+     * @param in
+     */
+    InterruptibleInputStream(final InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkInterrupted();
+        return super.read();
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len)
+        throws IOException {
+        checkInterrupted();
+        return super.read(b, off, len);
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        checkInterrupted();
+        return super.skip(n);
+    }
+
+    private static void checkInterrupted() throws InterruptedIOException {
+        if (currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Interrupted while reading TEI!");
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.String.format;
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.fcrepo.triplegenerators.tei.TeiMetrics.ADMISSION_REJECTIONS;
+import static org.fcrepo.triplegenerators.tei.TeiMetrics.ADMISSION_WAIT;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.LinkedList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+
+/**
+ * Limits the memory that documents being transformed at once may take, as
+ * estimated from the sizes of their binaries. A document is admitted when its
+ * estimate fits in what remains of the budget, and otherwise waits, up to a
+ * fixed time and behind a fixed number of others; past either limit it is
+ * refused with a {@link RejectedExecutionException}. Documents are not
+ * admitted strictly in turn: one that fits may go ahead of a larger one that
+ * does not. Once the document that has waited longest has waited longer than
+ * our patience, though, no other is admitted unless both fit, so a large
+ * document is never kept waiting forever by a stream of small ones.
+ * <p>
+ * A document whose estimate exceeds the whole budget is charged the whole
+ * budget, and so runs alone rather than not at all.
+ * <p>
+ * Each budget is reported, until it is closed, under a name of its own:
+ * {@code admission.1}, {@code admission.2} and so on.
+ *
+ * @author ajs6f
+ */
+public class MemoryBudget implements AutoCloseable {
+
+    private final long budget;
+
+    private volatile double costFactor = 6;
+
+    private volatile long minimumCost = 1024 * 1024;
+
+    private volatile long maxWaitNanos = Long.MAX_VALUE;
+
+    private volatile int maxWaiting = Integer.MAX_VALUE;
+
+    private volatile long patienceNanos = SECONDS.toNanos(1);
+
+    private final LinkedList<Admission> waiting = new LinkedList<>();
+
+    private long reserved;
+
+    private final String metricName;
+
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    private static final Logger LOGGER = getLogger(MemoryBudget.class);
+
+    /**
+     * @param budget The most bytes of heap, as estimated, that documents being
+     *        transformed at once may take.
+     */
+    public MemoryBudget(final long budget) {
+        if (budget < 1) {
+            throw new IllegalArgumentException(
+                    "A memory budget must be at least one byte!");
+        }
+        this.budget = budget;
+        this.metricName = "admission." + INSTANCES.incrementAndGet();
+        TeiMetrics.register(this, metricName);
+    }
+
+    /**
+     * @param size The size of a binary, in bytes.
+     * @return The memory that transforming it is expected to take.
+     */
+    public long cost(final long size) {
+        return min(budget, max(minimumCost, (long) (size * costFactor)));
+    }
+
+    /**
+     * Waits until there is room in the budget for a binary.
+     *
+     * @param size The size of the binary, in bytes.
+     * @return An {@link Admission}, to be closed when the binary is done
+     *         with.
+     * @throws InterruptedException
+     * @throws RejectedExecutionException If too many documents are waiting
+     *         already, or there is no room before our longest wait.
+     */
+    public Admission admit(final long size) throws InterruptedException {
+        final Admission admission = new Admission(cost(size));
+        final long maxWait = maxWaitNanos;
+        final long start = nanoTime();
+        final long deadline = start + maxWait;
+        synchronized (this) {
+            if (fits(admission)) {
+                reserved += admission.cost;
+                ADMISSION_WAIT.update(0, NANOSECONDS);
+                return admission;
+            }
+            if (waiting.size() >= maxWaiting) {
+                ADMISSION_REJECTIONS.inc();
+                throw new RejectedExecutionException(format(
+                        "%d documents are waiting for memory already!",
+                        waiting.size()));
+            }
+            admission.since = start;
+            waiting.add(admission);
+            try {
+                while (!fits(admission)) {
+                    final long remaining =
+                        maxWait == Long.MAX_VALUE ? Long.MAX_VALUE
+                                : deadline - nanoTime();
+                    if (remaining <= 0) {
+                        ADMISSION_REJECTIONS.inc();
+                        throw new RejectedExecutionException(format(
+                                "No room for %d bytes in %d ms!",
+                                admission.cost, NANOSECONDS
+                                        .toMillis(maxWait)));
+                    }
+                    // wake in time to claim priority, if we are first
+                    NANOSECONDS.timedWait(this, min(remaining, patienceNanos));
+                }
+                reserved += admission.cost;
+            } finally {
+                waiting.remove(admission);
+                notifyAll();
+            }
+        }
+        ADMISSION_WAIT.update(nanoTime() - start, NANOSECONDS);
+        LOGGER.debug("Admitted {} bytes after {} ms.", admission.cost,
+                NANOSECONDS.toMillis(nanoTime() - start));
+        return admission;
+    }
+
+    /**
+     * @param admission
+     * @return Whether {@code admission} may be admitted now.
+     */
+    private boolean fits(final Admission admission) {
+        if (reserved + admission.cost > budget) {
+            return false;
+        }
+        final Admission first = waiting.peek();
+        if (first == null || first == admission ||
+                nanoTime() - first.since < patienceNanos) {
+            return true;
+        }
+        return reserved + admission.cost + first.cost <= budget;
+    }
+
+    private synchronized void release(final Admission admission) {
+        reserved -= admission.cost;
+        notifyAll();
+    }
+
+    /**
+     * @return The most bytes documents may take at once.
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return The bytes taken by the documents admitted.
+     */
+    public synchronized long getReserved() {
+        return reserved;
+    }
+
+    /**
+     * @return The number of documents waiting to be admitted.
+     */
+    public synchronized int getWaiting() {
+        return waiting.size();
+    }
+
+    /**
+     * @param factor The heap a document is expected to take per byte of its
+     *        binary. The default is 6, which covers the trees Saxon builds for
+     *        both stylesheets and the triples that result.
+     */
+    public void setCostFactor(final double factor) {
+        this.costFactor = factor;
+    }
+
+    /**
+     * @return The heap a document is expected to take per byte of its binary.
+     */
+    public double getCostFactor() {
+        return costFactor;
+    }
+
+    /**
+     * @param bytes The least any document is expected to take. The default is
+     *        1 MiB, for stylesheets, transformers and the like.
+     */
+    public void setMinimumCost(final long bytes) {
+        this.minimumCost = bytes;
+    }
+
+    /**
+     * @return The least any document is expected to take.
+     */
+    public long getMinimumCost() {
+        return minimumCost;
+    }
+
+    /**
+     * @param maxWait How long a document may wait to be admitted before it is
+     *        refused. By default it waits as long as it must.
+     * @param unit
+     */
+    public void setMaxWait(final long maxWait, final TimeUnit unit) {
+        this.maxWaitNanos = unit.toNanos(maxWait);
+    }
+
+    /**
+     * @param unit
+     * @return How long a document may wait to be admitted.
+     */
+    public long getMaxWait(final TimeUnit unit) {
+        return unit.convert(maxWaitNanos, NANOSECONDS);
+    }
+
+    /**
+     * @param maxWaiting The most documents that may wait at once; any more are
+     *        refused at once. By default there is no limit.
+     */
+    public void setMaxWaiting(final int maxWaiting) {
+        this.maxWaiting = maxWaiting;
+    }
+
+    /**
+     * @return The most documents that may wait at once.
+     */
+    public int getMaxWaiting() {
+        return maxWaiting;
+    }
+
+    /**
+     * @param patience How long the document that has waited longest may be
+     *        passed by others before it is given priority. The default is one
+     *        second.
+     * @param unit
+     */
+    public void setPatience(final long patience, final TimeUnit unit) {
+        this.patienceNanos = max(1, unit.toNanos(patience));
+    }
+
+    /**
+     * @param unit
+     * @return How long the document that has waited longest may be passed.
+     */
+    public long getPatience(final TimeUnit unit) {
+        return unit.convert(patienceNanos, NANOSECONDS);
+    }
+
+    /**
+     * @return The name under which this budget is reported.
+     */
+    String getMetricName() {
+        return metricName;
+    }
+
+    /**
+     * Stops reporting on this budget, which still admits documents as
+     * before.
+     */
+    @Override
+    public void close() {
+        TeiMetrics.unregister(metricName);
+    }
+
+    @Override
+    public String toString() {
+        return format("MemoryBudget of %d MiB", budget / (1024 * 1024));
+    }
+
+    /**
+     * Memory reserved for a document, which is given back on {@link #close()}.
+     */
+    public class Admission implements AutoCloseable {
+
+        private final long cost;
+
+        private long since;
+
+        private boolean closed;
+
+        Admission(final long cost) {
+            this.cost = cost;
+        }
+
+        /**
+         * @return The bytes reserved.
+         */
+        public long getCost() {
+            return cost;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release(this);
+            }
+        }
+    }
+}
@@ -15,22 +15,35 @@
  */
 package org.fcrepo.triplegenerators.tei;
 
+import static com.hp.hpl.jena.graph.NodeFactory.createAnon;
+import static com.hp.hpl.jena.graph.NodeFactory.createLiteral;
+import static com.hp.hpl.jena.graph.NodeFactory.createURI;
 import static com.hp.hpl.jena.rdf.model.ModelFactory.createDefaultModel;
+import static com.hp.hpl.jena.rdf.model.ModelFactory.createModelForGraph;
+import static java.lang.Thread.currentThread;
 import static org.slf4j.LoggerFactory.getLogger;
 
-import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.any23.extractor.ExtractionContext;
 import org.apache.any23.writer.TripleHandler;
 import org.apache.any23.writer.TripleHandlerException;
+import org.fcrepo.triplegenerators.tei.graph.CompactGraph;
+import org.openrdf.model.BNode;
+import org.openrdf.model.Literal;
 import org.openrdf.model.Resource;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
 import org.slf4j.Logger;
 
+import com.hp.hpl.jena.datatypes.TypeMapper;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.rdf.model.AnonId;
 import com.hp.hpl.jena.rdf.model.Model;
-import com.hp.hpl.jena.rdf.model.RDFNode;
-import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.shared.PrefixMapping.IllegalPrefixException;
 
 /**
  * Utility class to produce a {@link Model} from a stream of triples produced
@@ -46,10 +59,43 @@ public class ModelTripleHandler implements TripleHandler, AutoCloseable {
     /**
      * A {@link Model} of triples we are collecting.
      */
-    protected final Model model = createDefaultModel();
+    protected final Model model;
+
+    private final Graph graph;
+
+    /**
+     * URI {@link Node}s we have already created, so that the many triples
+     * that share a subject, predicate or object can share a {@link Node}.
+     */
+    private final Map<String, Node> uris = new HashMap<>();
+
+    /**
+     * The most URI {@link Node}s we hold in {@link #uris}.
+     */
+    private static final int MAX_INTERNED_URIS = 10000;
 
     private static final Logger LOGGER = getLogger(ModelTripleHandler.class);
 
+    /**
+     * Collects triples in a default in-memory {@link Model}.
+     */
+    public ModelTripleHandler() {
+        this(createDefaultModel());
+    }
+
+    /**
+     * @param graph The {@link Graph} in which to collect triples, such as a
+     *        {@link CompactGraph} where memory is short.
+     */
+    public ModelTripleHandler(final Graph graph) {
+        this(createModelForGraph(graph));
+    }
+
+    private ModelTripleHandler(final Model model) {
+        this.model = model;
+        this.graph = model.getGraph();
+    }
+
     /*
      * (non-Javadoc)
      * @see
@@ -61,30 +107,93 @@ public class ModelTripleHandler implements TripleHandler, AutoCloseable {
     public void receiveTriple(final Resource s, final URI p, final Value o,
         final URI g, final ExtractionContext ec)
         throws TripleHandlerException {
-        final Statement triple =
-            model.createStatement(model.createResource(s.stringValue()),
-                model.createProperty(p.getNamespace(), p.getLocalName()),
-                    objectNode(o));
-        model.add(triple);
-        LOGGER.trace("Added triple: {}", triple.asTriple().toString());
+        if (currentThread().isInterrupted()) {
+            // stops a cancelled transform that has finished parsing
+            throw new TripleHandlerException(
+                    "Interrupted while collecting triples!");
+        }
+        final Triple triple =
+            new Triple(s instanceof BNode ? blankNode(s) : uriNode(s
+                    .stringValue()), uriNode(p.stringValue()), objectNode(o));
+        add(triple);
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("Added triple: {}", triple);
+        }
     }
 
     /**
-     * @param v A {@link Value}
-     * @return An {@link RDFNode}
+     * Collects a triple, by default into our {@link Model}.
+     *
+     * @param triple
      */
-    private RDFNode objectNode(final Value value) {
-        final String v = value.stringValue();
-        try {
-            final java.net.URI uri = new java.net.URI(v);
-            if (uri.isAbsolute()) {
-                return model.createResource(uri.toString());
-            } else {
-                return model.createLiteral(v);
+    protected void add(final Triple triple) {
+        graph.add(triple);
+    }
+
+    /**
+     * URIs become URI nodes. Plain literals that have the form of an absolute
+     * URI are also treated as URIs, because our stylesheets emit many links as
+     * literals. Other literals keep their language tags and datatypes.
+     *
+     * @param value A {@link Value}
+     * @return A {@link Node}
+     */
+    private Node objectNode(final Value value) {
+        if (value instanceof URI) {
+            return uriNode(value.stringValue());
+        }
+        if (value instanceof BNode) {
+            return blankNode(value);
+        }
+        final Literal literal = (Literal) value;
+        final String label = literal.getLabel();
+        if (literal.getLanguage() != null) {
+            return createLiteral(label, literal.getLanguage(), false);
+        }
+        if (literal.getDatatype() != null) {
+            return createLiteral(label, TypeMapper.getInstance()
+                    .getSafeTypeByName(literal.getDatatype().stringValue()));
+        }
+        return isAbsoluteUri(label) ? uriNode(label) : createLiteral(label);
+    }
+
+    private Node uriNode(final String uri) {
+        Node node = uris.get(uri);
+        if (node == null) {
+            if (uris.size() >= MAX_INTERNED_URIS) {
+                uris.clear();
+            }
+            node = createURI(uri);
+            uris.put(uri, node);
+        }
+        return node;
+    }
+
+    private static Node blankNode(final Value bnode) {
+        return createAnon(new AnonId(bnode.stringValue()));
+    }
+
+    /**
+     * A cheap test for whether a string would parse as an absolute
+     * {@link java.net.URI}: it must begin with a scheme, have something after
+     * the colon and contain no characters that may not appear in a URI.
+     *
+     * @param v
+     * @return Whether {@code v} is an absolute URI
+     */
+    static boolean isAbsoluteUri(final String v) {
+        if (!RdfXmlContentHandler.hasScheme(v) || v.endsWith(":")) {
+            return false;
+        }
+        for (int i = 0; i < v.length(); i++) {
+            final char c = v.charAt(i);
+            if (c <= ' ' || c == '"' || c == '<' || c == '>' || c == '\\' ||
+                    c == '^' || c == '`' || c == '{' || c == '|' || c == '}' ||
+                    c == 0x7f) {
+                return false;
             }
-        } catch (final URISyntaxException e) {
-            return model.createLiteral(v);
         }
+        return true;
     }
 
     /**
@@ -95,12 +204,23 @@ public class ModelTripleHandler implements TripleHandler, AutoCloseable {
         return model;
     }
 
-    /*
-     * (non-Javadoc)
+    /**
+     * @return The number of triples collected.
+     */
+    long size() {
+        return graph.size();
+    }
+
+    /**
+     * Finishes a {@link CompactGraph}, if that is what we collect into.
+     *
      * @see org.apache.any23.writer.TripleHandler#close()
      */
     @Override
     public void close() throws TripleHandlerException {
+        if (graph instanceof CompactGraph) {
+            ((CompactGraph) graph).freeze();
+        }
     }
 
     /*
@@ -142,15 +262,28 @@ public class ModelTripleHandler implements TripleHandler, AutoCloseable {
         throws TripleHandlerException {
     }
 
-    /*
-     * (non-Javadoc)
-     * @see
-     * org.apache.any23.writer.TripleHandler#receiveNamespace(java.lang.String,
-     * java.lang.String, org.apache.any23.extractor.ExtractionContext)
+    /**
+     * Adds a prefix to those of our {@link Model}, so that it is written out
+     * compactly. A later mapping of the same prefix replaces an earlier one;
+     * the {@code xml} prefix, default namespaces and prefixes that Jena will
+     * not accept are ignored.
+     *
+     * @see org.apache.any23.writer.TripleHandler#receiveNamespace(String,
+     *      String, ExtractionContext)
      */
     @Override
     public void receiveNamespace(final String prefix, final String uri,
         final ExtractionContext ec) throws TripleHandlerException {
+        if (prefix == null || prefix.isEmpty() || "xml".equals(prefix) ||
+                uri == null || uri.isEmpty()) {
+            return;
+        }
+        try {
+            model.setNsPrefix(prefix, uri);
+        } catch (final IllegalPrefixException e) {
+            LOGGER.debug("Ignoring prefix {} for {}: {}", prefix, uri, e
+                    .getMessage());
+        }
     }
 
     /*
@@ -169,5 +302,9 @@ public class ModelTripleHandler implements TripleHandler, AutoCloseable {
      */
     public void reset() {
         model.removeAll();
+        for (final String prefix : model.getNsPrefixMap().keySet()) {
+            model.removeNsPrefix(prefix);
+        }
+        uris.clear();
     }
 }
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei;
+
+import static org.apache.jena.riot.system.StreamRDFLib.writer;
+
+import java.io.OutputStream;
+
+import org.apache.any23.writer.TripleHandlerException;
+import org.apache.jena.riot.system.StreamRDF;
+
+import com.hp.hpl.jena.graph.Triple;
+
+/**
+ * A {@link ModelTripleHandler} that writes triples out as N-Triples as they
+ * arrive, in UTF-8, rather than collecting them, so that the memory it uses
+ * does not grow with the number of triples. Its {@link #getModel()} stays
+ * empty. Triples are not checked for duplicates, which a store loading them
+ * will discard.
+ *
+ * @author ajs6f
+ */
+public class NTriplesTripleHandler extends ModelTripleHandler {
+
+    private final StreamRDF out;
+
+    private long count;
+
+    /**
+     * @param out Where to write N-Triples. It is flushed, not closed, by
+     *        {@link #close()}.
+     */
+    public NTriplesTripleHandler(final OutputStream out) {
+        this.out = writer(out);
+        this.out.start();
+    }
+
+    @Override
+    protected void add(final Triple triple) {
+        out.triple(triple);
+        count++;
+    }
+
+    /**
+     * @return The number of triples written.
+     */
+    @Override
+    long size() {
+        return count;
+    }
+
+    /**
+     * Flushes what has been written.
+     */
+    @Override
+    public void close() throws TripleHandlerException {
+        out.finish();
+        super.close();
+    }
+}
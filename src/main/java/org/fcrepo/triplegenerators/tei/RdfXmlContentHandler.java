@@ -0,0 +1,482 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei;
+
+import static java.util.UUID.randomUUID;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.any23.extractor.ExtractionContext;
+import org.apache.any23.writer.TripleHandler;
+import org.apache.any23.writer.TripleHandlerException;
+import org.openrdf.model.Resource;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.slf4j.Logger;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Interprets a stream of SAX events carrying RDF/XML and passes the triples it
+ * describes to a {@link TripleHandler}. This lets the output of tei2rdf.xslt
+ * flow straight into a {@link ModelTripleHandler} without being serialized to
+ * text and re-parsed by Any23. It understands the striped RDF/XML our
+ * stylesheets produce: node elements with {@code rdf:about}, {@code rdf:ID}
+ * or {@code rdf:nodeID}, typed node elements, property attributes, property
+ * elements with {@code rdf:resource}, {@code rdf:nodeID},
+ * {@code rdf:datatype}, {@code rdf:parseType="Resource"} or property
+ * attributes of their own, {@code rdf:li}, literal or nested node element
+ * content, and {@code xml:lang}. Property elements without a namespace are
+ * skipped, as Any23 skips them. Any other RDF/XML construct, such as
+ * {@code rdf:parseType="Literal"} or reification with {@code rdf:ID} on a
+ * property element, is refused with a {@link SAXException}, so RDF/XML from
+ * stylesheets other than ours should be parsed by Any23 instead.
+ *
+ * @author ajs6f
+ */
+public class RdfXmlContentHandler extends DefaultHandler {
+
+    public static final String RDF_NS =
+        "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+
+    private static final String XML_NS = "http://www.w3.org/XML/1998/namespace";
+
+    private static final ValueFactory VALUES = ValueFactoryImpl.getInstance();
+
+    private static final URI RDF_TYPE = VALUES.createURI(RDF_NS, "type");
+
+    /**
+     * Distinguishes the blank nodes of this run from those of any other.
+     */
+    private static final String RUN = randomUUID().toString().replace("-", "");
+
+    private static final AtomicLong DOCUMENTS = new AtomicLong();
+
+    /**
+     * The {@code rdf:} attributes we understand on a node element.
+     */
+    private static final Set<String> NODE_ELEMENT_ATTRIBUTES = ImmutableSet.of(
+            "about", "ID", "nodeID", "type");
+
+    /**
+     * The {@code rdf:} attributes we understand on a property element.
+     */
+    private static final Set<String> PROPERTY_ELEMENT_ATTRIBUTES =
+        ImmutableSet.of("resource", "nodeID", "datatype", "parseType", "type");
+
+    private static final Logger LOGGER = getLogger(RdfXmlContentHandler.class);
+
+    private final String baseUri;
+
+    private final String documentUri;
+
+    private final TripleHandler handler;
+
+    private final ExtractionContext context;
+
+    private final Deque<Frame> frames = new ArrayDeque<>();
+
+    private final StringBuilder text = new StringBuilder();
+
+    /**
+     * What the labels of our blank nodes begin with, unique to this handler
+     * in this run, so that the blank nodes of different documents, or of
+     * different runs, are never merged when their triples are.
+     */
+    private final String bnodeLabels =
+        "tei" + RUN + "d" + DOCUMENTS.incrementAndGet() + "n";
+
+    private int bnodes = 0;
+
+    /**
+     * @param baseUri The URI against which to resolve relative references
+     * @param handler The recipient of triples
+     */
+    public RdfXmlContentHandler(final String baseUri,
+            final TripleHandler handler) {
+        this.baseUri = baseUri;
+        final int hash = baseUri.indexOf('#');
+        this.documentUri = hash < 0 ? baseUri : baseUri.substring(0, hash);
+        this.handler = handler;
+        this.context =
+            new ExtractionContext("tei2rdf", VALUES.createURI(documentUri));
+    }
+
+    /**
+     * The role of an open element in the RDF/XML grammar.
+     */
+    private static enum Kind {
+        ROOT, NODE, PROPERTY, RESOURCE_PROPERTY, EMPTY_PROPERTY, IGNORED
+    }
+
+    /**
+     * What we know about an open element.
+     */
+    private static class Frame {
+
+        Kind kind;
+
+        /**
+         * For a node element, its subject. For a property element, the subject
+         * of the enclosing node element.
+         */
+        Resource subject;
+
+        URI predicate;
+
+        String lang;
+
+        URI datatype;
+
+        boolean hasChildNode;
+
+        /**
+         * For a node element, how many {@code rdf:li} it has had.
+         */
+        int items;
+    }
+
+    @Override
+    public void startDocument() throws SAXException {
+        try {
+            handler.startDocument(context.getDocumentURI());
+            handler.openContext(context);
+        } catch (final TripleHandlerException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+        try {
+            handler.closeContext(context);
+            handler.endDocument(context.getDocumentURI());
+        } catch (final TripleHandlerException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    /**
+     * Passes each namespace declared in the RDF/XML on to our handler as a
+     * prefix for its triples.
+     */
+    @Override
+    public void startPrefixMapping(final String prefix, final String uri)
+        throws SAXException {
+        try {
+            handler.receiveNamespace(prefix, uri, context);
+        } catch (final TripleHandlerException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    @Override
+    public void startElement(final String ns, final String localName,
+        final String qName, final Attributes atts) throws SAXException {
+        final Frame parent = frames.peek();
+        final Frame frame = new Frame();
+        final String lang = atts.getValue(XML_NS, "lang");
+        frame.lang = lang != null ? lang : parent == null ? null : parent.lang;
+
+        if (parent == null && RDF_NS.equals(ns) && "RDF".equals(localName)) {
+            frame.kind = Kind.ROOT;
+        } else if (parent == null || parent.kind == Kind.ROOT ||
+                parent.kind == Kind.PROPERTY) {
+            if (parent != null && parent.kind == Kind.PROPERTY &&
+                    (parent.hasChildNode || !isBlank(text))) {
+                throw unsupported("more than one node or text in " +
+                        parent.predicate);
+            }
+            checkNamespace(ns, qName);
+            frame.kind = Kind.NODE;
+            frame.subject = nodeSubject(atts);
+            if (parent != null && parent.kind == Kind.PROPERTY) {
+                parent.hasChildNode = true;
+                emit(parent.subject, parent.predicate, frame.subject);
+            }
+            if (!(RDF_NS.equals(ns) && "Description".equals(localName))) {
+                emit(frame.subject, RDF_TYPE, VALUES.createURI(ns + localName));
+            }
+            propertyAttributes(frame.subject, frame.lang, atts);
+        } else if (parent.kind == Kind.IGNORED) {
+            frame.kind = Kind.IGNORED;
+        } else if ((parent.kind == Kind.NODE ||
+                parent.kind == Kind.RESOURCE_PROPERTY) &&
+                (ns == null || ns.isEmpty())) {
+            // as Any23 does, for a relation our stylesheets could not qualify
+            LOGGER.warn("Ignoring property element without namespace: {}",
+                    qName);
+            frame.kind = Kind.IGNORED;
+        } else if (parent.kind == Kind.NODE ||
+                parent.kind == Kind.RESOURCE_PROPERTY) {
+            frame.subject = parent.subject;
+            if (RDF_NS.equals(ns) && "li".equals(localName)) {
+                frame.predicate = VALUES.createURI(RDF_NS, "_" + ++parent.items);
+            } else {
+                frame.predicate = VALUES.createURI(ns + localName);
+            }
+            propertyElement(frame, atts);
+        } else {
+            throw unsupported("element " + qName + " within " +
+                    (parent.predicate == null ? "this element" : parent.predicate
+                            .stringValue()));
+        }
+        text.setLength(0);
+        frames.push(frame);
+    }
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length) {
+        text.append(ch, start, length);
+    }
+
+    @Override
+    public void endElement(final String ns, final String localName,
+        final String qName) throws SAXException {
+        final Frame frame = frames.pop();
+        if (frame.kind == Kind.EMPTY_PROPERTY && !isBlank(text)) {
+            throw unsupported("text in empty property element " +
+                    frame.predicate);
+        }
+        if (frame.kind == Kind.PROPERTY && frame.hasChildNode &&
+                !isBlank(text)) {
+            throw unsupported("text beside a node in " + frame.predicate);
+        }
+        if (frame.kind == Kind.PROPERTY && !frame.hasChildNode) {
+            final String lexical = text.toString();
+            final Value literal;
+            if (frame.datatype != null) {
+                literal = VALUES.createLiteral(lexical, frame.datatype);
+            } else if (frame.lang != null && !frame.lang.isEmpty()) {
+                literal = VALUES.createLiteral(lexical, frame.lang);
+            } else {
+                literal = VALUES.createLiteral(lexical);
+            }
+            emit(frame.subject, frame.predicate, literal);
+        }
+        text.setLength(0);
+    }
+
+    /**
+     * Classifies a property element and emits the triple for it if its object
+     * is already known from its attributes.
+     */
+    private void propertyElement(final Frame frame, final Attributes atts)
+        throws SAXException {
+        checkRdfAttributes(atts, PROPERTY_ELEMENT_ATTRIBUTES);
+        final String resource = atts.getValue(RDF_NS, "resource");
+        final String nodeId = atts.getValue(RDF_NS, "nodeID");
+        final String datatype = atts.getValue(RDF_NS, "datatype");
+        final String parseType = atts.getValue(RDF_NS, "parseType");
+        if (parseType != null && !"Resource".equals(parseType)) {
+            throw unsupported("rdf:parseType=\"" + parseType + "\" on " +
+                    frame.predicate);
+        }
+        if (resource != null || nodeId != null || hasPropertyAttributes(atts)) {
+            if (parseType != null || datatype != null) {
+                throw unsupported("rdf:" +
+                        (parseType != null ? "parseType" : "datatype") +
+                        " on empty property element " + frame.predicate);
+            }
+            frame.kind = Kind.EMPTY_PROPERTY;
+            final Resource object =
+                resource != null ? VALUES.createURI(resolve(resource))
+                        : nodeId != null ? nodeIdBNode(nodeId) : newBNode();
+            emit(frame.subject, frame.predicate, object);
+            propertyAttributes(object, frame.lang, atts);
+        } else if (parseType != null) {
+            final Resource object = newBNode();
+            emit(frame.subject, frame.predicate, object);
+            frame.kind = Kind.RESOURCE_PROPERTY;
+            frame.subject = object;
+        } else {
+            frame.kind = Kind.PROPERTY;
+            if (datatype != null) {
+                frame.datatype = VALUES.createURI(resolve(datatype));
+            }
+        }
+    }
+
+    /**
+     * @return The subject named by a node element's attributes.
+     */
+    private Resource nodeSubject(final Attributes atts) throws SAXException {
+        checkRdfAttributes(atts, NODE_ELEMENT_ATTRIBUTES);
+        final String about = atts.getValue(RDF_NS, "about");
+        if (about != null) {
+            return VALUES.createURI(resolve(about));
+        }
+        final String id = atts.getValue(RDF_NS, "ID");
+        if (id != null) {
+            return VALUES.createURI(documentUri + "#" + id);
+        }
+        final String nodeId = atts.getValue(RDF_NS, "nodeID");
+        if (nodeId != null) {
+            return nodeIdBNode(nodeId);
+        }
+        return newBNode();
+    }
+
+    /**
+     * Emits a triple for each property attribute of an element, and for an
+     * {@code rdf:type} attribute, about {@code subject}.
+     */
+    private void propertyAttributes(final Resource subject, final String lang,
+        final Attributes atts) throws SAXException {
+        for (int i = 0; i < atts.getLength(); i++) {
+            final String ns = atts.getURI(i);
+            if (RDF_NS.equals(ns) && "type".equals(atts.getLocalName(i))) {
+                emit(subject, RDF_TYPE, VALUES.createURI(resolve(atts
+                        .getValue(i))));
+            } else if (isPropertyAttribute(ns)) {
+                emit(subject, VALUES.createURI(ns + atts.getLocalName(i)),
+                        lang == null || lang.isEmpty() ? VALUES
+                                .createLiteral(atts.getValue(i)) : VALUES
+                                .createLiteral(atts.getValue(i), lang));
+            }
+        }
+    }
+
+    private static boolean isPropertyAttribute(final String ns) {
+        return !(ns.isEmpty() || RDF_NS.equals(ns) || XML_NS.equals(ns));
+    }
+
+    private static boolean hasPropertyAttributes(final Attributes atts) {
+        for (int i = 0; i < atts.getLength(); i++) {
+            if (isPropertyAttribute(atts.getURI(i)) ||
+                    RDF_NS.equals(atts.getURI(i)) &&
+                    "type".equals(atts.getLocalName(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Refuses an element that carries an RDF attribute we do not understand
+     * there.
+     */
+    private static void checkRdfAttributes(final Attributes atts,
+        final Set<String> understood) throws SAXException {
+        for (int i = 0; i < atts.getLength(); i++) {
+            if (RDF_NS.equals(atts.getURI(i)) &&
+                    !understood.contains(atts.getLocalName(i))) {
+                throw unsupported("rdf:" + atts.getLocalName(i) +
+                        " attribute");
+            }
+        }
+    }
+
+    private static void checkNamespace(final String ns, final String qName)
+        throws SAXException {
+        if (ns == null || ns.isEmpty()) {
+            throw unsupported("element without namespace " + qName);
+        }
+    }
+
+    private static boolean isBlank(final CharSequence chars) {
+        for (int i = 0; i < chars.length(); i++) {
+            if (!Character.isWhitespace(chars.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static SAXException unsupported(final String construct) {
+        return new SAXException("Unsupported RDF/XML: " + construct + "!");
+    }
+
+    private Resource newBNode() {
+        return VALUES.createBNode(bnodeLabels + (++bnodes));
+    }
+
+    /**
+     * @return The blank node named by an {@code rdf:nodeID}, which names it
+     *         only within this document.
+     */
+    private Resource nodeIdBNode(final String nodeId) {
+        return VALUES.createBNode(bnodeLabels + "id" + nodeId);
+    }
+
+    private void emit(final Resource s, final URI p, final Value o)
+        throws SAXException {
+        try {
+            handler.receiveTriple(s, p, o, null, context);
+        } catch (final TripleHandlerException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    /**
+     * Resolves a URI reference against our base URI. Spaces are escaped as
+     * Any23 does for the same input.
+     *
+     * @param reference A possibly relative URI reference
+     * @return An absolute URI
+     */
+    String resolve(final String reference) {
+        final String ref = reference.trim().replace(" ", "%20");
+        if (ref.isEmpty()) {
+            return documentUri;
+        }
+        if (ref.charAt(0) == '#') {
+            return documentUri + ref;
+        }
+        if (hasScheme(ref)) {
+            return ref;
+        }
+        try {
+            return new java.net.URI(baseUri).resolve(ref).toString();
+        } catch (final java.net.URISyntaxException | IllegalArgumentException e) {
+            LOGGER.debug("Couldn't resolve {} against {}", ref, baseUri);
+            return documentUri + ref;
+        }
+    }
+
+    /**
+     * @param ref A URI reference
+     * @return Whether it begins with a URI scheme
+     */
+    static boolean hasScheme(final String ref) {
+        final int colon = ref.indexOf(':');
+        if (colon < 1 || !isLetter(ref.charAt(0))) {
+            return false;
+        }
+        for (int i = 1; i < colon; i++) {
+            final char c = ref.charAt(i);
+            if (!(isLetter(c) || (c >= '0' && c <= '9') || c == '+' ||
+                    c == '-' || c == '.')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLetter(final char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei;
+
+import static org.apache.any23.extractor.ExtractionParameters.newDefault;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+
+import org.apache.any23.extractor.ExtractionContext;
+import org.apache.any23.extractor.ExtractionException;
+import org.apache.any23.extractor.ExtractionParameters;
+import org.apache.any23.extractor.ExtractionResultImpl;
+import org.apache.any23.extractor.IssueReport.Issue;
+import org.apache.any23.extractor.rdf.RDFXMLExtractor;
+import org.apache.any23.writer.TripleHandler;
+import org.apache.any23.writer.TripleHandlerException;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+
+/**
+ * Extracts triples from RDF/XML with Any23's RDF/XML extractor alone. The
+ * RDF/XML we extract from is always our own, so there is no need for what
+ * {@link org.apache.any23.Any23} does before it extracts anything: it detects
+ * the MIME type of every document with Tika and chooses among all of the
+ * extractors it knows, then reports on each it chose. Here the extractor is
+ * fixed when we are created, and keeps no state between documents, so one
+ * {@link RdfXmlExtraction} may serve any number of threads at once.
+ *
+ * @author ajs6f
+ */
+public class RdfXmlExtraction {
+
+    private final RDFXMLExtractor extractor;
+
+    private final String extractorName;
+
+    private final ExtractionParameters parameters = newDefault();
+
+    private static final ValueFactory VALUE_FACTORY = ValueFactoryImpl
+            .getInstance();
+
+    /**
+     * Extracts without verifying datatypes and without stopping at the first
+     * error, as {@link org.apache.any23.Any23} does by default.
+     */
+    public RdfXmlExtraction() {
+        this.extractor = new RDFXMLExtractor(false, false);
+        this.extractorName = extractor.getDescription().getExtractorName();
+    }
+
+    /**
+     * @param rdfXml An {@link InputStream} of RDF/XML, which is not closed.
+     * @param baseUri The URI of the document, against which relative URIs in
+     *        it are resolved.
+     * @param handler The {@link TripleHandler} to receive the triples.
+     * @return Any issues the extractor found with the RDF/XML.
+     * @throws IOException
+     * @throws ExtractionException
+     */
+    public Collection<Issue> extract(final InputStream rdfXml,
+        final String baseUri, final TripleHandler handler)
+        throws IOException, ExtractionException {
+        final URI documentUri = VALUE_FACTORY.createURI(baseUri);
+        final ExtractionContext context =
+            new ExtractionContext(extractorName, documentUri);
+        final ExtractionResultImpl result =
+            new ExtractionResultImpl(context, extractor, handler);
+        try {
+            handler.startDocument(documentUri);
+            try {
+                extractor.run(parameters, context, rdfXml, result);
+            } finally {
+                result.close();
+            }
+            handler.endDocument(documentUri);
+        } catch (final TripleHandlerException e) {
+            throw new ExtractionException("Couldn't hand on triples from " +
+                    baseUri, e);
+        }
+        return result.getIssues();
+    }
+}
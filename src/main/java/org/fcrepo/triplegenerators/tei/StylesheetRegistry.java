@@ -0,0 +1,283 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei;
+
+import static java.util.Collections.unmodifiableSet;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+import static org.modeshape.jcr.api.JcrConstants.JCR_CONTENT;
+import static org.modeshape.jcr.api.JcrConstants.JCR_DATA;
+import static org.modeshape.jcr.api.JcrConstants.JCR_MIME_TYPE;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.nodetype.NodeType;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.TransformerConfigurationException;
+
+import org.fcrepo.rdf.GraphProperties;
+import org.fcrepo.rdf.GraphSubjects;
+import org.slf4j.Logger;
+
+import com.hp.hpl.jena.query.Dataset;
+
+/**
+ * Generates triples with whichever of several named profiles suits each
+ * node, so that one repository can serve several customizations of TEI. A
+ * profile is a pair of stylesheets in the manner of add-ids.xslt and
+ * tei2rdf.xslt, with a {@link TeiTripleGenerator} of its own; registering a
+ * profile compiles only its own stylesheets, and leaves the others and their
+ * transformers as they are.
+ * <p>
+ * A node is given the profile selected for the first of its mixin types that
+ * has one, or else the profile selected for its MIME type, or else that
+ * selected for the namespace of the root element of its TEI, or else the
+ * default profile, which to begin with is the built-in stylesheets under the
+ * name {@link #BUILT_IN}. Namespaces are consulted only if some profile has
+ * been selected by namespace, because the TEI must be opened to find one.
+ *
+ * @author ajs6f
+ */
+public class StylesheetRegistry implements GraphProperties, AutoCloseable {
+
+    /**
+     * The name of the profile of the built-in stylesheets.
+     */
+    public static final String BUILT_IN = "tei";
+
+    private final int concurrency;
+
+    private final Map<String, TeiTripleGenerator> profiles =
+        new ConcurrentHashMap<>();
+
+    private final Map<String, String> byMixin = new ConcurrentHashMap<>();
+
+    private final Map<String, String> byMimeType = new ConcurrentHashMap<>();
+
+    private final Map<String, String> byNamespace = new ConcurrentHashMap<>();
+
+    private volatile String defaultProfile = BUILT_IN;
+
+    private final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+    private static final Logger LOGGER = getLogger(StylesheetRegistry.class);
+
+    /**
+     * @param concurrency The most documents each profile will transform at
+     *        once.
+     * @throws TransformerConfigurationException
+     * @throws IOException
+     */
+    public StylesheetRegistry(final int concurrency)
+        throws TransformerConfigurationException, IOException {
+        this.concurrency = concurrency;
+        profiles.put(BUILT_IN, new TeiTripleGenerator(concurrency));
+    }
+
+    /**
+     * Compiles a profile, in place of any of the same name, which is closed.
+     *
+     * @param name
+     * @param addIdsResource The classpath location of its add-ids stylesheet.
+     * @param tei2RdfResource The classpath location of its tei2rdf stylesheet.
+     * @return The {@link TeiTripleGenerator} of the profile, to be configured
+     *         as any other.
+     * @throws TransformerConfigurationException
+     * @throws IOException
+     */
+    public TeiTripleGenerator register(final String name,
+        final String addIdsResource, final String tei2RdfResource)
+        throws TransformerConfigurationException, IOException {
+        final TeiTripleGenerator generator =
+            new TeiTripleGenerator(concurrency, addIdsResource,
+                    tei2RdfResource);
+        final TeiTripleGenerator replaced = profiles.put(name, generator);
+        if (replaced != null) {
+            replaced.close();
+        }
+        LOGGER.info("Registered TEI profile {} with {} and {}.", name,
+                addIdsResource, tei2RdfResource);
+        return generator;
+    }
+
+    /**
+     * @param name
+     * @return The {@link TeiTripleGenerator} of a profile, or {@code null} if
+     *         there is none of that name.
+     */
+    public TeiTripleGenerator getProfile(final String name) {
+        return profiles.get(name);
+    }
+
+    /**
+     * @return The names of the profiles registered.
+     */
+    public Set<String> getProfileNames() {
+        return unmodifiableSet(profiles.keySet());
+    }
+
+    /**
+     * @param mixin The name of a mixin type
+     * @param profile The profile for nodes of that type
+     */
+    public void selectByMixin(final String mixin, final String profile) {
+        byMixin.put(mixin, known(profile));
+    }
+
+    /**
+     * @param mimeType A MIME type of {@code jcr:content}
+     * @param profile The profile for nodes with content of that type
+     */
+    public void selectByMimeType(final String mimeType, final String profile) {
+        byMimeType.put(mimeType, known(profile));
+    }
+
+    /**
+     * @param namespace The namespace of a root element
+     * @param profile The profile for TEI with a root element in that namespace
+     */
+    public void selectByNamespace(final String namespace, final String profile) {
+        byNamespace.put(namespace, known(profile));
+    }
+
+    /**
+     * @param profile The profile for nodes no other selection covers.
+     */
+    public void setDefaultProfile(final String profile) {
+        this.defaultProfile = known(profile);
+    }
+
+    /**
+     * @return The profile for nodes no other selection covers.
+     */
+    public String getDefaultProfile() {
+        return defaultProfile;
+    }
+
+    private String known(final String profile) {
+        if (!profiles.containsKey(profile)) {
+            throw new IllegalArgumentException("No TEI profile named " +
+                    profile + " has been registered!");
+        }
+        return profile;
+    }
+
+    /**
+     * @param node
+     * @return The name of the profile for {@code node}.
+     * @throws RepositoryException
+     */
+    public String select(final javax.jcr.Node node) throws RepositoryException {
+        if (!byMixin.isEmpty()) {
+            for (final NodeType mixin : node.getMixinNodeTypes()) {
+                final String profile = byMixin.get(mixin.getName());
+                if (profile != null) {
+                    return profile;
+                }
+            }
+        }
+        final javax.jcr.Node content = node.getNode(JCR_CONTENT);
+        if (!byMimeType.isEmpty() && content.hasProperty(JCR_MIME_TYPE)) {
+            final String profile =
+                byMimeType.get(content.getProperty(JCR_MIME_TYPE).getString());
+            if (profile != null) {
+                return profile;
+            }
+        }
+        if (!byNamespace.isEmpty()) {
+            final String profile =
+                byNamespace.get(rootNamespace(content.getProperty(JCR_DATA)
+                        .getBinary().getStream()));
+            if (profile != null) {
+                return profile;
+            }
+        }
+        return defaultProfile;
+    }
+
+    /**
+     * @param tei An {@link InputStream} with TEI XML, which is closed.
+     * @return The namespace of the root element, or {@code ""} if it has none
+     *         or cannot be read.
+     */
+    private String rootNamespace(final InputStream tei) {
+        try (final InputStream in = tei) {
+            final XMLStreamReader reader = factory.createXMLStreamReader(in);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == START_ELEMENT) {
+                        final String namespace = reader.getNamespaceURI();
+                        return namespace == null ? "" : namespace;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException | IOException e) {
+            LOGGER.debug("Couldn't read root element: {}", e.getMessage());
+        }
+        return "";
+    }
+
+    /**
+     * @param node
+     * @return The {@link TeiTripleGenerator} of the profile for {@code node}.
+     * @throws RepositoryException
+     */
+    private TeiTripleGenerator generator(final javax.jcr.Node node)
+        throws RepositoryException {
+        final String profile = select(node);
+        LOGGER.debug("Using TEI profile {} for {}", profile, node.getPath());
+        return profiles.get(profile);
+    }
+
+    @Override
+    public String getPropertyModelName() {
+        return profiles.get(BUILT_IN).getPropertyModelName();
+    }
+
+    @Override
+    public Dataset getProperties(final javax.jcr.Node node,
+        final GraphSubjects subjects) throws RepositoryException {
+        return generator(node).getProperties(node, subjects);
+    }
+
+    @Override
+    public Dataset getProperties(final javax.jcr.Node node,
+        final GraphSubjects subjects, final long offset, final int limit)
+        throws RepositoryException {
+        return generator(node).getProperties(node, subjects, offset, limit);
+    }
+
+    /**
+     * Closes the {@link TeiTripleGenerator} of every profile, which stops
+     * reporting on them. Profiles may still be used as before.
+     */
+    @Override
+    public void close() {
+        for (final TeiTripleGenerator generator : profiles.values()) {
+            generator.close();
+        }
+    }
+}
@@ -0,0 +1,390 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei;
+
+import static java.lang.String.format;
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.fcrepo.rdf.GraphProperties.PROBLEMS_MODEL_NAME;
+import static org.modeshape.jcr.api.JcrConstants.JCR_CONTENT;
+import static org.modeshape.jcr.api.JcrConstants.JCR_DATA;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.Binary;
+import javax.jcr.RepositoryException;
+
+import org.fcrepo.rdf.GraphSubjects;
+import org.slf4j.Logger;
+
+import com.google.common.io.ByteSource;
+import com.hp.hpl.jena.query.Dataset;
+
+/**
+ * Generates triples for many TEI documents at once, fanning them out over an
+ * {@link ExecutorService}. At most a fixed number of documents are in flight
+ * (being transformed, or transformed but not yet handed to the
+ * {@link DatasetSink}) at any time; while that many are in flight, the thread
+ * supplying documents waits. A document that cannot be transformed produces
+ * a {@link Dataset} holding only a problems graph, as
+ * {@link TeiTripleGenerator#getProperties(javax.jcr.Node, GraphSubjects)}
+ * does, and the batch carries on.
+ *
+ * @author ajs6f
+ */
+public class TeiBatchGenerator implements AutoCloseable {
+
+    private final TeiTripleGenerator generator;
+
+    private final ExecutorService executor;
+
+    private final boolean ownExecutor;
+
+    private final int maxInFlight;
+
+    private static final Logger LOGGER = getLogger(TeiBatchGenerator.class);
+
+    /**
+     * Receives the results of a batch. Calls to a sink are never concurrent,
+     * but they come from the threads of the executor, not from the thread that
+     * started the batch.
+     */
+    public static interface DatasetSink {
+
+        /**
+         * @param baseUri The base URI of a document
+         * @param dataset The triples generated for it, or the problems found
+         *        with it
+         * @throws Exception
+         */
+        void accept(String baseUri, Dataset dataset) throws Exception;
+    }
+
+    /**
+     * A TEI document to generate triples for, from either a repository
+     * {@link Binary} or any other {@link ByteSource}.
+     */
+    public static class Document {
+
+        private final String baseUri;
+
+        private final Binary binary;
+
+        private final ByteSource source;
+
+        private Document(final String baseUri, final Binary binary,
+                final ByteSource source) {
+            this.baseUri = baseUri;
+            this.binary = binary;
+            this.source = source;
+        }
+
+        /**
+         * @param baseUri
+         * @param binary
+         * @return A {@link Document} read from {@code binary}
+         */
+        public static Document of(final String baseUri, final Binary binary) {
+            return new Document(baseUri, binary, null);
+        }
+
+        /**
+         * @param baseUri
+         * @param source
+         * @return A {@link Document} read from {@code source}
+         */
+        public static Document of(final String baseUri, final ByteSource source) {
+            return new Document(baseUri, null, source);
+        }
+
+        /**
+         * @return The base URI of this document
+         */
+        public String getBaseUri() {
+            return baseUri;
+        }
+    }
+
+    /**
+     * Counts and timings for a completed batch.
+     */
+    public static class BatchReport {
+
+        private final long documents;
+
+        private final long failures;
+
+        private final long triples;
+
+        private final long elapsedNanos;
+
+        BatchReport(final long documents, final long failures,
+                final long triples, final long elapsedNanos) {
+            this.documents = documents;
+            this.failures = failures;
+            this.triples = triples;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return The number of documents processed
+         */
+        public long getDocuments() {
+            return documents;
+        }
+
+        /**
+         * @return The number of documents for which problems were recorded
+         */
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return The number of triples generated
+         */
+        public long getTriples() {
+            return triples;
+        }
+
+        /**
+         * @return The wall-clock time taken by the batch, in nanoseconds
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return Documents processed per second
+         */
+        public double getDocumentsPerSecond() {
+            return elapsedNanos == 0 ? 0 : documents * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * @return Triples generated per second
+         */
+        public double getTriplesPerSecond() {
+            return elapsedNanos == 0 ? 0 : triples * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return format(
+                    "%d documents (%d with problems), %d triples in %.3f s: %.1f documents/s, %.1f triples/s",
+                    documents, failures, triples, elapsedNanos / 1e9,
+                    getDocumentsPerSecond(), getTriplesPerSecond());
+        }
+    }
+
+    /**
+     * Runs batches on a {@link ForkJoinPool} of the given parallelism, which
+     * is shut down by {@link #close()}.
+     *
+     * @param generator
+     * @param parallelism
+     */
+    public TeiBatchGenerator(final TeiTripleGenerator generator,
+            final int parallelism) {
+        this(generator, new ForkJoinPool(parallelism), 2 * parallelism, true);
+    }
+
+    /**
+     * @param generator
+     * @param executor The {@link ExecutorService} on which to transform
+     *        documents. It is not shut down by {@link #close()}.
+     * @param maxInFlight The most documents to hold in memory at once
+     */
+    public TeiBatchGenerator(final TeiTripleGenerator generator,
+            final ExecutorService executor, final int maxInFlight) {
+        this(generator, executor, maxInFlight, false);
+    }
+
+    private TeiBatchGenerator(final TeiTripleGenerator generator,
+            final ExecutorService executor, final int maxInFlight,
+            final boolean ownExecutor) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException(
+                    "At least one document must be allowed in flight!");
+        }
+        this.generator = generator;
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+        this.ownExecutor = ownExecutor;
+    }
+
+    /**
+     * Generates triples for repository nodes. The nodes are read in the
+     * calling thread, because a JCR session may not be used from several
+     * threads; only their binaries are read by the executor.
+     *
+     * @param nodes
+     * @param subjects
+     * @param sink
+     * @return A {@link BatchReport}
+     * @throws InterruptedException
+     */
+    public BatchReport run(final Iterator<javax.jcr.Node> nodes,
+        final GraphSubjects subjects, final DatasetSink sink)
+        throws InterruptedException {
+        return run(new Iterator<Document>() {
+
+            @Override
+            public boolean hasNext() {
+                return nodes.hasNext();
+            }
+
+            @Override
+            public Document next() {
+                final javax.jcr.Node node = nodes.next();
+                String baseUri = "unknown";
+                try {
+                    baseUri = subjects.getGraphSubject(node).getURI();
+                    return Document.of(baseUri, node.getNode(JCR_CONTENT)
+                            .getProperty(JCR_DATA).getBinary());
+                } catch (final RepositoryException e) {
+                    return Document.of(baseUri, new FailedSource(e));
+                }
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        }, sink);
+    }
+
+    /**
+     * Generates triples for documents.
+     *
+     * @param documents
+     * @param sink
+     * @return A {@link BatchReport}
+     * @throws InterruptedException
+     */
+    public BatchReport run(final Iterator<Document> documents,
+        final DatasetSink sink) throws InterruptedException {
+        final long start = nanoTime();
+        final Semaphore inFlight = new Semaphore(maxInFlight);
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong triples = new AtomicLong();
+        try {
+            while (documents.hasNext()) {
+                // take the next document before a permit, so that a failure
+                // to supply it holds none
+                final Document document = documents.next();
+                inFlight.acquire();
+                count.incrementAndGet();
+                try {
+                    executor.execute(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            boolean failed = false;
+                            try {
+                                final Dataset results = generate(document);
+                                failed =
+                                    results.containsNamedModel(PROBLEMS_MODEL_NAME);
+                                if (results.containsNamedModel(generator
+                                        .getPropertyModelName())) {
+                                    triples.addAndGet(results.getNamedModel(
+                                            generator.getPropertyModelName())
+                                            .size());
+                                }
+                                synchronized (sink) {
+                                    sink.accept(document.getBaseUri(), results);
+                                }
+                            } catch (final Exception e) {
+                                LOGGER.error("Couldn't deliver triples for {}: {}",
+                                        document.getBaseUri(), e);
+                                failed = true;
+                            } finally {
+                                if (failed) {
+                                    failures.incrementAndGet();
+                                }
+                                inFlight.release();
+                            }
+                        }
+                    });
+                } catch (final RejectedExecutionException e) {
+                    inFlight.release();
+                    throw e;
+                }
+            }
+        } finally {
+            // wait for every document in flight to reach the sink
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+        }
+        final BatchReport report =
+            new BatchReport(count.get(), failures.get(), triples.get(),
+                    nanoTime() - start);
+        LOGGER.info("Finished batch: {}", report);
+        return report;
+    }
+
+    private Dataset generate(final Document document) {
+        if (document.binary != null) {
+            return generator.getProperties(document.binary, document.baseUri);
+        }
+        try (final InputStream resource = document.source.openStream()) {
+            return generator.getProperties(resource, document.baseUri);
+        } catch (final IOException e) {
+            return generator.exceptionRdf(document.baseUri, e);
+        }
+    }
+
+    /**
+     * Shuts down the executor, if this batch generator created it.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        if (ownExecutor) {
+            executor.shutdown();
+            if (!executor.awaitTermination(60, SECONDS)) {
+                LOGGER.warn("Batch executor did not terminate in 60 s!");
+            }
+        }
+    }
+
+    /**
+     * Stands in for a document that could not be retrieved, so that the
+     * failure is reported in its place.
+     */
+    private static class FailedSource extends ByteSource {
+
+        private final Exception failure;
+
+        FailedSource(final Exception failure) {
+            this.failure = failure;
+        }
+
+        @Override
+        public InputStream openStream() throws IOException {
+            throw new IOException(failure);
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.fcrepo.metrics.RegistryService.getMetrics;
+
+import java.util.Queue;
+
+import org.fcrepo.triplegenerators.tei.xslt.TransformerPool;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * The metrics kept by {@link TeiTripleGenerator}, in the repository's shared
+ * {@link MetricRegistry}, from which they are reported over JMX or Graphite as
+ * the repository is configured to do. Names begin with the name of
+ * {@link TeiTripleGenerator}.
+ *
+ * @author ajs6f
+ */
+public final class TeiMetrics {
+
+    private static final MetricRegistry METRICS = getMetrics();
+
+    /**
+     * Time to generate triples for a document, from opening its binary to
+     * assembling its {@link com.hp.hpl.jena.query.Dataset}.
+     */
+    public static final Timer GENERATE = timer("generate");
+
+    /**
+     * Time to open the binary of a document.
+     */
+    public static final Timer OPEN_BINARY = timer("open-binary");
+
+    /**
+     * Time for add-ids and tei2rdf run together, with triples or RDF/XML
+     * collected as they are produced.
+     */
+    public static final Timer TRANSFORM = timer("transform");
+
+    /**
+     * Time for add-ids alone, when it runs as a separate step.
+     */
+    public static final Timer ADD_IDS = timer("add-ids");
+
+    /**
+     * Time for tei2rdf alone, when it runs as a separate step.
+     */
+    public static final Timer TEI2RDF = timer("tei2rdf");
+
+    /**
+     * Time to stream a document without the stylesheets.
+     */
+    public static final Timer STREAM = timer("stream");
+
+    /**
+     * Time for Any23 to extract triples from RDF/XML.
+     */
+    public static final Timer EXTRACT = timer("extract");
+
+    /**
+     * Bytes of TEI read per document.
+     */
+    public static final Histogram INPUT_BYTES = histogram("input-bytes");
+
+    /**
+     * Bytes of TEI with ids written by add-ids, when it runs as a separate
+     * step.
+     */
+    public static final Histogram ADD_IDS_BYTES = histogram("add-ids-bytes");
+
+    /**
+     * Bytes of RDF/XML written by tei2rdf, when it is serialized.
+     */
+    public static final Histogram RDFXML_BYTES = histogram("rdfxml-bytes");
+
+    /**
+     * Distinct triples generated per document.
+     */
+    public static final Histogram TRIPLES = histogram("triples");
+
+    /**
+     * Times the output of add-ids or tei2rdf outgrew memory and was spilled to
+     * disk.
+     */
+    public static final Counter SPILLS = METRICS.counter(name(
+            TeiTripleGenerator.class, "spills"));
+
+    /**
+     * Binaries read in place from the files of a file-system binary store,
+     * rather than as streams.
+     */
+    public static final Counter MAPPED_BINARIES = METRICS.counter(name(
+            TeiTripleGenerator.class, "mapped-binaries"));
+
+    /**
+     * Problems recorded while generating triples.
+     */
+    public static final Counter PROBLEMS = METRICS.counter(name(
+            TeiTripleGenerator.class, "problems"));
+
+    /**
+     * Documents refused by an {@link AsyncTeiTripleGenerator} because its
+     * queue was full.
+     */
+    public static final Counter ASYNC_REJECTIONS = METRICS.counter(name(
+            TeiTripleGenerator.class, "async-rejections"));
+
+    /**
+     * Documents abandoned by an {@link AsyncTeiTripleGenerator} for taking too
+     * long.
+     */
+    public static final Counter ASYNC_TIMEOUTS = METRICS.counter(name(
+            TeiTripleGenerator.class, "async-timeouts"));
+
+    /**
+     * Time documents waited for a {@link MemoryBudget} to admit them.
+     */
+    public static final Timer ADMISSION_WAIT = timer("admission-wait");
+
+    /**
+     * Documents refused by a {@link MemoryBudget}, for want of memory or of
+     * room to wait.
+     */
+    public static final Counter ADMISSION_REJECTIONS = METRICS.counter(name(
+            TeiTripleGenerator.class, "admission-rejections"));
+
+    private TeiMetrics() {
+    }
+
+    /**
+     * Reports on a {@link TransformerPool}, in place of any pool reported
+     * earlier under the same name. Until {@link #unregister(String)}, our
+     * registry holds on to {@code pool}.
+     *
+     * @param pool
+     * @param poolName
+     */
+    static void register(final TransformerPool pool, final String poolName) {
+        gauge(name(TeiTripleGenerator.class, poolName, "hits"),
+                new Gauge<Long>() {
+
+                    @Override
+                    public Long getValue() {
+                        return pool.getHits();
+                    }
+                });
+        gauge(name(TeiTripleGenerator.class, poolName, "creations"),
+                new Gauge<Integer>() {
+
+                    @Override
+                    public Integer getValue() {
+                        return pool.getCreations();
+                    }
+                });
+        gauge(name(TeiTripleGenerator.class, poolName, "wait-nanos"),
+                new Gauge<Long>() {
+
+                    @Override
+                    public Long getValue() {
+                        return pool.getWaitNanos();
+                    }
+                });
+    }
+
+    /**
+     * Reports the length of a queue of work, in place of any queue reported
+     * earlier under the same name. Until {@link #unregister(String)}, our
+     * registry holds on to {@code queue}.
+     *
+     * @param queue
+     * @param queueName
+     */
+    static void register(final Queue<?> queue, final String queueName) {
+        gauge(name(TeiTripleGenerator.class, queueName, "depth"),
+                new Gauge<Integer>() {
+
+                    @Override
+                    public Integer getValue() {
+                        return queue.size();
+                    }
+                });
+    }
+
+    /**
+     * Reports on a {@link MemoryBudget}, in place of any budget reported
+     * earlier under the same name. Until {@link #unregister(String)}, our
+     * registry holds on to {@code budget}.
+     *
+     * @param budget
+     * @param budgetName
+     */
+    static void register(final MemoryBudget budget, final String budgetName) {
+        gauge(name(TeiTripleGenerator.class, budgetName, "depth"),
+                new Gauge<Integer>() {
+
+                    @Override
+                    public Integer getValue() {
+                        return budget.getWaiting();
+                    }
+                });
+        gauge(name(TeiTripleGenerator.class, budgetName, "reserved"),
+                new Gauge<Long>() {
+
+                    @Override
+                    public Long getValue() {
+                        return budget.getReserved();
+                    }
+                });
+    }
+
+    /**
+     * Stops reporting on whatever was registered under a name.
+     *
+     * @param metricName The name given to {@code register}
+     */
+    static void unregister(final String metricName) {
+        final String prefix = name(TeiTripleGenerator.class, metricName) + ".";
+        synchronized (METRICS) {
+            METRICS.removeMatching(new MetricFilter() {
+
+                @Override
+                public boolean matches(final String gaugeName,
+                    final Metric metric) {
+                    return gaugeName.startsWith(prefix);
+                }
+            });
+        }
+    }
+
+    private static void gauge(final String gaugeName, final Gauge<?> gauge) {
+        synchronized (METRICS) {
+            METRICS.remove(gaugeName);
+            METRICS.register(gaugeName, gauge);
+        }
+    }
+
+    private static Timer timer(final String timerName) {
+        return METRICS.timer(name(TeiTripleGenerator.class, timerName));
+    }
+
+    private static Histogram histogram(final String histogramName) {
+        return METRICS.histogram(name(TeiTripleGenerator.class, histogramName));
+    }
+}
@@ -16,66 +16,149 @@
 
 package org.fcrepo.triplegenerators.tei;
 
+import static com.google.common.base.Charsets.UTF_8;
 import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.hash.Hashing.sha1;
+import static com.hp.hpl.jena.graph.Node.ANY;
 import static com.hp.hpl.jena.graph.NodeFactory.createLiteral;
 import static com.hp.hpl.jena.graph.NodeFactory.createURI;
 import static com.hp.hpl.jena.rdf.model.ModelFactory.createDefaultModel;
 import static com.hp.hpl.jena.rdf.model.ModelFactory.createModelForGraph;
+import static java.lang.Runtime.getRuntime;
 import static java.lang.String.format;
-import static javax.xml.transform.TransformerFactory.newInstance;
+import static java.lang.Thread.currentThread;
+import static org.fcrepo.triplegenerators.tei.TeiMetrics.ADD_IDS;
+import static org.fcrepo.triplegenerators.tei.TeiMetrics.ADD_IDS_BYTES;
+import static org.fcrepo.triplegenerators.tei.TeiMetrics.EXTRACT;
+import static org.fcrepo.triplegenerators.tei.TeiMetrics.GENERATE;
+import static org.fcrepo.triplegenerators.tei.TeiMetrics.INPUT_BYTES;
+import static org.fcrepo.triplegenerators.tei.TeiMetrics.MAPPED_BINARIES;
+import static org.fcrepo.triplegenerators.tei.TeiMetrics.OPEN_BINARY;
+import static org.fcrepo.triplegenerators.tei.TeiMetrics.PROBLEMS;
+import static org.fcrepo.triplegenerators.tei.TeiMetrics.RDFXML_BYTES;
+import static org.fcrepo.triplegenerators.tei.TeiMetrics.SPILLS;
+import static org.fcrepo.triplegenerators.tei.TeiMetrics.STREAM;
+import static org.fcrepo.triplegenerators.tei.TeiMetrics.TEI2RDF;
+import static org.fcrepo.triplegenerators.tei.TeiMetrics.TRANSFORM;
+import static org.fcrepo.triplegenerators.tei.TeiMetrics.TRIPLES;
 import static org.modeshape.jcr.api.JcrConstants.JCR_CONTENT;
 import static org.modeshape.jcr.api.JcrConstants.JCR_DATA;
 import static org.slf4j.LoggerFactory.getLogger;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringWriter;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jcr.Binary;
 import javax.jcr.RepositoryException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.TransformerFactoryConfigurationError;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
 import org.apache.any23.extractor.ExtractionException;
-import org.apache.any23.extractor.Extractor;
 import org.apache.any23.extractor.IssueReport.Issue;
-import org.apache.any23.source.ByteArrayDocumentSource;
-import org.apache.any23.source.DocumentSource;
 import org.apache.any23.writer.TripleHandlerException;
-import org.apache.any23.Any23;
-import org.apache.any23.ExtractionReport;
 import org.fcrepo.rdf.GraphProperties;
 import org.fcrepo.rdf.GraphSubjects;
-import org.fcrepo.triplegenerators.tei.xslt.LoggingErrorListener;
+import org.fcrepo.triplegenerators.tei.buffer.BufferPool;
+import org.fcrepo.triplegenerators.tei.buffer.ByteBuffersInputStream;
+import org.fcrepo.triplegenerators.tei.buffer.OffHeapBuffer;
+import org.fcrepo.triplegenerators.tei.cache.TeiDatasetCache;
+import org.fcrepo.triplegenerators.tei.graph.CompactGraph;
+import org.fcrepo.triplegenerators.tei.stax.IncrementalTeiExtractor;
+import org.fcrepo.triplegenerators.tei.stax.StreamingTeiExtractor;
+import org.fcrepo.triplegenerators.tei.xslt.TemplatesCache;
+import org.fcrepo.triplegenerators.tei.xslt.TransformerPool;
+import org.fcrepo.triplegenerators.tei.xslt.TransformingXMLReader;
 import org.slf4j.Logger;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
-import com.google.common.io.FileBackedOutputStream;
+import com.codahale.metrics.Timer;
+import com.google.common.io.ByteSource;
+import com.google.common.io.CountingInputStream;
 import com.hp.hpl.jena.graph.Graph;
 import com.hp.hpl.jena.graph.Node;
 import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.impl.WrappedGraph;
 import com.hp.hpl.jena.mem.GraphMem;
 import com.hp.hpl.jena.query.Dataset;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.shared.PrefixMapping;
+import com.hp.hpl.jena.shared.impl.PrefixMappingImpl;
 import com.hp.hpl.jena.sparql.core.DatasetImpl;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
 
 
 /**
+ * Each generator reports on its pools of transformers, until it is closed,
+ * under names of its own: {@code pools.1.add-ids} and
+ * {@code pools.1.tei2rdf}, {@code pools.2.add-ids} and so on.
+ *
  * @author ajs6f
  * @date Jul 10, 2013
  */
-public class TeiTripleGenerator implements GraphProperties {
+public class TeiTripleGenerator implements GraphProperties, AutoCloseable {
 
     private static final String MODEL_NAME = "tei";
 
-    private static Transformer addIdsXform;
+    private static final String ADD_IDS_XSLT = "/xslt/add-ids.xslt";
+
+    private static final String TEI2RDF_XSLT = "/xslt/tei2rdf.xslt";
+
+    private final TransformerPool addIdsXforms;
+
+    private final TransformerPool tei2RdfXforms;
+
+    private final String stylesheetVersion;
+
+    private final boolean builtInStylesheets;
+
+    private volatile boolean fusedPipeline = true;
+
+    private volatile TeiDatasetCache cache;
+
+    private final StreamingTeiExtractor streamingExtractor =
+        new StreamingTeiExtractor();
+
+    private volatile long streamingThreshold = Long.MAX_VALUE;
+
+    private volatile IncrementalTeiExtractor incremental;
+
+    private volatile IdStrategy idStrategy = IdStrategy.GENERATED;
 
-    private static Transformer tei2RdfXform;
+    private volatile boolean compactResults = false;
 
-    private static Any23 any23 = new Any23();
+    private volatile BufferPool bufferPool = new BufferPool(64 * 1024, 256);
+
+    private volatile long spillThreshold = 16L * 1024 * 1024;
+
+    private volatile FileSystemBinaries binaryFiles;
+
+    private volatile MemoryBudget memoryBudget;
+
+    private volatile String fragmentPrefix;
+
+    private final String metricName;
+
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    private static final RdfXmlExtraction EXTRACTION =
+        new RdfXmlExtraction();
 
     private static final Logger LOGGER = getLogger(TeiTripleGenerator.class);
 
@@ -83,28 +166,74 @@ public class TeiTripleGenerator implements GraphProperties {
         createURI("info:fedora/hasProblemWithTeiRdfExtraction");
 
     /**
+     * Creates a generator that can run as many transforms in parallel as there
+     * are processors available.
+     *
      * @throws TransformerConfigurationException
      * @throws TransformerFactoryConfigurationError
      * @throws IOException
      */
     public TeiTripleGenerator() throws TransformerConfigurationException,
             TransformerFactoryConfigurationError, IOException {
-        // initialize XSLT
-        final TransformerFactory tf =
-            newInstance("net.sf.saxon.TransformerFactoryImpl", null);
-        tf.setErrorListener(new LoggingErrorListener());
+        this(getRuntime().availableProcessors());
+    }
 
-        try (
-            final InputStream sourceStream =
-                this.getClass().getResourceAsStream("/xslt/add-ids.xslt")) {
-            addIdsXform = tf.newTransformer(new StreamSource(sourceStream));
-        }
+    /**
+     * @param concurrency The most documents this generator will transform at
+     *        once. Further callers of
+     *        {@link #getProperties(javax.jcr.Node, GraphSubjects)} wait for a
+     *        transformer to come free. The stylesheets themselves are
+     *        compiled only by the first generator in a JVM, and shared through
+     *        {@link TemplatesCache#shared()}.
+     * @throws TransformerConfigurationException
+     * @throws TransformerFactoryConfigurationError
+     * @throws IOException
+     */
+    public TeiTripleGenerator(final int concurrency)
+        throws TransformerConfigurationException,
+        TransformerFactoryConfigurationError, IOException {
+        this(concurrency, ADD_IDS_XSLT, TEI2RDF_XSLT);
+    }
 
-        try (
-            final InputStream sourceStream =
-                this.getClass().getResourceAsStream("/xslt/tei2rdf.xslt")) {
-            tei2RdfXform = tf.newTransformer(new StreamSource(sourceStream));
-        }
+    /**
+     * Creates a generator that uses stylesheets of its own, such as for a
+     * customization of TEI. The {@link StreamingTeiExtractor} follows the
+     * built-in stylesheets, so a generator with any others never streams and
+     * cannot be made incremental.
+     *
+     * @param concurrency The most documents this generator will transform at
+     *        once.
+     * @param addIdsResource The classpath location of a stylesheet that gives
+     *        elements ids, in the manner of {@code /xslt/add-ids.xslt}.
+     * @param tei2RdfResource The classpath location of a stylesheet that
+     *        produces RDF/XML from the output of the first, in the manner of
+     *        {@code /xslt/tei2rdf.xslt}.
+     * @throws TransformerConfigurationException
+     * @throws TransformerFactoryConfigurationError
+     * @throws IOException
+     */
+    public TeiTripleGenerator(final int concurrency,
+        final String addIdsResource, final String tei2RdfResource)
+        throws TransformerConfigurationException,
+        TransformerFactoryConfigurationError, IOException {
+        final TemplatesCache stylesheets = TemplatesCache.shared();
+        addIdsXforms =
+            new TransformerPool(stylesheets.getTemplates(addIdsResource),
+                    concurrency);
+        tei2RdfXforms =
+            new TransformerPool(stylesheets.getTemplates(tei2RdfResource),
+                    concurrency);
+        stylesheetVersion =
+            sha1().newHasher().putBytes(
+                    stylesheets.getDigest(addIdsResource).asBytes()).putBytes(
+                    stylesheets.getDigest(tei2RdfResource).asBytes()).hash()
+                    .toString();
+        builtInStylesheets =
+            addIdsResource.equals(ADD_IDS_XSLT) &&
+                    tei2RdfResource.equals(TEI2RDF_XSLT);
+        metricName = "pools." + INSTANCES.incrementAndGet();
+        TeiMetrics.register(addIdsXforms, metricName + ".add-ids");
+        TeiMetrics.register(tei2RdfXforms, metricName + ".tei2rdf");
     }
 
     /**
@@ -117,61 +246,659 @@ public class TeiTripleGenerator implements GraphProperties {
      */
     protected Dataset extractTriples(final byte[] rdfXml, final String baseUri)
         throws TripleHandlerException, IOException, ExtractionException {
+        try (final ModelTripleHandler handler = newHandler()) {
+            return extractTriples(rdfXml, baseUri, handler);
+        }
+    }
+
+    /**
+     * @param rdfXml
+     * @param baseUri
+     * @param handler The {@link ModelTripleHandler} in which to collect
+     *        triples.
+     * @return A {@link Dataset} with extracted triples.
+     * @throws IOException
+     * @throws ExtractionException
+     */
+    protected Dataset extractTriples(final byte[] rdfXml,
+        final String baseUri, final ModelTripleHandler handler)
+        throws IOException, ExtractionException {
+        return extractTriples(new ByteArrayInputStream(rdfXml), baseUri,
+                handler);
+    }
+
+    /**
+     * @param rdfXml An {@link OffHeapBuffer} of RDF/XML, which Any23 reads in
+     *        place.
+     * @param baseUri
+     * @param handler The {@link ModelTripleHandler} in which to collect
+     *        triples.
+     * @return A {@link Dataset} with extracted triples.
+     * @throws IOException
+     * @throws ExtractionException
+     */
+    protected Dataset extractTriples(final OffHeapBuffer rdfXml,
+        final String baseUri, final ModelTripleHandler handler)
+        throws IOException, ExtractionException {
+        try (final InputStream in = rdfXml.asByteSource().openStream()) {
+            return extractTriples(in, baseUri, handler);
+        }
+    }
 
-        final DocumentSource source =
-            new ByteArrayDocumentSource(rdfXml, baseUri, "application/rdf+xml");
+    private Dataset extractTriples(final InputStream rdfXml,
+        final String baseUri, final ModelTripleHandler handler)
+        throws IOException, ExtractionException {
         final Graph problems = new GraphMem();
-        try (final ModelTripleHandler handler = new ModelTripleHandler()) {
-            final ExtractionReport report = any23.extract(source, handler);
-            final Dataset results = new DatasetImpl(createDefaultModel());
-            results.addNamedModel(MODEL_NAME, handler.getModel());
-            for (final Extractor<?> extractor : report.getMatchingExtractors()) {
-                for (final Issue issue : report.getExtractorIssues(extractor
-                        .getDescription().getExtractorName())) {
-                    final String mesg =
-                        format("Extraction issue: ({},{}): {}\n", issue
-                                .getCol(), issue.getRow(), issue.getMessage());
-                    problems.add(new Triple(createURI(baseUri),
-                            PROBLEM_PREDICATE, createLiteral(mesg)));
+        final Collection<Issue> issues;
+        try (final Timer.Context time = EXTRACT.time()) {
+            issues = EXTRACTION.extract(rdfXml, baseUri, handler);
+        } catch (ExtractionException | RuntimeException e) {
+            if (isWindowFull(handler)) {
+                return results(handler, problems);
+            }
+            throw e;
+        }
+        for (final Issue issue : issues) {
+            final String mesg =
+                format("Extraction issue: ({},{}): {}\n", issue.getCol(),
+                        issue.getRow(), issue.getMessage());
+            problems.add(new Triple(createURI(baseUri), PROBLEM_PREDICATE,
+                    createLiteral(mesg)));
+            PROBLEMS.inc();
+        }
+        return results(handler, problems);
+    }
+
+    /**
+     * @param handler A {@link ModelTripleHandler} that has collected triples.
+     * @param problems A {@link Graph} of problems with extraction.
+     * @return A {@link Dataset} with the collected triples and any problems.
+     */
+    private static Dataset results(final ModelTripleHandler handler,
+        final Graph problems) {
+        final Dataset results = new DatasetImpl(createDefaultModel());
+        results.addNamedModel(MODEL_NAME, handler.getModel());
+        if (problems.size() > 0) {
+            results.addNamedModel(PROBLEMS_MODEL_NAME,
+                    createModelForGraph(problems));
+        }
+        return results;
+    }
+
+    private static boolean isWindowFull(final ModelTripleHandler handler) {
+        return handler instanceof WindowingTripleHandler &&
+                ((WindowingTripleHandler) handler).isFull();
+    }
+
+    /**
+     * @return How to name elements for a pass into {@code handler}. A window
+     *         is cut from a pass of its own, so its elements are always named
+     *         by {@link IdStrategy#PATH}, which gives them the same names in
+     *         every pass; otherwise, by our {@link IdStrategy}.
+     */
+    private IdStrategy idStrategyFor(final ModelTripleHandler handler) {
+        return handler instanceof WindowingTripleHandler ? IdStrategy.PATH
+                : idStrategy;
+    }
+
+    /**
+     * Produces triples from TEI by passing the SAX events of the tei2rdf
+     * transform straight into a {@link ModelTripleHandler}, without
+     * serializing RDF/XML. Only the RDF/XML of the built-in stylesheets is
+     * sure to be understood by {@link RdfXmlContentHandler}.
+     *
+     * @param resource An {@link InputStream} with TEI XML.
+     * @param baseUri
+     * @return A {@link Dataset} with extracted triples.
+     * @throws TransformerException
+     * @throws InterruptedException
+     * @throws TripleHandlerException
+     */
+    protected Dataset generateTriples(final InputStream resource,
+        final String baseUri) throws TransformerException,
+        InterruptedException, TripleHandlerException {
+        try (final ModelTripleHandler handler = newHandler()) {
+            return generateTriples(resource, baseUri, handler);
+        }
+    }
+
+    /**
+     * @param resource An {@link InputStream} with TEI XML.
+     * @param baseUri
+     * @param handler The {@link ModelTripleHandler} in which to collect
+     *        triples. If it is a {@link WindowingTripleHandler}, elements
+     *        are named by {@link IdStrategy#PATH} and the transform stops as
+     *        soon as its window is full.
+     * @return A {@link Dataset} with extracted triples.
+     * @throws TransformerException
+     * @throws InterruptedException
+     */
+    protected Dataset generateTriples(final InputStream resource,
+        final String baseUri, final ModelTripleHandler handler)
+        throws TransformerException, InterruptedException {
+        try (final Timer.Context time = TRANSFORM.time()) {
+            transform(resource, new SAXResult(new RdfXmlContentHandler(
+                    baseUri, handler)), idStrategyFor(handler));
+        } catch (final TransformerException e) {
+            if (!isWindowFull(handler)) {
+                throw e;
+            }
+            LOGGER.debug("Stopped transforming TEI after filling window.");
+        }
+        return results(handler, new GraphMem());
+    }
+
+    /**
+     * Produces triples from TEI in a single streaming pass, without building a
+     * tree of the document. See {@link StreamingTeiExtractor}.
+     *
+     * @param resource An {@link InputStream} with TEI XML.
+     * @param baseUri
+     * @param handler The {@link ModelTripleHandler} in which to collect
+     *        triples. If it is a {@link WindowingTripleHandler}, elements are
+     *        named by {@link IdStrategy#PATH} and the pass stops as soon as
+     *        its window is full.
+     * @return A {@link Dataset} with extracted triples.
+     * @throws XMLStreamException
+     * @throws SAXException
+     */
+    protected Dataset streamTriples(final InputStream resource,
+        final String baseUri, final ModelTripleHandler handler)
+        throws XMLStreamException, SAXException {
+        try (final Timer.Context time = STREAM.time()) {
+            streamingExtractor.extract(resource, new RdfXmlContentHandler(
+                    baseUri, handler), idStrategyFor(handler));
+        } catch (final SAXException e) {
+            if (!isWindowFull(handler)) {
+                throw e;
+            }
+            LOGGER.debug("Stopped streaming TEI after filling window.");
+        }
+        return results(handler, new GraphMem());
+    }
+
+    /**
+     * @param resource An {@link InputStream} with TEI XML.
+     * @return A {@code byte[]} of RDF/XML, in UTF-8.
+     * @throws IOException
+     * @throws TransformerException
+     * @throws InterruptedException
+     */
+    protected byte[] createRDFXML(final InputStream resource)
+        throws IOException, TransformerException, InterruptedException {
+        final OffHeapBuffer rdfXml = createRDFXMLBuffer(resource);
+        try {
+            return rdfXml.asByteSource().read();
+        } finally {
+            rdfXml.reset();
+        }
+    }
+
+    /**
+     * @param resource An {@link InputStream} with TEI XML.
+     * @return An {@link OffHeapBuffer} of RDF/XML, in UTF-8, which the caller
+     *         must {@link OffHeapBuffer#reset()}.
+     * @throws IOException
+     * @throws TransformerException
+     * @throws InterruptedException
+     */
+    protected OffHeapBuffer createRDFXMLBuffer(final InputStream resource)
+        throws IOException, TransformerException, InterruptedException {
+        return createRDFXMLBuffer(resource, idStrategy);
+    }
+
+    /**
+     * @param resource An {@link InputStream} with TEI XML.
+     * @param ids How to name elements without an {@code xml:id}.
+     * @return An {@link OffHeapBuffer} of RDF/XML, in UTF-8, which the caller
+     *         must {@link OffHeapBuffer#reset()}.
+     * @throws IOException
+     * @throws TransformerException
+     * @throws InterruptedException
+     */
+    private OffHeapBuffer createRDFXMLBuffer(final InputStream resource,
+        final IdStrategy ids) throws IOException, TransformerException,
+        InterruptedException {
+        final OffHeapBuffer rdfXml = newBuffer();
+        boolean created = false;
+        try {
+            if (fusedPipeline) {
+                try (final Timer.Context time = TRANSFORM.time()) {
+                    transform(resource, new StreamResult(rdfXml), ids);
                 }
+            } else {
+                createRDFXMLInTwoSteps(resource, rdfXml, ids);
             }
-            if (problems.size() > 0) {
-                results.addNamedModel(PROBLEMS_MODEL_NAME, createModelForGraph(problems));
+            finish(rdfXml);
+            logged(rdfXml);
+            created = true;
+            return rdfXml;
+        } finally {
+            if (!created) {
+                rdfXml.reset();
             }
-            return results;
         }
     }
 
     /**
+     * Runs add-ids and tei2rdf over some TEI. The tei2rdf stage consumes the
+     * SAX events of the add-ids stage directly, so the TEI-with-ids is never
+     * serialized or re-parsed. Both stages borrow from their pools, always
+     * tei2rdf first.
+     *
      * @param resource An {@link InputStream} with TEI XML.
-     * @return A {@code byte[]} of RDF/XML.
+     * @param result Where to send the output of tei2rdf.
+     * @param ids How to name elements without an {@code xml:id}.
+     * @throws TransformerException
+     * @throws InterruptedException
+     */
+    private void transform(final InputStream resource, final Result result,
+        final IdStrategy ids) throws TransformerException,
+        InterruptedException {
+        final Transformer tei2RdfXform = tei2RdfXforms.borrow();
+        try {
+            tei2RdfXform.setOutputProperty(OutputKeys.ENCODING, UTF_8.name());
+            final Transformer addIdsXform = borrowAddIds(ids);
+            try {
+                tei2RdfXform.transform(new SAXSource(new TransformingXMLReader(
+                        addIdsXform), new InputSource(resource)), result);
+            } finally {
+                addIdsXforms.release(addIdsXform);
+            }
+        } finally {
+            tei2RdfXforms.release(tei2RdfXform);
+        }
+    }
+
+    /**
+     * @param ids How to name elements without an {@code xml:id}.
+     * @return A {@link Transformer} for add-ids, set to {@code ids}, to be
+     *         released to {@link #addIdsXforms}.
+     * @throws TransformerConfigurationException
+     * @throws InterruptedException
+     */
+    private Transformer borrowAddIds(final IdStrategy ids)
+        throws TransformerConfigurationException, InterruptedException {
+        final Transformer addIdsXform = addIdsXforms.borrow();
+        addIdsXform.setParameter(IdStrategy.PARAMETER, ids.getParameterValue());
+        return addIdsXform;
+    }
+
+    /**
+     * Runs add-ids and tei2rdf as separate transforms, buffering the
+     * intermediate TEI. Useful for debugging the stylesheets.
+     *
+     * @param resource An {@link InputStream} with TEI XML.
+     * @param rdfXml Where to write RDF/XML.
+     * @param ids How to name elements without an {@code xml:id}.
      * @throws IOException
      * @throws TransformerException
+     * @throws InterruptedException
      */
-    private byte[] createRDFXML(final InputStream resource)
-        throws IOException, TransformerException {
-        final Source resourceSource = new StreamSource(resource);
-        try (
-            final FileBackedOutputStream addIdsResultStream =
-                new FileBackedOutputStream(1024 * 1024)) {
-            final Result addIdsResult = new StreamResult(addIdsResultStream);
-            addIdsXform.transform(resourceSource, addIdsResult);
-            LOGGER.debug("Added XML IDs to TEI.");
+    private void createRDFXMLInTwoSteps(final InputStream resource,
+        final OffHeapBuffer rdfXml, final IdStrategy ids) throws IOException,
+        TransformerException, InterruptedException {
+        final OffHeapBuffer addIdsResult = newBuffer();
+        try {
+            final Transformer addIdsXform = borrowAddIds(ids);
+            try (final Timer.Context time = ADD_IDS.time()) {
+                addIdsXform.transform(new StreamSource(resource),
+                        new StreamResult(addIdsResult));
+            } finally {
+                addIdsXforms.release(addIdsXform);
+            }
+            finish(addIdsResult);
+            ADD_IDS_BYTES.update(addIdsResult.size());
+            LOGGER.debug("Added XML IDs to TEI in {} bytes.", addIdsResult
+                    .size());
             try (
                 final InputStream tei2RdfSourceStream =
-                    addIdsResultStream.getSupplier().getInput()) {
-                final Source tei2RdfSource =
-                    new StreamSource(tei2RdfSourceStream);
-                final StreamResult tei2RdfResult =
-                    new StreamResult(new StringWriter());
-                tei2RdfXform.transform(tei2RdfSource, tei2RdfResult);
-                LOGGER.debug("Created RDF/XML from TEI: \n{}", tei2RdfResult
-                        .getWriter().toString());
-                return tei2RdfResult.getWriter().toString().getBytes();
+                    addIdsResult.asByteSource().openStream()) {
+                final Transformer tei2RdfXform = tei2RdfXforms.borrow();
+                tei2RdfXform.setOutputProperty(OutputKeys.ENCODING, UTF_8
+                        .name());
+                try (final Timer.Context time = TEI2RDF.time()) {
+                    tei2RdfXform.transform(
+                            new StreamSource(tei2RdfSourceStream),
+                            new StreamResult(rdfXml));
+                } finally {
+                    tei2RdfXforms.release(tei2RdfXform);
+                }
             }
+        } finally {
+            addIdsResult.reset();
         }
     }
 
+    /**
+     * @return An empty {@link OffHeapBuffer}, drawing on our
+     *         {@link BufferPool} up to our spill threshold.
+     */
+    private OffHeapBuffer newBuffer() {
+        return new OffHeapBuffer(bufferPool, spillThreshold);
+    }
+
+    /**
+     * Finishes writing to an {@link OffHeapBuffer}, counting it if it spilled.
+     *
+     * @param buffer
+     * @throws IOException
+     */
+    private static void finish(final OffHeapBuffer buffer) throws IOException {
+        buffer.close();
+        if (buffer.isSpilled()) {
+            SPILLS.inc();
+        }
+    }
+
+    /**
+     * Records the size of some RDF/XML, logging it whole only at TRACE.
+     *
+     * @param rdfXml
+     * @throws IOException
+     */
+    private static void logged(final OffHeapBuffer rdfXml) throws IOException {
+        RDFXML_BYTES.update(rdfXml.size());
+        LOGGER.debug("Created {} bytes of RDF/XML from TEI.", rdfXml.size());
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("Created RDF/XML from TEI: \n{}", rdfXml
+                    .asByteSource().asCharSource(UTF_8).read());
+        }
+    }
+
+    /**
+     * @param fused If {@code true} (the default), chain the add-ids and
+     *        tei2rdf transforms in memory and, with the built-in stylesheets,
+     *        collect triples directly from tei2rdf with a
+     *        {@link RdfXmlContentHandler}. Other stylesheets may write RDF/XML
+     *        that it does not understand, so their RDF/XML is always
+     *        serialized and extracted with Any23. If {@code false}, serialize
+     *        the output of add-ids and re-parse it for tei2rdf, then extract
+     *        triples from the resulting RDF/XML with Any23.
+     */
+    public void setFusedPipeline(final boolean fused) {
+        this.fusedPipeline = fused;
+    }
+
+    /**
+     * @return Whether the add-ids and tei2rdf transforms are chained in
+     *         memory.
+     */
+    public boolean isFusedPipeline() {
+        return fusedPipeline;
+    }
+
+    /**
+     * @param cache A {@link TeiDatasetCache} in which to keep generated
+     *        triples, or {@code null} to generate them afresh on every request.
+     */
+    public void setCache(final TeiDatasetCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @return The {@link TeiDatasetCache} in use, if any.
+     */
+    public TeiDatasetCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @param bytes The size above which a binary is transformed by a
+     *        {@link StreamingTeiExtractor} rather than by the stylesheets, so
+     *        that it is never held in memory as a whole. The default,
+     *        {@link Long#MAX_VALUE}, never streams. Under
+     *        {@link IdStrategy#GENERATED} the streamed ids are numbered
+     *        otherwise than those the stylesheets give the same binary; use
+     *        {@link IdStrategy#PATH} where they must match.
+     */
+    public void setStreamingThreshold(final long bytes) {
+        this.streamingThreshold = bytes;
+    }
+
+    /**
+     * @return The size above which a binary is transformed by streaming.
+     */
+    public long getStreamingThreshold() {
+        return streamingThreshold;
+    }
+
+    /**
+     * @param compact If {@code true}, collect triples in a
+     *        {@link CompactGraph}, which takes a fraction of the memory of the
+     *        default graph but cannot be changed once it has been read. The
+     *        default is {@code false}.
+     */
+    public void setCompactResults(final boolean compact) {
+        this.compactResults = compact;
+    }
+
+    /**
+     * @return Whether triples are collected in a {@link CompactGraph}.
+     */
+    public boolean isCompactResults() {
+        return compactResults;
+    }
+
+    /**
+     * @return A {@link ModelTripleHandler} collecting into the kind of graph
+     *         we are set to use.
+     */
+    private ModelTripleHandler newHandler() {
+        return compactResults ? new ModelTripleHandler(new CompactGraph())
+                : new ModelTripleHandler();
+    }
+
+    /**
+     * @param pool The {@link BufferPool} from which to take memory for RDF/XML
+     *        and, when the pipeline is not fused, for the output of add-ids.
+     *        The default keeps up to 256 buffers of 64 KiB.
+     */
+    public void setBufferPool(final BufferPool pool) {
+        this.bufferPool = pool;
+    }
+
+    /**
+     * @return The {@link BufferPool} in use.
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * @param bytes The size above which RDF/XML or the output of add-ids is
+     *        moved from memory to a temporary file, to be mapped back in when
+     *        read. The default is 16 MiB.
+     */
+    public void setSpillThreshold(final long bytes) {
+        this.spillThreshold = bytes;
+    }
+
+    /**
+     * @return The size above which buffers are moved to a file.
+     */
+    public long getSpillThreshold() {
+        return spillThreshold;
+    }
+
+    /**
+     * @param files The {@link FileSystemBinaries} of the repository's binary
+     *        store, if it keeps binaries in files, so that they can be mapped
+     *        into memory and read in place; or {@code null} (the default) to
+     *        read every binary as a stream.
+     */
+    public void setBinaryFiles(final FileSystemBinaries files) {
+        this.binaryFiles = files;
+    }
+
+    /**
+     * @return The {@link FileSystemBinaries} in use, if any.
+     */
+    public FileSystemBinaries getBinaryFiles() {
+        return binaryFiles;
+    }
+
+    /**
+     * @param budget A {@link MemoryBudget} that binaries must wait for before
+     *        they are transformed, shared with any other generators it should
+     *        limit; or {@code null} (the default) to transform every binary
+     *        at once. TEI that does not come from a {@link Binary} is not
+     *        limited.
+     */
+    public void setMemoryBudget(final MemoryBudget budget) {
+        this.memoryBudget = budget;
+    }
+
+    /**
+     * @return The {@link MemoryBudget} in use, if any.
+     */
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @param prefix A prefix for the fragments of each document's own URI,
+     *        which name its elements, so that a serialization of its triples
+     *        that uses prefixes can write {@code <doc#Thales_tr>} as
+     *        {@code prefix:Thales_tr}; or {@code null} (the default) for none.
+     *        The empty prefix may be used. It is applied to triples from a
+     *        {@link TeiDatasetCache} as each is handed out, so it need not
+     *        be set before they were cached.
+     */
+    public void setFragmentPrefix(final String prefix) {
+        this.fragmentPrefix = prefix;
+    }
+
+    /**
+     * @return The prefix for the fragments of a document's URI, if any.
+     */
+    public String getFragmentPrefix() {
+        return fragmentPrefix;
+    }
+
+    /**
+     * Adds our fragment prefix, if we have one, to a {@link Model} of the
+     * triples of a document, in place of any other prefix for its fragments.
+     */
+    private void prefixFragments(final Model model, final String baseUri) {
+        final int hash = baseUri.indexOf('#');
+        final String fragments =
+            (hash < 0 ? baseUri : baseUri.substring(0, hash)) + "#";
+        final String previous = model.getNsURIPrefix(fragments);
+        if (previous != null) {
+            model.removeNsPrefix(previous);
+        }
+        final String prefix = fragmentPrefix;
+        if (prefix != null) {
+            model.setNsPrefix(prefix, fragments);
+        }
+    }
+
+    /**
+     * @param graph A {@link Graph} shared with other callers, such as one
+     *        from a {@link TeiDatasetCache}.
+     * @return A view of {@code graph} with a copy of its prefixes, which may
+     *         be changed without changing those of {@code graph}.
+     */
+    private static Graph withOwnPrefixes(final Graph graph) {
+        final PrefixMapping prefixes =
+            new PrefixMappingImpl().setNsPrefixes(graph.getPrefixMapping());
+        return new WrappedGraph(graph) {
+
+            @Override
+            public PrefixMapping getPrefixMapping() {
+                return prefixes;
+            }
+        };
+    }
+
+    /**
+     * @param idStrategy How to name elements without an {@code xml:id}. The
+     *        default, {@link IdStrategy#GENERATED}, gives the same TEI
+     *        different subjects on every run; {@link IdStrategy#PATH} gives it
+     *        the same ones, so that results can be compared from one run or
+     *        version to the next. An {@link IncrementalTeiExtractor} names
+     *        elements as its own {@link StreamingTeiExtractor} is set to,
+     *        and pages cut without a cache always name them by
+     *        {@link IdStrategy#PATH}.
+     */
+    public void setIdStrategy(final IdStrategy idStrategy) {
+        this.idStrategy = idStrategy;
+        streamingExtractor.setIdStrategy(idStrategy);
+    }
+
+    /**
+     * @return How elements without an {@code xml:id} are named.
+     */
+    public IdStrategy getIdStrategy() {
+        return idStrategy;
+    }
+
+    /**
+     * @param incremental An {@link IncrementalTeiExtractor} with which to keep
+     *        the triples of binaries up to date by regenerating only what has
+     *        changed from one version to the next, or {@code null} (the
+     *        default) to generate all of them on every request. While one is
+     *        set, binaries are not transformed by the stylesheets, and any
+     *        {@link TeiDatasetCache} is not used. Only a generator with the
+     *        built-in stylesheets can be incremental.
+     */
+    public void setIncremental(final IncrementalTeiExtractor incremental) {
+        if (incremental != null && !builtInStylesheets) {
+            throw new IllegalStateException(
+                    "Only a generator with the built-in stylesheets " +
+                            "can be incremental!");
+        }
+        this.incremental = incremental;
+    }
+
+    /**
+     * @return The {@link IncrementalTeiExtractor} in use, if any.
+     */
+    public IncrementalTeiExtractor getIncremental() {
+        return incremental;
+    }
+
+    /**
+     * @return A digest of the stylesheets in use, which changes whenever they
+     *         do.
+     */
+    public String getStylesheetVersion() {
+        return stylesheetVersion;
+    }
+
+    /**
+     * @return The pool of transformers for the add-ids stylesheet, for
+     *         monitoring.
+     */
+    public TransformerPool getAddIdsTransformerPool() {
+        return addIdsXforms;
+    }
+
+    /**
+     * @return The pool of transformers for the tei2rdf stylesheet, for
+     *         monitoring.
+     */
+    public TransformerPool getTei2RdfTransformerPool() {
+        return tei2RdfXforms;
+    }
+
+    /**
+     * @return The name under which our pools are reported.
+     */
+    String getMetricName() {
+        return metricName;
+    }
+
+    /**
+     * Stops reporting on our pools. This generator still generates triples
+     * as before.
+     */
+    @Override
+    public void close() {
+        TeiMetrics.unregister(metricName);
+    }
+
     /**
      * @param baseUri
      * @param e
@@ -183,6 +910,7 @@ public class TeiTripleGenerator implements GraphProperties {
         for (final Exception e : newArrayList(es)) {
             problems.add(new Triple(createURI(baseUri), PROBLEM_PREDICATE,
                     createLiteral(e.getMessage())));
+            PROBLEMS.inc();
         }
         sadResults.addNamedModel(PROBLEMS_MODEL_NAME, createModelForGraph(problems));
         return sadResults;
@@ -195,32 +923,430 @@ public class TeiTripleGenerator implements GraphProperties {
     }
 
 
+    /**
+     * Produces only the distinct triples from position {@code offset} to
+     * {@code offset + limit} (exclusive). Without a cache, these are counted in
+     * the order the stylesheets emit them, and transformation stops once the
+     * window is filled; each page is a transform of its own, so its elements
+     * are named by {@link IdStrategy#PATH} whatever our {@link IdStrategy},
+     * and the pages of a document name the same element alike. With a cache,
+     * the whole document is generated and cached once and pages are cut from
+     * the cached graph, so that they are consistent from one request to the
+     * next.
+     *
+     * @see org.fcrepo.rdf.GraphProperties#getProperties(javax.jcr.Node,
+     *      org.fcrepo.rdf.GraphSubjects, long, int)
+     */
     @Override
     public Dataset getProperties(final javax.jcr.Node node, final GraphSubjects subjects,
         final long offset, final int limit) throws RepositoryException {
-        return getProperties(node, subjects);
+        if (offset <= 0 && limit < 0) {
+            return getProperties(node, subjects);
+        }
+        if (cache != null) {
+            final Dataset all = getProperties(node, subjects);
+            if (!all.containsNamedModel(MODEL_NAME)) {
+                return all;
+            }
+            return window(all.getNamedModel(MODEL_NAME).getGraph(), offset,
+                    limit);
+        }
+        try (
+            final WindowingTripleHandler handler =
+                new WindowingTripleHandler(offset, limit)) {
+            return getProperties(node, subjects, handler);
+        } catch (final TripleHandlerException e) {
+            return exceptionRdf(subjects.getGraphSubject(node).getURI(), e);
+        }
+    }
+
+    /**
+     * @param graph
+     * @param offset
+     * @param limit
+     * @return A {@link Dataset} with a window of the triples in {@code graph}
+     */
+    private static Dataset window(final Graph graph, final long offset,
+        final int limit) {
+        final Model page = createDefaultModel();
+        page.setNsPrefixes(graph.getPrefixMapping());
+        final Graph pageGraph = page.getGraph();
+        final ExtendedIterator<Triple> triples = graph.find(ANY, ANY, ANY);
+        try {
+            for (long i = 0; triples.hasNext() &&
+                    (limit < 0 || i < offset + limit); i++) {
+                final Triple t = triples.next();
+                if (i >= offset) {
+                    pageGraph.add(t);
+                }
+            }
+        } finally {
+            triples.close();
+        }
+        final Dataset results = new DatasetImpl(createDefaultModel());
+        results.addNamedModel(MODEL_NAME, page);
+        return results;
     }
 
 
     @Override
     public Dataset getProperties(final javax.jcr.Node node, final GraphSubjects subjects) {
+        try (final ModelTripleHandler handler = newHandler()) {
+            return getProperties(node, subjects, handler);
+        } catch (final TripleHandlerException e) {
+            return exceptionRdf("unknown", e);
+        }
+    }
+
+    /**
+     * @param node
+     * @param subjects
+     * @param handler The {@link ModelTripleHandler} in which to collect
+     *        triples.
+     * @return A {@link Dataset} of triples, or of problems encountered.
+     */
+    protected Dataset getProperties(final javax.jcr.Node node,
+        final GraphSubjects subjects, final ModelTripleHandler handler) {
         String baseUri = "unknown";
-        byte[] rdfXml;
         try {
             baseUri = subjects.getGraphSubject(node).getURI();
-            try (
-                final InputStream resource =
-                    node.getNode(JCR_CONTENT).getProperty(JCR_DATA).getBinary()
-                            .getStream()) {
-                rdfXml = createRDFXML(resource);
-            }
-            // TODO when Any23 supports it, use a streaming transfer between
-            // these two steps
-            return extractTriples(rdfXml, baseUri);
-        } catch (
-            TripleHandlerException | IOException | TransformerException |
-            ExtractionException | RepositoryException e) {
+            return getProperties(node.getNode(JCR_CONTENT).getProperty(
+                    JCR_DATA).getBinary(), baseUri, handler);
+        } catch (final RepositoryException e) {
+            return exceptionRdf(baseUri, e);
+        }
+    }
+
+    /**
+     * Generates triples from a binary that has already been retrieved from
+     * the repository. Unlike a {@link javax.jcr.Node}, a {@link Binary} may be
+     * read from a thread other than that of the session it came from.
+     *
+     * @param binary A {@link Binary} with TEI XML.
+     * @param baseUri
+     * @return A {@link Dataset} of triples, or of problems encountered.
+     */
+    public Dataset getProperties(final Binary binary, final String baseUri) {
+        try (final ModelTripleHandler handler = newHandler()) {
+            return getProperties(binary, baseUri, handler);
+        } catch (final TripleHandlerException e) {
+            return exceptionRdf(baseUri, e);
+        }
+    }
+
+    /**
+     * Generates triples from TEI that does not come from the repository.
+     *
+     * @param resource An {@link InputStream} with TEI XML, which is not
+     *        closed.
+     * @param baseUri
+     * @return A {@link Dataset} of triples, or of problems encountered.
+     */
+    public Dataset getProperties(final InputStream resource,
+        final String baseUri) {
+        try (final ModelTripleHandler handler = newHandler()) {
+            return getProperties(resource, baseUri, handler);
+        } catch (final TripleHandlerException e) {
+            return exceptionRdf(baseUri, e);
+        }
+    }
+
+    /**
+     * Writes the triples of a binary to a stream as N-Triples as they are
+     * generated, for bulk export, without collecting them in memory. Neither
+     * any {@link TeiDatasetCache} nor any {@link IncrementalTeiExtractor} is
+     * used.
+     *
+     * @param binary A {@link Binary} with TEI XML.
+     * @param baseUri
+     * @param out Where to write N-Triples, in UTF-8. It is not closed.
+     * @return A {@link Graph} of any problems encountered, which is empty if
+     *         there were none. Triples written before a problem was found
+     *         remain written.
+     */
+    public Graph export(final Binary binary, final String baseUri,
+        final OutputStream out) {
+        try (
+            final NTriplesTripleHandler handler =
+                new NTriplesTripleHandler(out)) {
+            return problems(generate(binary, baseUri, handler));
+        } catch (final TripleHandlerException e) {
+            return problems(exceptionRdf(baseUri, e));
+        }
+    }
+
+    /**
+     * Writes the triples of TEI that does not come from the repository to a
+     * stream as N-Triples as they are generated.
+     *
+     * @param resource An {@link InputStream} with TEI XML, which is not
+     *        closed.
+     * @param baseUri
+     * @param out Where to write N-Triples, in UTF-8. It is not closed.
+     * @return A {@link Graph} of any problems encountered, which is empty if
+     *         there were none.
+     */
+    public Graph export(final InputStream resource, final String baseUri,
+        final OutputStream out) {
+        try (
+            final NTriplesTripleHandler handler =
+                new NTriplesTripleHandler(out)) {
+            return problems(generate(resource, baseUri, handler, false));
+        } catch (final TripleHandlerException e) {
+            return problems(exceptionRdf(baseUri, e));
+        }
+    }
+
+    private static Graph problems(final Dataset results) {
+        return results.containsNamedModel(PROBLEMS_MODEL_NAME) ? results
+                .getNamedModel(PROBLEMS_MODEL_NAME).getGraph() : new GraphMem();
+    }
+
+    /**
+     * @param binary A {@link Binary} with TEI XML.
+     * @param baseUri
+     * @param handler The {@link ModelTripleHandler} in which to collect
+     *        triples.
+     * @return A {@link Dataset} of triples, or of problems encountered.
+     */
+    protected Dataset getProperties(final Binary binary, final String baseUri,
+        final ModelTripleHandler handler) {
+        final IncrementalTeiExtractor currentIncremental = incremental;
+        if (currentIncremental != null &&
+                !(handler instanceof WindowingTripleHandler)) {
+            return regenerate(currentIncremental, binary, baseUri);
+        }
+        final TeiDatasetCache currentCache = cache;
+        if (currentCache != null && binary instanceof org.modeshape.jcr.api.Binary &&
+                !(handler instanceof WindowingTripleHandler)) {
+            final String key =
+                TeiDatasetCache.key(((org.modeshape.jcr.api.Binary) binary)
+                        .getHexHash(), stylesheetVersion + "-" +
+                        idStrategy.getParameterValue(), baseUri);
+            Graph cached = currentCache.get(key);
+            if (cached == null) {
+                final Dataset generated = generate(binary, baseUri, handler);
+                if (generated.containsNamedModel(PROBLEMS_MODEL_NAME) ||
+                        !generated.containsNamedModel(MODEL_NAME)) {
+                    return generated;
+                }
+                cached =
+                    currentCache.put(key, generated.getNamedModel(MODEL_NAME)
+                            .getGraph());
+            }
+            final Model model = createModelForGraph(withOwnPrefixes(cached));
+            prefixFragments(model, baseUri);
+            final Dataset results = new DatasetImpl(createDefaultModel());
+            results.addNamedModel(MODEL_NAME, model);
+            return results;
+        }
+        return generate(binary, baseUri, handler);
+    }
+
+    /**
+     * Finds the triples added and removed from one version of a document to
+     * the next. Unless an {@link IncrementalTeiExtractor} is in use or
+     * elements are named by {@link IdStrategy#PATH}, elements without an
+     * {@code xml:id} are named differently in each version, and most triples
+     * will appear to have changed.
+     *
+     * @param previous The triples of the earlier version, as generated before.
+     * @param current A {@link Binary} with the later version.
+     * @param baseUri
+     * @return A {@link Dataset} laid out as by {@link TripleDelta#toDataset()},
+     *         or of problems encountered.
+     */
+    public Dataset getDelta(final Graph previous, final Binary current,
+        final String baseUri) {
+        final Dataset generated = getProperties(current, baseUri);
+        if (generated.containsNamedModel(PROBLEMS_MODEL_NAME) ||
+                !generated.containsNamedModel(MODEL_NAME)) {
+            return generated;
+        }
+        return TripleDelta.between(previous,
+                generated.getNamedModel(MODEL_NAME).getGraph()).toDataset();
+    }
+
+    /**
+     * As {@link #getDelta(Graph, Binary, String)}, but generating the triples
+     * of the earlier version too. With an {@link IncrementalTeiExtractor}, the
+     * later version is read as an update of the earlier, and only what changed
+     * is compared.
+     *
+     * @param previous A {@link Binary} with the earlier version.
+     * @param current A {@link Binary} with the later version.
+     * @param baseUri
+     * @return A {@link Dataset} laid out as by {@link TripleDelta#toDataset()},
+     *         or of problems encountered.
+     */
+    public Dataset getDelta(final Binary previous, final Binary current,
+        final String baseUri) {
+        final IncrementalTeiExtractor currentIncremental = incremental;
+        if (currentIncremental != null) {
+            try (final Timer.Context time = GENERATE.time()) {
+                update(currentIncremental, previous, baseUri);
+                final IncrementalTeiExtractor.Update update =
+                    update(currentIncremental, current, baseUri);
+                return new TripleDelta(update.getAdded(), update.getRemoved())
+                        .toDataset();
+            } catch (IOException | XMLStreamException | SAXException e) {
+                return exceptionRdf(baseUri, e);
+            }
+        }
+        final Dataset before = getProperties(previous, baseUri);
+        if (before.containsNamedModel(PROBLEMS_MODEL_NAME) ||
+                !before.containsNamedModel(MODEL_NAME)) {
+            return before;
+        }
+        return getDelta(before.getNamedModel(MODEL_NAME).getGraph(), current,
+                baseUri);
+    }
+
+    private static IncrementalTeiExtractor.Update update(
+        final IncrementalTeiExtractor extractor, final Binary binary,
+        final String baseUri) throws IOException, XMLStreamException,
+        SAXException {
+        final String version =
+            binary instanceof org.modeshape.jcr.api.Binary
+                    ? ((org.modeshape.jcr.api.Binary) binary).getHexHash()
+                    : null;
+        return extractor.update(new ByteSource() {
+
+            @Override
+            public InputStream openStream() throws IOException {
+                try (final Timer.Context opening = OPEN_BINARY.time()) {
+                    return binary.getStream();
+                } catch (final RepositoryException e) {
+                    throw new IOException(e);
+                }
+            }
+        }, baseUri, version);
+    }
+
+    private Dataset regenerate(final IncrementalTeiExtractor extractor,
+        final Binary binary, final String baseUri) {
+        final Graph graph;
+        try (
+            final MemoryBudget.Admission admission = admit(binary);
+            final Timer.Context time = GENERATE.time()) {
+            graph = update(extractor, binary, baseUri).snapshot();
+        } catch (final InterruptedException e) {
+            currentThread().interrupt();
+            return exceptionRdf(baseUri, e);
+        } catch (IOException | XMLStreamException | SAXException |
+                RepositoryException | RejectedExecutionException e) {
+            return exceptionRdf(baseUri, e);
+        }
+        TRIPLES.update(graph.size());
+        final Model model = createModelForGraph(graph);
+        prefixFragments(model, baseUri);
+        final Dataset results = new DatasetImpl(createDefaultModel());
+        results.addNamedModel(MODEL_NAME, model);
+        return results;
+    }
+
+    private Dataset generate(final Binary binary, final String baseUri,
+        final ModelTripleHandler handler) {
+        try (
+            final MemoryBudget.Admission admission = admit(binary);
+            final InputStream resource = open(binary, baseUri)) {
+            final long size = binary.getSize();
+            final boolean streaming =
+                builtInStylesheets && size > streamingThreshold;
+            if (streaming) {
+                LOGGER.debug("Streaming {} bytes of TEI for {}", size, baseUri);
+            }
+            return generate(resource, baseUri, handler, streaming);
+        } catch (final InterruptedException e) {
+            currentThread().interrupt();
+            return exceptionRdf(baseUri, e);
+        } catch (IOException | RepositoryException |
+                RejectedExecutionException e) {
+            return exceptionRdf(baseUri, e);
+        }
+    }
+
+    /**
+     * Waits for our {@link MemoryBudget}, if we have one, to admit a binary.
+     *
+     * @return The {@link MemoryBudget.Admission} of {@code binary}, or
+     *         {@code null} if we have no budget.
+     */
+    private MemoryBudget.Admission admit(final Binary binary)
+        throws RepositoryException, InterruptedException {
+        final MemoryBudget budget = memoryBudget;
+        return budget == null ? null : budget.admit(binary.getSize());
+    }
+
+    /**
+     * Opens a binary in place if it is held in a file of our binary store, and
+     * otherwise as a stream.
+     */
+    private InputStream open(final Binary binary, final String baseUri)
+        throws RepositoryException {
+        try (final Timer.Context opening = OPEN_BINARY.time()) {
+            final FileSystemBinaries files = binaryFiles;
+            if (files != null) {
+                final File file = files.find(binary);
+                if (file != null) {
+                    try {
+                        final InputStream mapped =
+                            ByteBuffersInputStream.map(file, binary.getSize());
+                        MAPPED_BINARIES.inc();
+                        return mapped;
+                    } catch (final IOException e) {
+                        LOGGER.debug(
+                                "Couldn't map {} for {}, so streaming it: {}",
+                                file, baseUri, e.getMessage());
+                    }
+                }
+            }
+            return binary.getStream();
+        }
+    }
+
+    /**
+     * @param resource An {@link InputStream} with TEI XML.
+     * @param baseUri
+     * @param handler The {@link ModelTripleHandler} in which to collect
+     *        triples.
+     * @return A {@link Dataset} of triples, or of problems encountered.
+     */
+    protected Dataset getProperties(final InputStream resource,
+        final String baseUri, final ModelTripleHandler handler) {
+        return generate(resource, baseUri, handler, false);
+    }
+
+    private Dataset generate(final InputStream resource, final String baseUri,
+        final ModelTripleHandler handler, final boolean streaming) {
+        final CountingInputStream input =
+            new CountingInputStream(new InterruptibleInputStream(resource));
+        final Dataset results;
+        try (final Timer.Context time = GENERATE.time()) {
+            if (streaming) {
+                results = streamTriples(input, baseUri, handler);
+            } else if (fusedPipeline && builtInStylesheets) {
+                results = generateTriples(input, baseUri, handler);
+            } else {
+                final OffHeapBuffer rdfXml =
+                    createRDFXMLBuffer(input, idStrategyFor(handler));
+                try {
+                    results = extractTriples(rdfXml, baseUri, handler);
+                } finally {
+                    rdfXml.reset();
+                }
+            }
+        } catch (final InterruptedException e) {
+            currentThread().interrupt();
+            return exceptionRdf(baseUri, e);
+        } catch (IOException | TransformerException | ExtractionException |
+                XMLStreamException | SAXException e) {
             return exceptionRdf(baseUri, e);
+        } finally {
+            INPUT_BYTES.update(input.getCount());
         }
+        prefixFragments(handler.getModel(), baseUri);
+        TRIPLES.update(handler.size());
+        return results;
     }
 }
@@ -0,0 +1,417 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei;
+
+import static com.hp.hpl.jena.graph.Node.ANY;
+import static com.hp.hpl.jena.rdf.model.ModelFactory.createDefaultModel;
+import static com.hp.hpl.jena.rdf.model.ModelFactory.createModelForGraph;
+import static com.hp.hpl.jena.sparql.util.FmtUtils.stringForNode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.mem.GraphMem;
+import com.hp.hpl.jena.query.Dataset;
+import com.hp.hpl.jena.shared.PrefixMapping;
+import com.hp.hpl.jena.sparql.core.DatasetImpl;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+
+/**
+ * The triples added and removed between two versions of a document's graph.
+ * <p>
+ * Blank nodes have no names that carry over from one version to the next, so
+ * they are compared by what they are described with: a blank node whose
+ * triples, with any other blank nodes left anonymous, match those of one in
+ * the other version is unchanged. Where the number of such blank nodes
+ * differs, all of those of the old version are removed and all of those of
+ * the new added. This suits the blank nodes tei2rdf.xslt produces, each of
+ * which is described by the few triples that connect it to the document.
+ *
+ * @author ajs6f
+ */
+public class TripleDelta {
+
+    /**
+     * The name of the model of added triples in {@link #toDataset()}.
+     */
+    public static final String ADDITIONS_MODEL_NAME = "tei-additions";
+
+    /**
+     * The name of the model of removed triples in {@link #toDataset()}.
+     */
+    public static final String REMOVALS_MODEL_NAME = "tei-removals";
+
+    /**
+     * No prefixes, so that every URI is written in full.
+     */
+    private static final PrefixMapping NO_PREFIXES = PrefixMapping.Factory
+            .create().lock();
+
+    private final Graph additions;
+
+    private final Graph removals;
+
+    /**
+     * @param additions
+     * @param removals
+     */
+    public TripleDelta(final Graph additions, final Graph removals) {
+        this.additions = additions;
+        this.removals = removals;
+    }
+
+    /**
+     * @param additions
+     * @param removals
+     */
+    public TripleDelta(final Collection<Triple> additions,
+        final Collection<Triple> removals) {
+        this(graph(additions), graph(removals));
+    }
+
+    /**
+     * @param previous
+     * @param current
+     * @return What changed from {@code previous} to {@code current}.
+     */
+    public static TripleDelta between(final Graph previous, final Graph current) {
+        final Graph additions = new GraphMem();
+        final Graph removals = new GraphMem();
+        difference(current, previous, additions);
+        difference(previous, current, removals);
+        final Map<String, List<Node>> previousBlankNodes =
+            blankNodes(previous);
+        final Map<String, List<Node>> currentBlankNodes = blankNodes(current);
+        for (final Map.Entry<String, List<Node>> description : previousBlankNodes
+                .entrySet()) {
+            final List<Node> now = currentBlankNodes.get(description.getKey());
+            if (now == null || now.size() != description.getValue().size()) {
+                describe(previous, description.getValue(), removals);
+            }
+        }
+        for (final Map.Entry<String, List<Node>> description : currentBlankNodes
+                .entrySet()) {
+            final List<Node> before =
+                previousBlankNodes.get(description.getKey());
+            if (before == null ||
+                    before.size() != description.getValue().size()) {
+                describe(current, description.getValue(), additions);
+            }
+        }
+        return new TripleDelta(additions, removals);
+    }
+
+    /**
+     * @param delta A {@link Dataset} laid out as by {@link #toDataset()}.
+     * @return The delta it holds, empty where it holds no model.
+     */
+    public static TripleDelta of(final Dataset delta) {
+        return new TripleDelta(delta.containsNamedModel(ADDITIONS_MODEL_NAME)
+                ? delta.getNamedModel(ADDITIONS_MODEL_NAME).getGraph()
+                : new GraphMem(), delta.containsNamedModel(REMOVALS_MODEL_NAME)
+                ? delta.getNamedModel(REMOVALS_MODEL_NAME).getGraph()
+                : new GraphMem());
+    }
+
+    /**
+     * @return Triples in the new version and not the old.
+     */
+    public Graph getAdditions() {
+        return additions;
+    }
+
+    /**
+     * @return Triples in the old version and not the new.
+     */
+    public Graph getRemovals() {
+        return removals;
+    }
+
+    /**
+     * @return Whether nothing changed.
+     */
+    public boolean isEmpty() {
+        return additions.isEmpty() && removals.isEmpty();
+    }
+
+    /**
+     * @return A {@link Dataset} with our additions and removals as the models
+     *         named {@link #ADDITIONS_MODEL_NAME} and
+     *         {@link #REMOVALS_MODEL_NAME}.
+     */
+    public Dataset toDataset() {
+        final Dataset results = new DatasetImpl(createDefaultModel());
+        results.addNamedModel(ADDITIONS_MODEL_NAME,
+                createModelForGraph(additions));
+        results.addNamedModel(REMOVALS_MODEL_NAME, createModelForGraph(removals));
+        return results;
+    }
+
+    /**
+     * Writes a SPARQL Update request that turns the old version into the new.
+     * Removed triples without blank nodes are deleted as data; those with blank
+     * nodes are deleted by matching their descriptions, with each blank node a
+     * variable.
+     *
+     * @param graphUri The graph to update, or {@code null} for the default
+     *        graph.
+     * @return A SPARQL Update request, which is empty if nothing changed.
+     */
+    public String toSparqlUpdate(final String graphUri) {
+        final StringBuilder update = new StringBuilder();
+        final StringBuilder ground = new StringBuilder();
+        final Set<Node> blankNodes = new HashSet<>();
+        final ExtendedIterator<Triple> removed = removals.find(ANY, ANY, ANY);
+        try {
+            while (removed.hasNext()) {
+                final Triple t = removed.next();
+                if (t.getSubject().isBlank() || t.getObject().isBlank()) {
+                    addBlank(t.getSubject(), blankNodes);
+                    addBlank(t.getObject(), blankNodes);
+                } else {
+                    ground.append(format(t, null, null));
+                }
+            }
+        } finally {
+            removed.close();
+        }
+        if (ground.length() > 0) {
+            update.append("DELETE DATA {\n").append(inGraph(graphUri, ground))
+                    .append("} ;\n");
+        }
+        final Map<String, List<Node>> descriptions = new LinkedHashMap<>();
+        for (final Node blankNode : blankNodes) {
+            final String description = description(removals, blankNode);
+            if (!descriptions.containsKey(description)) {
+                descriptions.put(description, Collections.singletonList(blankNode));
+            }
+        }
+        for (final List<Node> blankNode : descriptions.values()) {
+            final Graph pattern = new GraphMem();
+            describe(removals, blankNode, pattern);
+            final StringBuilder where = new StringBuilder();
+            final Map<Node, String> variables = new HashMap<>();
+            final ExtendedIterator<Triple> triples = pattern.find(ANY, ANY, ANY);
+            try {
+                while (triples.hasNext()) {
+                    where.append(format(triples.next(), variables, "?b"));
+                }
+            } finally {
+                triples.close();
+            }
+            update.append("DELETE WHERE {\n").append(inGraph(graphUri, where))
+                    .append("} ;\n");
+        }
+        if (!additions.isEmpty()) {
+            final StringBuilder data = new StringBuilder();
+            final Map<Node, String> labels = new HashMap<>();
+            final ExtendedIterator<Triple> added =
+                additions.find(ANY, ANY, ANY);
+            try {
+                while (added.hasNext()) {
+                    data.append(format(added.next(), labels, "_:b"));
+                }
+            } finally {
+                added.close();
+            }
+            update.append("INSERT DATA {\n").append(inGraph(graphUri, data))
+                    .append("} ;\n");
+        }
+        return update.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "TripleDelta: +" + additions.size() + " -" + removals.size();
+    }
+
+    private static CharSequence inGraph(final String graphUri,
+        final CharSequence triples) {
+        if (graphUri == null) {
+            return triples;
+        }
+        return new StringBuilder("GRAPH <").append(graphUri).append("> {\n")
+                .append(triples).append("}\n");
+    }
+
+    /**
+     * @param blankNodes The names given so far to blank nodes, which are
+     *        {@code prefix} followed by a number: variables if we are writing
+     *        a pattern, labels if data. {@code null} if there are none.
+     * @param prefix
+     */
+    private static String format(final Triple t,
+        final Map<Node, String> blankNodes, final String prefix) {
+        return new StringBuilder("  ").append(
+                format(t.getSubject(), blankNodes, prefix)).append(' ').append(
+                format(t.getPredicate(), blankNodes, prefix)).append(' ')
+                .append(format(t.getObject(), blankNodes, prefix)).append(
+                        " .\n").toString();
+    }
+
+    private static String format(final Node node,
+        final Map<Node, String> blankNodes, final String prefix) {
+        if (!node.isBlank()) {
+            return stringForNode(node, NO_PREFIXES);
+        }
+        String name = blankNodes.get(node);
+        if (name == null) {
+            name = prefix + blankNodes.size();
+            blankNodes.put(node, name);
+        }
+        return name;
+    }
+
+    private static void addBlank(final Node node, final Set<Node> blankNodes) {
+        if (node.isBlank()) {
+            blankNodes.add(node);
+        }
+    }
+
+    /**
+     * Adds to {@code difference} the triples of {@code graph} that are not in
+     * {@code other} and have no blank nodes.
+     */
+    private static void difference(final Graph graph, final Graph other,
+        final Graph difference) {
+        final ExtendedIterator<Triple> triples = graph.find(ANY, ANY, ANY);
+        try {
+            while (triples.hasNext()) {
+                final Triple t = triples.next();
+                if (!t.getSubject().isBlank() && !t.getObject().isBlank() &&
+                        !other.contains(t)) {
+                    difference.add(t);
+                }
+            }
+        } finally {
+            triples.close();
+        }
+    }
+
+    /**
+     * @return The blank nodes of {@code graph}, grouped by their descriptions.
+     */
+    private static Map<String, List<Node>> blankNodes(final Graph graph) {
+        final Set<Node> blankNodes = new HashSet<>();
+        final ExtendedIterator<Triple> triples = graph.find(ANY, ANY, ANY);
+        try {
+            while (triples.hasNext()) {
+                final Triple t = triples.next();
+                addBlank(t.getSubject(), blankNodes);
+                addBlank(t.getObject(), blankNodes);
+            }
+        } finally {
+            triples.close();
+        }
+        final Map<String, List<Node>> descriptions = new HashMap<>();
+        for (final Node blankNode : blankNodes) {
+            final String description = description(graph, blankNode);
+            List<Node> described = descriptions.get(description);
+            if (described == null) {
+                described = new ArrayList<>();
+                descriptions.put(description, described);
+            }
+            described.add(blankNode);
+        }
+        return descriptions;
+    }
+
+    /**
+     * @return The triples of a blank node, in a canonical order, with it and
+     *         any other blank nodes left anonymous.
+     */
+    private static String description(final Graph graph, final Node blankNode) {
+        final Multiset<String> description = HashMultiset.create();
+        final ExtendedIterator<Triple> outgoing =
+            graph.find(blankNode, ANY, ANY);
+        try {
+            while (outgoing.hasNext()) {
+                final Triple t = outgoing.next();
+                description.add("> " + t.getPredicate() + " " +
+                        anonymous(t.getObject()));
+            }
+        } finally {
+            outgoing.close();
+        }
+        final ExtendedIterator<Triple> incoming =
+            graph.find(ANY, ANY, blankNode);
+        try {
+            while (incoming.hasNext()) {
+                final Triple t = incoming.next();
+                description.add("< " + t.getPredicate() + " " +
+                        anonymous(t.getSubject()));
+            }
+        } finally {
+            incoming.close();
+        }
+        final List<String> sorted = new ArrayList<>(description);
+        Collections.sort(sorted);
+        return sorted.toString();
+    }
+
+    private static String anonymous(final Node node) {
+        return node.isBlank() ? "_" : stringForNode(node, NO_PREFIXES);
+    }
+
+    /**
+     * Adds to {@code description} the triples of {@code graph} with any of
+     * {@code blankNodes}.
+     */
+    private static void describe(final Graph graph,
+        final Collection<Node> blankNodes, final Graph description) {
+        for (final Node blankNode : blankNodes) {
+            final ExtendedIterator<Triple> outgoing =
+                graph.find(blankNode, ANY, ANY);
+            try {
+                while (outgoing.hasNext()) {
+                    description.add(outgoing.next());
+                }
+            } finally {
+                outgoing.close();
+            }
+            final ExtendedIterator<Triple> incoming =
+                graph.find(ANY, ANY, blankNode);
+            try {
+                while (incoming.hasNext()) {
+                    description.add(incoming.next());
+                }
+            } finally {
+                incoming.close();
+            }
+        }
+    }
+
+    private static Graph graph(final Collection<Triple> triples) {
+        final Graph graph = new GraphMem();
+        for (final Triple t : triples) {
+            graph.add(t);
+        }
+        return graph;
+    }
+}
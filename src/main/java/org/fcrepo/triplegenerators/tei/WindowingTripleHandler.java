@@ -0,0 +1,107 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei;
+
+import static java.util.Arrays.asList;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.any23.extractor.ExtractionContext;
+import org.apache.any23.writer.TripleHandler;
+import org.apache.any23.writer.TripleHandlerException;
+import org.openrdf.model.Resource;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+
+/**
+ * A {@link ModelTripleHandler} that keeps only a window of the distinct
+ * triples emitted into it: it skips the first {@code offset} and refuses any
+ * after {@code offset + limit}, by throwing a {@link TripleHandlerException}
+ * so that whatever is producing triples stops early. Callers should consult
+ * {@link #isFull()} to distinguish that from a real failure.
+ *
+ * @author ajs6f
+ */
+public class WindowingTripleHandler extends ModelTripleHandler {
+
+    private final long offset;
+
+    private final long end;
+
+    private final Set<List<Value>> seen = new HashSet<>();
+
+    private boolean full = false;
+
+    /**
+     * @param offset The number of distinct triples to skip.
+     * @param limit The most triples to keep, or a negative number to keep all
+     *        after {@code offset}.
+     */
+    public WindowingTripleHandler(final long offset, final int limit) {
+        this.offset = offset < 0 ? 0 : offset;
+        this.end = limit < 0 ? Long.MAX_VALUE : this.offset + limit;
+        this.full = end == 0;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see
+     * org.fcrepo.triplegenerators.tei.ModelTripleHandler#receiveTriple(org
+     * .openrdf.model.Resource, org.openrdf.model.URI, org.openrdf.model.Value,
+     * org.openrdf.model.URI, org.apache.any23.extractor.ExtractionContext)
+     */
+    @Override
+    public void receiveTriple(final Resource s, final URI p, final Value o,
+        final URI g, final ExtractionContext ec)
+        throws TripleHandlerException {
+        if (full) {
+            throw new TripleHandlerException("Triple window is full.");
+        }
+        if (!seen.add(asList(s, p, o))) {
+            return;
+        }
+        if (seen.size() > offset) {
+            super.receiveTriple(s, p, o, g, ec);
+        }
+        if (seen.size() >= end) {
+            full = true;
+            throw new TripleHandlerException("Triple window is full.");
+        }
+    }
+
+    /**
+     * @return Whether this handler has received all the triples it will keep,
+     *         in which case any exception from the {@link TripleHandler}
+     *         machinery feeding it is only a consequence of its refusal.
+     */
+    public boolean isFull() {
+        return full;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.fcrepo.triplegenerators.tei.ModelTripleHandler#reset()
+     */
+    @Override
+    public void reset() {
+        super.reset();
+        seen.clear();
+        full = end == 0;
+    }
+}
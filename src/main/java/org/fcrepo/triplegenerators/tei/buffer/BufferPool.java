@@ -0,0 +1,129 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei.buffer;
+
+import static java.nio.ByteBuffer.allocateDirect;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of direct {@link ByteBuffer}s of one size, from which
+ * {@link OffHeapBuffer}s take their memory. Direct buffers live outside the
+ * Java heap and are costly to allocate, so we keep up to {@code capacity} of
+ * them for reuse once they are given back, and let the rest go.
+ *
+ * @author ajs6f
+ */
+public class BufferPool {
+
+    private final int chunkSize;
+
+    private final int capacity;
+
+    private final Queue<ByteBuffer> idle = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    private final AtomicLong allocated = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * @param chunkSize The size in bytes of each buffer.
+     * @param capacity The most idle buffers to keep for reuse.
+     */
+    public BufferPool(final int chunkSize, final int capacity) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException(
+                    "A BufferPool must have a chunk size of at least 1!");
+        }
+        if (capacity < 0) {
+            throw new IllegalArgumentException(
+                    "A BufferPool cannot have a negative capacity!");
+        }
+        this.chunkSize = chunkSize;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return An empty buffer of {@link #getChunkSize()} bytes, to be given
+     *         back via {@link #release(ByteBuffer)}.
+     */
+    public ByteBuffer acquire() {
+        final ByteBuffer buffer = idle.poll();
+        if (buffer != null) {
+            idleCount.decrementAndGet();
+            hits.incrementAndGet();
+            return buffer;
+        }
+        allocated.incrementAndGet();
+        return allocateDirect(chunkSize);
+    }
+
+    /**
+     * Gives a buffer back, to be reused if the pool has room for it.
+     *
+     * @param buffer A buffer taken from this pool.
+     */
+    public void release(final ByteBuffer buffer) {
+        if (idleCount.incrementAndGet() > capacity) {
+            idleCount.decrementAndGet();
+            return;
+        }
+        buffer.clear();
+        idle.offer(buffer);
+    }
+
+    /**
+     * @return The size in bytes of each buffer.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return The most idle buffers kept for reuse.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The number of buffers now idle in the pool.
+     */
+    public int getIdle() {
+        return idleCount.get();
+    }
+
+    /**
+     * @return The number of buffers allocated, because none was idle.
+     */
+    public long getAllocated() {
+        return allocated.get();
+    }
+
+    /**
+     * @return The number of buffers reused.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei.buffer;
+
+import static java.lang.Math.min;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a sequence of {@link ByteBuffer}s from their positions to their
+ * limits, copying straight from them into the caller's array. Marking and
+ * resetting cost nothing here, so both are supported.
+ *
+ * @author ajs6f
+ */
+public class ByteBuffersInputStream extends InputStream {
+
+    private final List<ByteBuffer> chunks;
+
+    private int current;
+
+    private int markedChunk;
+
+    private int markedPosition;
+
+    /**
+     * @param chunks Buffers that no one else reads or writes while we are read.
+     */
+    public ByteBuffersInputStream(final List<ByteBuffer> chunks) {
+        this.chunks = chunks;
+    }
+
+    /**
+     * Maps a file into memory to be read. The mapping outlives the stream, and
+     * is released when it is garbage-collected.
+     *
+     * @param file
+     * @param size The number of bytes from the start of {@code file} to read.
+     * @return A stream of {@code file}, read in place.
+     * @throws IOException
+     */
+    public static ByteBuffersInputStream map(final File file, final long size)
+        throws IOException {
+        final List<ByteBuffer> views = new ArrayList<>();
+        try (
+            final RandomAccessFile in = new RandomAccessFile(file, "r");
+            final FileChannel channel = in.getChannel()) {
+            // a single mapping can span no more than 2 GiB
+            for (long position = 0; position < size; position +=
+                    Integer.MAX_VALUE) {
+                views.add(channel.map(READ_ONLY, position, min(
+                        Integer.MAX_VALUE, size - position)));
+            }
+        }
+        return new ByteBuffersInputStream(views);
+    }
+
+    /**
+     * @return The chunk to read from next, or {@code null} at the end.
+     */
+    private ByteBuffer chunk() {
+        while (current < chunks.size()) {
+            final ByteBuffer chunk = chunks.get(current);
+            if (chunk.hasRemaining()) {
+                return chunk;
+            }
+            current++;
+        }
+        return null;
+    }
+
+    @Override
+    public int read() {
+        final ByteBuffer chunk = chunk();
+        return chunk == null ? -1 : chunk.get() & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) {
+        if (len == 0) {
+            return 0;
+        }
+        final ByteBuffer chunk = chunk();
+        if (chunk == null) {
+            return -1;
+        }
+        final int n = min(len, chunk.remaining());
+        chunk.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(final long n) {
+        long skipped = 0;
+        ByteBuffer chunk;
+        while (skipped < n && (chunk = chunk()) != null) {
+            final int step = (int) min(n - skipped, chunk.remaining());
+            chunk.position(chunk.position() + step);
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        final ByteBuffer chunk = chunk();
+        return chunk == null ? 0 : chunk.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public void mark(final int readlimit) {
+        markedChunk = current;
+        markedPosition =
+            current < chunks.size() ? chunks.get(current).position() : 0;
+    }
+
+    @Override
+    public void reset() {
+        for (int i = current; i > markedChunk; i--) {
+            if (i < chunks.size()) {
+                chunks.get(i).position(0);
+            }
+        }
+        if (markedChunk < chunks.size()) {
+            chunks.get(markedChunk).position(markedPosition);
+        }
+        current = markedChunk;
+    }
+}
@@ -0,0 +1,224 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei.buffer;
+
+import static java.io.File.createTempFile;
+import static java.lang.Math.min;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+
+import com.google.common.io.ByteSource;
+
+/**
+ * An {@link OutputStream} that keeps what is written to it outside the Java
+ * heap: in direct {@link ByteBuffer}s from a {@link BufferPool} until it grows
+ * past a limit, then in a temporary file, which is memory-mapped to be read
+ * back. Like {@link com.google.common.io.FileBackedOutputStream}, the bytes
+ * can be read any number of times through {@link #asByteSource()}, and are
+ * discarded by {@link #reset()}, which must be called to give back the
+ * buffers and remove any file.
+ *
+ * @author ajs6f
+ */
+public class OffHeapBuffer extends OutputStream {
+
+    private final BufferPool pool;
+
+    private final long memoryLimit;
+
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+
+    private long size;
+
+    private File file;
+
+    private OutputStream fileStream;
+
+    private static final Logger LOGGER = getLogger(OffHeapBuffer.class);
+
+    /**
+     * @param pool The {@link BufferPool} from which to take memory.
+     * @param memoryLimit The most bytes to hold in memory before moving to a
+     *        file.
+     */
+    public OffHeapBuffer(final BufferPool pool, final long memoryLimit) {
+        this.pool = pool;
+        this.memoryLimit = memoryLimit;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(final byte[] b, final int off,
+        final int len) throws IOException {
+        if (fileStream == null && size + len > memoryLimit) {
+            spill();
+        }
+        if (fileStream != null) {
+            fileStream.write(b, off, len);
+        } else {
+            int written = 0;
+            while (written < len) {
+                ByteBuffer chunk =
+                    chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+                if (chunk == null || !chunk.hasRemaining()) {
+                    chunk = pool.acquire();
+                    chunks.add(chunk);
+                }
+                final int n = min(len - written, chunk.remaining());
+                chunk.put(b, off + written, n);
+                written += n;
+            }
+        }
+        size += len;
+    }
+
+    /**
+     * Moves what we hold in memory to a new temporary file, to which we write
+     * from now on.
+     *
+     * @throws IOException
+     */
+    private void spill() throws IOException {
+        file = createTempFile("tei-buffer", null);
+        LOGGER.debug("Spilling {} bytes to {}", size, file);
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            final FileChannel channel = out.getChannel();
+            for (final ByteBuffer chunk : chunks) {
+                chunk.flip();
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk);
+                }
+            }
+        } catch (final IOException e) {
+            out.close();
+            throw e;
+        }
+        releaseChunks();
+        fileStream = new BufferedOutputStream(out);
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (fileStream != null) {
+            fileStream.flush();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (fileStream != null) {
+            fileStream.close();
+        }
+    }
+
+    /**
+     * @return The number of bytes written.
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * @return Whether what was written outgrew memory and was moved to a file.
+     */
+    public synchronized boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * @return A {@link ByteSource} of the bytes written so far. Its streams
+     *         must not be read after {@link #reset()}.
+     */
+    public ByteSource asByteSource() {
+        return new ByteSource() {
+
+            @Override
+            public InputStream openStream() throws IOException {
+                return OffHeapBuffer.this.openStream();
+            }
+
+            @Override
+            public long size() {
+                return OffHeapBuffer.this.size();
+            }
+        };
+    }
+
+    /**
+     * @return A stream of the bytes written so far, read in place.
+     * @throws IOException
+     */
+    private synchronized InputStream openStream() throws IOException {
+        if (file == null) {
+            final List<ByteBuffer> views = new ArrayList<>(chunks.size());
+            for (final ByteBuffer chunk : chunks) {
+                final ByteBuffer view = chunk.asReadOnlyBuffer();
+                view.flip();
+                views.add(view);
+            }
+            return new ByteBuffersInputStream(views);
+        }
+        fileStream.flush();
+        return ByteBuffersInputStream.map(file, size);
+    }
+
+    /**
+     * Discards what was written, giving back our buffers and removing any
+     * file.
+     *
+     * @throws IOException
+     */
+    public synchronized void reset() throws IOException {
+        try {
+            close();
+        } finally {
+            releaseChunks();
+            if (file != null && !file.delete()) {
+                // still mapped, on some platforms
+                LOGGER.warn("Could not delete {}", file);
+                file.deleteOnExit();
+            }
+            file = null;
+            fileStream = null;
+            size = 0;
+        }
+    }
+
+    private void releaseChunks() {
+        for (final ByteBuffer chunk : chunks) {
+            pool.release(chunk);
+        }
+        chunks.clear();
+    }
+}
@@ -0,0 +1,349 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei.cache;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.hash.Hashing.sha1;
+import static com.hp.hpl.jena.rdf.model.ModelFactory.createDefaultModel;
+import static com.hp.hpl.jena.rdf.model.ModelFactory.createModelForGraph;
+import static java.io.File.createTempFile;
+import static java.lang.System.currentTimeMillis;
+import static org.apache.jena.riot.Lang.NTRIPLES;
+import static org.apache.jena.riot.RDFDataMgr.read;
+import static org.apache.jena.riot.RDFDataMgr.write;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.sparql.graph.GraphReadOnly;
+
+/**
+ * A cache of generated TEI triples, keyed by the digest of the binary they
+ * came from, the version of the stylesheets that produced them and the base
+ * URI against which they were resolved. Graphs are held in memory up to a
+ * total number of triples, least-recently-used first out, and may also be
+ * written as N-Triples into a directory, from which they are reloaded when
+ * they have fallen out of memory. The directory is held to a total number of
+ * bytes, least-recently-used first out, and may be emptied with
+ * {@link #purgeDisk()}; files in it outlast both
+ * {@link #invalidateAll()} and this cache. The prefixes of a graph are kept with it,
+ * on disk as comments ahead of its triples. Graphs handed out by this cache
+ * are read-only and shared between callers, prefixes and all.
+ *
+ * @author ajs6f
+ */
+public class TeiDatasetCache {
+
+    private final Cache<String, Graph> memory;
+
+    private final File directory;
+
+    private final long maximumDiskBytes;
+
+    private final AtomicLong diskHits = new AtomicLong();
+
+    private final AtomicLong diskMisses = new AtomicLong();
+
+    private final AtomicLong diskEvictions = new AtomicLong();
+
+    private static final Logger LOGGER = getLogger(TeiDatasetCache.class);
+
+    /**
+     * A prefix as written ahead of the triples of a cached graph.
+     */
+    private static final Pattern PREFIX = Pattern
+            .compile("^# @prefix ([^:\\s]*): <([^>]*)> \\.$");
+
+    /**
+     * Accepts the files of cached graphs, but not those still being written.
+     */
+    private static final FileFilter CACHED = new FileFilter() {
+
+        @Override
+        public boolean accept(final File file) {
+            return file.isFile() && file.getName().endsWith(".nt");
+        }
+    };
+
+    /**
+     * Orders files least recently used first.
+     */
+    private static final Comparator<File> LEAST_RECENTLY_USED =
+        new Comparator<File>() {
+
+            @Override
+            public int compare(final File a, final File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        };
+
+    /**
+     * @param maximumTriples The most triples to hold in memory.
+     */
+    public TeiDatasetCache(final long maximumTriples) {
+        this(maximumTriples, null);
+    }
+
+    /**
+     * @param maximumTriples The most triples to hold in memory.
+     * @param directory A directory in which to keep serialized graphs, as
+     *        many as it will hold, or {@code null} to keep them only in
+     *        memory.
+     */
+    public TeiDatasetCache(final long maximumTriples, final File directory) {
+        this(maximumTriples, directory, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maximumTriples The most triples to hold in memory.
+     * @param directory A directory in which to keep serialized graphs, or
+     *        {@code null} to keep them only in memory.
+     * @param maximumDiskBytes The most bytes of serialized graphs to keep in
+     *        {@code directory}, counting any already there.
+     */
+    public TeiDatasetCache(final long maximumTriples, final File directory,
+        final long maximumDiskBytes) {
+        this.memory =
+            CacheBuilder.newBuilder().maximumWeight(maximumTriples).weigher(
+                    new Weigher<String, Graph>() {
+
+                        @Override
+                        public int weigh(final String key, final Graph graph) {
+                            return graph.size();
+                        }
+                    }).recordStats().build();
+        if (directory != null && !directory.isDirectory() &&
+                !directory.mkdirs()) {
+            throw new IllegalArgumentException("Couldn't create cache directory " +
+                    directory);
+        }
+        this.directory = directory;
+        this.maximumDiskBytes = maximumDiskBytes;
+    }
+
+    /**
+     * @param digest The digest of a TEI binary
+     * @param stylesheetVersion The version of the stylesheets used to transform
+     *        it
+     * @param baseUri The base URI of the generated triples
+     * @return A key for this cache
+     */
+    public static String key(final String digest,
+        final String stylesheetVersion, final String baseUri) {
+        return digest + "/" + stylesheetVersion + "/" + baseUri;
+    }
+
+    /**
+     * @param key
+     * @return The cached {@link Graph} for this key, or {@code null} if there
+     *         is none.
+     */
+    public Graph get(final String key) {
+        final Graph cached = memory.getIfPresent(key);
+        if (cached != null || directory == null) {
+            return cached;
+        }
+        final File file = fileFor(key);
+        if (!file.isFile()) {
+            diskMisses.incrementAndGet();
+            return null;
+        }
+        final Model model = createDefaultModel();
+        try (
+            final BufferedReader prefixes =
+                new BufferedReader(new InputStreamReader(new FileInputStream(
+                        file), UTF_8))) {
+            for (String line = prefixes.readLine(); line != null; line =
+                prefixes.readLine()) {
+                final Matcher prefix = PREFIX.matcher(line);
+                if (!prefix.matches()) {
+                    break;
+                }
+                model.setNsPrefix(prefix.group(1), prefix.group(2));
+            }
+        } catch (final IOException | RuntimeException e) {
+            LOGGER.warn("Couldn't read cached prefixes from {}: {}", file, e);
+            diskMisses.incrementAndGet();
+            return null;
+        }
+        try (final InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            read(model, in, NTRIPLES);
+        } catch (final IOException | RuntimeException e) {
+            LOGGER.warn("Couldn't read cached triples from {}: {}", file, e);
+            diskMisses.incrementAndGet();
+            return null;
+        }
+        diskHits.incrementAndGet();
+        file.setLastModified(currentTimeMillis());
+        final Graph graph = new GraphReadOnly(model.getGraph());
+        memory.put(key, graph);
+        return graph;
+    }
+
+    /**
+     * Caches a {@link Graph}, which must not be changed afterwards.
+     *
+     * @param key
+     * @param graph
+     * @return A read-only view of the cached graph.
+     */
+    public Graph put(final String key, final Graph graph) {
+        final Graph readOnly = new GraphReadOnly(graph);
+        memory.put(key, readOnly);
+        if (directory != null) {
+            final File file = fileFor(key);
+            // each writer has a file of its own until it is moved into place
+            File temp = null;
+            try {
+                temp = createTempFile(file.getName(), ".tmp", directory);
+                try (
+                    final OutputStream out =
+                        new BufferedOutputStream(new FileOutputStream(temp))) {
+                    for (final Map.Entry<String, String> prefix : graph
+                            .getPrefixMapping().getNsPrefixMap().entrySet()) {
+                        out.write(("# @prefix " + prefix.getKey() + ": <" +
+                                prefix.getValue() + "> .\n").getBytes(UTF_8));
+                    }
+                    write(out, createModelForGraph(graph), NTRIPLES);
+                }
+            } catch (final IOException | RuntimeException e) {
+                LOGGER.warn("Couldn't write cached triples for {}: {}", file, e);
+                if (temp != null) {
+                    temp.delete();
+                }
+                return readOnly;
+            }
+            if (!temp.renameTo(file)) {
+                LOGGER.warn("Couldn't move cached triples into {}", file);
+                temp.delete();
+            }
+            trimDisk();
+        }
+        return readOnly;
+    }
+
+    /**
+     * Deletes the least recently used files of our directory until they
+     * total no more than our maximum.
+     */
+    private synchronized void trimDisk() {
+        if (maximumDiskBytes == Long.MAX_VALUE) {
+            return;
+        }
+        final File[] files = directory.listFiles(CACHED);
+        if (files == null) {
+            return;
+        }
+        long bytes = 0;
+        for (final File file : files) {
+            bytes += file.length();
+        }
+        Arrays.sort(files, LEAST_RECENTLY_USED);
+        for (int i = 0; i < files.length && bytes > maximumDiskBytes; i++) {
+            final long length = files[i].length();
+            if (files[i].delete()) {
+                bytes -= length;
+                diskEvictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Discards everything held in memory. Files on disk are retained; see
+     * {@link #purgeDisk()}.
+     */
+    public void invalidateAll() {
+        memory.invalidateAll();
+    }
+
+    /**
+     * Deletes every serialized graph from our directory, if we have one.
+     * Graphs held in memory are retained; see {@link #invalidateAll()}.
+     */
+    public synchronized void purgeDisk() {
+        if (directory == null) {
+            return;
+        }
+        final File[] files = directory.listFiles(CACHED);
+        if (files == null) {
+            return;
+        }
+        for (final File file : files) {
+            if (!file.delete()) {
+                LOGGER.warn("Couldn't delete cached triples in {}", file);
+            }
+        }
+    }
+
+    /**
+     * @return Hit and miss statistics for the in-memory tier
+     */
+    public CacheStats stats() {
+        return memory.stats();
+    }
+
+    /**
+     * @return The number of in-memory misses satisfied from disk
+     */
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    /**
+     * @return The number of in-memory misses not satisfied from disk
+     */
+    public long getDiskMisses() {
+        return diskMisses.get();
+    }
+
+    /**
+     * @return The number of files deleted to hold our directory to its
+     *         maximum
+     */
+    public long getDiskEvictions() {
+        return diskEvictions.get();
+    }
+
+    private File fileFor(final String key) {
+        return new File(directory, sha1().hashString(key, UTF_8).toString() +
+                ".nt");
+    }
+}
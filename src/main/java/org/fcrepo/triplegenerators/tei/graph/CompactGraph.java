@@ -0,0 +1,415 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei.graph;
+
+import static java.util.Arrays.copyOf;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import com.hp.hpl.jena.graph.GraphEvents;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.TripleMatch;
+import com.hp.hpl.jena.graph.impl.GraphBase;
+import com.hp.hpl.jena.shared.AddDeniedException;
+import com.hp.hpl.jena.shared.DeleteDeniedException;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.NiceIterator;
+import com.hp.hpl.jena.util.iterator.NullIterator;
+
+/**
+ * A {@link com.hp.hpl.jena.graph.Graph} for generated triples that is written
+ * once and then only read. Each distinct {@link Node} is stored once and given
+ * a number, and triples are kept as numbers in arrays of {@code int}: sorted
+ * by subject, predicate and object, with two further arrays of positions
+ * sorting them by predicate, object and subject and by object, subject and
+ * predicate. That is five {@code int}s a triple, where a
+ * {@link com.hp.hpl.jena.mem.GraphMem} keeps a {@link Triple} and an entry in
+ * each of three hash indexes.
+ * <p>
+ * Triples may be added until the graph is first read, or until
+ * {@link #freeze()} is called, when it is sorted and duplicates dropped; after
+ * that, it can be emptied with {@link #clear()} but not otherwise changed.
+ * Literals are matched by term, not by value.
+ *
+ * @author ajs6f
+ */
+public class CompactGraph extends GraphBase {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Matches any node.
+     */
+    private static final int ANY = -1;
+
+    /**
+     * Matches no node, standing for one not in this graph.
+     */
+    private static final int MISSING = -2;
+
+    private final Map<Node, Integer> ids = new HashMap<>();
+
+    private Node[] nodes;
+
+    /**
+     * Triples as added, by the numbers of their nodes.
+     */
+    private int[] addedSubjects, addedPredicates, addedObjects;
+
+    private int added;
+
+    /**
+     * Distinct triples, sorted by subject, predicate and object.
+     */
+    private int[] subjects, predicates, objects;
+
+    /**
+     * Positions in {@link #subjects} in order of predicate, object and
+     * subject.
+     */
+    private int[] pos;
+
+    /**
+     * Positions in {@link #subjects} in order of object, subject and
+     * predicate.
+     */
+    private int[] osp;
+
+    private volatile boolean frozen;
+
+    /**
+     * Creates an empty graph.
+     */
+    public CompactGraph() {
+        empty();
+    }
+
+    private void empty() {
+        ids.clear();
+        nodes = new Node[INITIAL_CAPACITY];
+        addedSubjects = new int[INITIAL_CAPACITY];
+        addedPredicates = new int[INITIAL_CAPACITY];
+        addedObjects = new int[INITIAL_CAPACITY];
+        added = 0;
+        subjects = predicates = objects = pos = osp = null;
+        frozen = false;
+    }
+
+    @Override
+    public synchronized void performAdd(final Triple t) {
+        if (frozen) {
+            throw new AddDeniedException(
+                    "A CompactGraph cannot be changed once it has been read!", t);
+        }
+        if (added == addedSubjects.length) {
+            final int capacity = added * 2;
+            addedSubjects = copyOf(addedSubjects, capacity);
+            addedPredicates = copyOf(addedPredicates, capacity);
+            addedObjects = copyOf(addedObjects, capacity);
+        }
+        addedSubjects[added] = number(t.getSubject());
+        addedPredicates[added] = number(t.getPredicate());
+        addedObjects[added] = number(t.getObject());
+        added++;
+    }
+
+    @Override
+    public void performDelete(final Triple t) {
+        throw new DeleteDeniedException(
+                "Triples cannot be removed from a CompactGraph!", t);
+    }
+
+    /**
+     * Empties this graph, after which triples may be added again.
+     */
+    @Override
+    public void clear() {
+        synchronized (this) {
+            empty();
+        }
+        getEventManager().notifyEvent(this, GraphEvents.removeAll);
+    }
+
+    private int number(final Node node) {
+        final Integer id = ids.get(node);
+        if (id != null) {
+            return id;
+        }
+        final int size = ids.size();
+        if (size == nodes.length) {
+            nodes = copyOf(nodes, size * 2);
+        }
+        nodes[size] = node;
+        ids.put(node, size);
+        return size;
+    }
+
+    /**
+     * Sorts the triples added so far and builds our indexes. This happens by
+     * itself when the graph is first read.
+     */
+    public void freeze() {
+        if (frozen) {
+            return;
+        }
+        synchronized (this) {
+            if (frozen) {
+                return;
+            }
+            final int keySpace = ids.size();
+            int[] rows = new int[added];
+            for (int i = 0; i < added; i++) {
+                rows[i] = i;
+            }
+            // least significant first: counting sorts are stable
+            rows = sort(rows, addedObjects, keySpace);
+            rows = sort(rows, addedPredicates, keySpace);
+            rows = sort(rows, addedSubjects, keySpace);
+            int distinct = 0;
+            for (int i = 0; i < added; i++) {
+                final int row = rows[i];
+                if (i == 0 || !sameRow(rows[i - 1], row)) {
+                    rows[distinct++] = row;
+                }
+            }
+            subjects = new int[distinct];
+            predicates = new int[distinct];
+            objects = new int[distinct];
+            for (int i = 0; i < distinct; i++) {
+                subjects[i] = addedSubjects[rows[i]];
+                predicates[i] = addedPredicates[rows[i]];
+                objects[i] = addedObjects[rows[i]];
+            }
+            addedSubjects = addedPredicates = addedObjects = null;
+            // in subject order, so only the more significant keys need sorting
+            final int[] identity = new int[distinct];
+            for (int i = 0; i < distinct; i++) {
+                identity[i] = i;
+            }
+            pos = sort(sort(identity, objects, keySpace), predicates, keySpace);
+            osp = sort(identity, objects, keySpace);
+            nodes = copyOf(nodes, keySpace);
+            frozen = true;
+        }
+    }
+
+    private boolean sameRow(final int a, final int b) {
+        return addedSubjects[a] == addedSubjects[b] &&
+                addedPredicates[a] == addedPredicates[b] &&
+                addedObjects[a] == addedObjects[b];
+    }
+
+    /**
+     * A counting sort of {@code rows} by their {@code keys}, which lie in
+     * {@code [0, keySpace)}.
+     *
+     * @return A new array of {@code rows}, stably sorted.
+     */
+    private static int[] sort(final int[] rows, final int[] keys,
+        final int keySpace) {
+        final int[] starts = new int[keySpace + 1];
+        for (final int row : rows) {
+            starts[keys[row] + 1]++;
+        }
+        for (int i = 0; i < keySpace; i++) {
+            starts[i + 1] += starts[i];
+        }
+        final int[] sorted = new int[rows.length];
+        for (final int row : rows) {
+            sorted[starts[keys[row]]++] = row;
+        }
+        return sorted;
+    }
+
+    @Override
+    protected ExtendedIterator<Triple> graphBaseFind(final TripleMatch m) {
+        freeze();
+        final Node s = m.getMatchSubject();
+        final Node p = m.getMatchPredicate();
+        final Node o = m.getMatchObject();
+        final int subject = id(s);
+        final int predicate = id(p);
+        final int object = id(o);
+        if (subject == MISSING || predicate == MISSING || object == MISSING) {
+            return NullIterator.instance();
+        }
+        if (subject != ANY) {
+            int lo = lowerBound(null, subjects, 0, subjects.length, subject);
+            int hi = upperBound(null, subjects, lo, subjects.length, subject);
+            if (predicate == ANY) {
+                return new Rows(null, lo, hi, object);
+            }
+            lo = lowerBound(null, predicates, lo, hi, predicate);
+            hi = upperBound(null, predicates, lo, hi, predicate);
+            if (object != ANY) {
+                lo = lowerBound(null, objects, lo, hi, object);
+                hi = upperBound(null, objects, lo, hi, object);
+            }
+            return new Rows(null, lo, hi, ANY);
+        }
+        if (predicate != ANY) {
+            int lo = lowerBound(pos, predicates, 0, pos.length, predicate);
+            int hi = upperBound(pos, predicates, lo, pos.length, predicate);
+            if (object != ANY) {
+                lo = lowerBound(pos, objects, lo, hi, object);
+                hi = upperBound(pos, objects, lo, hi, object);
+            }
+            return new Rows(pos, lo, hi, ANY);
+        }
+        if (object != ANY) {
+            final int lo = lowerBound(osp, objects, 0, osp.length, object);
+            return new Rows(osp, lo, upperBound(osp, objects, lo, osp.length,
+                    object), ANY);
+        }
+        return new Rows(null, 0, subjects.length, ANY);
+    }
+
+    @Override
+    protected boolean graphBaseContains(final Triple t) {
+        if (!t.isConcrete()) {
+            return containsByFind(t);
+        }
+        freeze();
+        final Integer subject = ids.get(t.getSubject());
+        final Integer predicate = ids.get(t.getPredicate());
+        final Integer object = ids.get(t.getObject());
+        if (subject == null || predicate == null || object == null) {
+            return false;
+        }
+        int lo = lowerBound(null, subjects, 0, subjects.length, subject);
+        int hi = upperBound(null, subjects, lo, subjects.length, subject);
+        lo = lowerBound(null, predicates, lo, hi, predicate);
+        hi = upperBound(null, predicates, lo, hi, predicate);
+        return lowerBound(null, objects, lo, hi, object) <
+                upperBound(null, objects, lo, hi, object);
+    }
+
+    @Override
+    protected int graphBaseSize() {
+        freeze();
+        return subjects.length;
+    }
+
+    /**
+     * @return The number of a node to match, {@link #ANY} for a wildcard, or
+     *         {@link #MISSING} for a node not in this graph.
+     */
+    private int id(final Node node) {
+        if (node == null || !node.isConcrete()) {
+            return ANY;
+        }
+        final Integer id = ids.get(node);
+        return id == null ? MISSING : id;
+    }
+
+    /**
+     * @param index Positions in {@code keys}, or {@code null} to use the
+     *        positions in {@code [lo, hi)} directly.
+     * @return The first position in {@code [lo, hi)} whose key is at least
+     *         {@code key}.
+     */
+    private static int lowerBound(final int[] index, final int[] keys,
+        final int lo, final int hi, final int key) {
+        int low = lo;
+        int high = hi;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (keys[index == null ? mid : index[mid]] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return The first position in {@code [lo, hi)} whose key is greater than
+     *         {@code key}.
+     */
+    private static int upperBound(final int[] index, final int[] keys,
+        final int lo, final int hi, final int key) {
+        int low = lo;
+        int high = hi;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (keys[index == null ? mid : index[mid]] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * The triples at a range of positions in an index, optionally only those
+     * with a given object.
+     */
+    private class Rows extends NiceIterator<Triple> {
+
+        private final Node[] nodes = CompactGraph.this.nodes;
+
+        private final int[] subjects = CompactGraph.this.subjects;
+
+        private final int[] predicates = CompactGraph.this.predicates;
+
+        private final int[] objects = CompactGraph.this.objects;
+
+        private final int[] index;
+
+        private final int hi;
+
+        private final int object;
+
+        private int next;
+
+        Rows(final int[] index, final int lo, final int hi, final int object) {
+            this.index = index;
+            this.next = lo;
+            this.hi = hi;
+            this.object = object;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (object != ANY) {
+                while (next < hi && objects[row(next)] != object) {
+                    next++;
+                }
+            }
+            return next < hi;
+        }
+
+        @Override
+        public Triple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final int row = row(next++);
+            return new Triple(nodes[subjects[row]], nodes[predicates[row]],
+                    nodes[objects[row]]);
+        }
+
+        private int row(final int position) {
+            return index == null ? position : index[position];
+        }
+    }
+}
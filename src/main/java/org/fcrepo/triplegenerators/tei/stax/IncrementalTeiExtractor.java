@@ -0,0 +1,381 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei.stax;
+
+import static com.hp.hpl.jena.graph.Node.ANY;
+import static com.hp.hpl.jena.graph.NodeFactory.createAnon;
+import static java.util.Collections.unmodifiableList;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.fcrepo.triplegenerators.tei.ModelTripleHandler;
+import org.fcrepo.triplegenerators.tei.RdfXmlContentHandler;
+import org.slf4j.Logger;
+import org.xml.sax.SAXException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteSource;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.mem.GraphMem;
+import com.hp.hpl.jena.rdf.model.AnonId;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+
+/**
+ * Keeps the triples of each document it has seen, divided among the subtrees
+ * of the document that produced them, with a fingerprint of each subtree.
+ * When a new version of a document arrives, it is streamed again with the same
+ * document number, so that unchanged elements get the same generated ids, and
+ * only the subtrees whose fingerprints have changed have their triples
+ * replaced. The graph of the document is patched in place, so the work of
+ * patching it, and the {@link Update} reported, scale with the size of the
+ * edit rather than the size of the document.
+ * <p>
+ * Subtrees are the {@code <div>} and {@code <p>} elements that carry their own
+ * {@code xml:id}. Generated ids depend on the position of an element in the
+ * document, so an edit that adds or removes elements changes the fingerprints
+ * of the subtrees that follow it and not only of the one edited; editions
+ * that give their divisions and paragraphs ids gain the most. Names from
+ * {@link org.fcrepo.triplegenerators.tei.IdStrategy#PATH} are counted within
+ * the nearest element with an {@code xml:id}, so with that strategy such an
+ * edit disturbs little beyond its own subtree.
+ *
+ * @author ajs6f
+ */
+public class IncrementalTeiExtractor {
+
+    private final StreamingTeiExtractor extractor;
+
+    private final Cache<String, Document> documents;
+
+    private static final Logger LOGGER =
+        getLogger(IncrementalTeiExtractor.class);
+
+    /**
+     * @param extractor The {@link StreamingTeiExtractor} with which to read
+     *        documents.
+     * @param maximumTriples The most triples to hold, over all documents,
+     *        before forgetting the least recently updated.
+     */
+    public IncrementalTeiExtractor(final StreamingTeiExtractor extractor,
+        final long maximumTriples) {
+        this.extractor = extractor;
+        this.documents =
+            CacheBuilder.newBuilder().maximumWeight(maximumTriples).weigher(
+                    new Weigher<String, Document>() {
+
+                        @Override
+                        public int weigh(final String baseUri,
+                            final Document document) {
+                            return document.counts.elementSet().size();
+                        }
+                    }).build();
+    }
+
+    /**
+     * Brings the triples of a document up to date with a version of it.
+     *
+     * @param tei The TEI XML of the version, which is not read if it is the
+     *        version last seen.
+     * @param baseUri The URI of the document.
+     * @param version An identifier of the version, such as a digest of its
+     *        content, or {@code null} if none is known.
+     * @return What changed.
+     * @throws IOException
+     * @throws XMLStreamException If the TEI cannot be parsed, in which case
+     *         what was held for the document is unchanged.
+     * @throws SAXException
+     */
+    public Update update(final ByteSource tei, final String baseUri,
+        final String version) throws IOException, XMLStreamException,
+        SAXException {
+        Document document = documents.getIfPresent(baseUri);
+        if (document == null) {
+            final Document created = new Document();
+            document = documents.asMap().putIfAbsent(baseUri, created);
+            if (document == null) {
+                document = created;
+            }
+        }
+        final Update update;
+        synchronized (document) {
+            if (version != null && version.equals(document.version)) {
+                return new Update(document, document.subtrees.size(), 0,
+                        new ArrayList<Triple>(), new ArrayList<Triple>());
+            }
+            final Pass pass = new Pass(document.subtrees);
+            try (final InputStream input = tei.openStream()) {
+                extractor.extract(input, new RdfXmlContentHandler(baseUri,
+                        pass), document.number, pass);
+            }
+            update = document.apply(pass.subtrees, pass.regenerated);
+            document.graph.getPrefixMapping().setNsPrefixes(pass.getModel());
+            document.version = version;
+        }
+        // reweigh what we hold
+        documents.asMap().replace(baseUri, document, document);
+        LOGGER.debug("Regenerated {} of {} subtrees of {}.", update
+                .getRegenerated(), update.getSubtrees(), baseUri);
+        return update;
+    }
+
+    /**
+     * Forgets a document.
+     *
+     * @param baseUri
+     */
+    public void invalidate(final String baseUri) {
+        documents.invalidate(baseUri);
+    }
+
+    /**
+     * The triples of a document and how they are divided among its subtrees.
+     */
+    private static class Document {
+
+        /**
+         * The number of this document in generated ids, fixed for all of its
+         * versions.
+         */
+        final long number = StreamingTeiExtractor.nextDocument();
+
+        String version;
+
+        Map<String, Subtree> subtrees = new HashMap<>();
+
+        /**
+         * How many subtrees produce each triple.
+         */
+        final Multiset<Triple> counts = HashMultiset.create();
+
+        final Graph graph = new GraphMem();
+
+        /**
+         * Replaces our subtrees with those of a new version. Triples of new
+         * subtrees are counted before those of old subtrees are discounted, so
+         * that a triple produced by both is neither removed nor added.
+         */
+        Update apply(final Map<String, Subtree> current, final int regenerated) {
+            final List<Triple> added = new ArrayList<>();
+            final List<Triple> removed = new ArrayList<>();
+            for (final Map.Entry<String, Subtree> subtree : current.entrySet()) {
+                if (subtrees.get(subtree.getKey()) != subtree.getValue()) {
+                    for (final Triple t : subtree.getValue().triples) {
+                        if (counts.add(t, 1) == 0) {
+                            graph.add(t);
+                            added.add(t);
+                        }
+                    }
+                }
+            }
+            for (final Map.Entry<String, Subtree> subtree : subtrees.entrySet()) {
+                if (current.get(subtree.getKey()) != subtree.getValue()) {
+                    for (final Triple t : subtree.getValue().triples) {
+                        if (counts.remove(t, 1) == 1) {
+                            graph.delete(t);
+                            removed.add(t);
+                        }
+                    }
+                }
+            }
+            subtrees = current;
+            return new Update(this, current.size(), regenerated, added, removed);
+        }
+    }
+
+    /**
+     * A subtree of a document, with the triples it produced.
+     */
+    private static class Subtree {
+
+        final HashCode fingerprint;
+
+        final List<Triple> triples;
+
+        Subtree(final HashCode fingerprint, final List<Triple> triples) {
+            this.fingerprint = fingerprint;
+            this.triples = triples;
+        }
+    }
+
+    /**
+     * Collects the triples of one pass over a document, crediting each to the
+     * innermost subtree open when it is produced. Blank nodes are relabelled
+     * after their subtree, so that those of a regenerated subtree cannot be
+     * confused with those of a subtree kept from an earlier version.
+     */
+    private static class Pass extends ModelTripleHandler implements
+            SubtreeSink {
+
+        private final Map<String, Subtree> previous;
+
+        final Map<String, Subtree> subtrees = new HashMap<>();
+
+        int regenerated = 0;
+
+        private final Deque<OpenSubtree> open = new ArrayDeque<>();
+
+        Pass(final Map<String, Subtree> previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void startSubtree(final String key) {
+            open.push(new OpenSubtree(key));
+        }
+
+        @Override
+        public void endSubtree(final String key, final HashCode fingerprint) {
+            final OpenSubtree subtree = open.pop();
+            final Subtree kept = previous.get(key);
+            if (kept != null && kept.fingerprint.equals(fingerprint)) {
+                subtrees.put(key, kept);
+            } else {
+                subtrees.put(key, new Subtree(fingerprint, subtree.triples));
+                regenerated++;
+            }
+        }
+
+        @Override
+        protected void add(final Triple triple) {
+            final OpenSubtree subtree = open.peek();
+            final Node s = triple.getSubject();
+            final Node o = triple.getObject();
+            subtree.triples.add(s.isBlank() || o.isBlank() ? new Triple(
+                    subtree.relabel(s), triple.getPredicate(), subtree
+                            .relabel(o)) : triple);
+        }
+    }
+
+    private static class OpenSubtree {
+
+        final String key;
+
+        final List<Triple> triples = new ArrayList<>();
+
+        private final Map<Node, Node> blankNodes = new HashMap<>();
+
+        OpenSubtree(final String key) {
+            this.key = key;
+        }
+
+        Node relabel(final Node node) {
+            if (!node.isBlank()) {
+                return node;
+            }
+            Node relabelled = blankNodes.get(node);
+            if (relabelled == null) {
+                relabelled =
+                    createAnon(new AnonId(key + "/" + blankNodes.size()));
+                blankNodes.put(node, relabelled);
+            }
+            return relabelled;
+        }
+    }
+
+    /**
+     * What an {@link IncrementalTeiExtractor#update} changed.
+     */
+    public static class Update {
+
+        private final Document document;
+
+        private final int subtrees;
+
+        private final int regenerated;
+
+        private final List<Triple> added;
+
+        private final List<Triple> removed;
+
+        Update(final Document document, final int subtrees,
+            final int regenerated, final List<Triple> added,
+            final List<Triple> removed) {
+            this.document = document;
+            this.subtrees = subtrees;
+            this.regenerated = regenerated;
+            this.added = unmodifiableList(added);
+            this.removed = unmodifiableList(removed);
+        }
+
+        /**
+         * @return The number of subtrees in the document.
+         */
+        public int getSubtrees() {
+            return subtrees;
+        }
+
+        /**
+         * @return The number of subtrees whose triples were produced afresh.
+         */
+        public int getRegenerated() {
+            return regenerated;
+        }
+
+        /**
+         * @return Triples the document did not have before.
+         */
+        public List<Triple> getAdded() {
+            return added;
+        }
+
+        /**
+         * @return Triples the document no longer has.
+         */
+        public List<Triple> getRemoved() {
+            return removed;
+        }
+
+        /**
+         * @return A copy of all of the triples of the document, as of this
+         *         update or a later one, with the prefixes it declared.
+         */
+        public Graph snapshot() {
+            final Graph copy = new GraphMem();
+            synchronized (document) {
+                copy.getPrefixMapping().setNsPrefixes(
+                        document.graph.getPrefixMapping());
+                final ExtendedIterator<Triple> triples =
+                    document.graph.find(ANY, ANY, ANY);
+                try {
+                    while (triples.hasNext()) {
+                        copy.add(triples.next());
+                    }
+                } finally {
+                    triples.close();
+                }
+            }
+            return copy;
+        }
+    }
+}
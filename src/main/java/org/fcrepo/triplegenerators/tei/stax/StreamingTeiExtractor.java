@@ -0,0 +1,692 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei.stax;
+
+import static javax.xml.XMLConstants.XML_NS_URI;
+import static javax.xml.stream.XMLStreamConstants.CDATA;
+import static javax.xml.stream.XMLStreamConstants.CHARACTERS;
+import static javax.xml.stream.XMLStreamConstants.COMMENT;
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.PROCESSING_INSTRUCTION;
+import static javax.xml.stream.XMLStreamConstants.SPACE;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+import static org.fcrepo.triplegenerators.tei.RdfXmlContentHandler.RDF_NS;
+
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.fcrepo.triplegenerators.tei.IdStrategy;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Produces the same RDF/XML as running add-ids.xslt and then tei2rdf.xslt,
+ * but in a single pass over a StAX stream, holding only the chain of open
+ * elements rather than a tree of the whole document. The RDF/XML is delivered
+ * as SAX events, suitable for a
+ * {@link org.fcrepo.triplegenerators.tei.RdfXmlContentHandler}. Descriptions
+ * come out in document order, one or a few properties at a time, rather than
+ * grouped as the stylesheets group them, so the triples are the same but their
+ * order is not.
+ * <p>
+ * Like add-ids.xslt, elements without an {@code xml:id} are named after their
+ * qualified name and position in the document. By default they are numbered
+ * in document order, after the number of the document in this run, so the
+ * names are not those that {@code generate-id()} gives the same elements, and
+ * are not stable from one run to the next unless the number of the document
+ * is held fixed, as {@link IncrementalTeiExtractor} holds it. Elements named
+ * by {@link IdStrategy#PATH} get the same names as from add-ids.xslt.
+ *
+ * @author ajs6f
+ */
+public class StreamingTeiExtractor {
+
+    private static final String TEI_NS = "http://www.tei-c.org/ns/1.0";
+
+    private static final String RDFS_NS = "http://www.w3.org/2000/01/rdf-schema#";
+
+    private static final String DCT_NS = "http://purl.org/dc/terms/";
+
+    private static final String LINGUISTIC_OBJECT =
+        "http://purl.org/saws/ontology#LinguisticObject";
+
+    private static final String PERSON = "http://purl.org/saws/ontology#Person";
+
+    /**
+     * The namespaces in scope where tei2rdf.xslt turns the {@code rel} or
+     * {@code name} of a {@code <relation>} into a property element.
+     */
+    private static final Map<String, String> STYLESHEET_NAMESPACES =
+        ImmutableMap.<String, String> builder().put("xml", XML_NS_URI).put(
+                "xsl", "http://www.w3.org/1999/XSL/Transform").put("rdf",
+                RDF_NS).put("rdfs", RDFS_NS).put("dct", DCT_NS).put("tei",
+                TEI_NS).put("saws", "http://www.purl.org/saws/ontology#")
+                .build();
+
+    /**
+     * The prefixes that tei2rdf.xslt declares on the {@code rdf:RDF} it
+     * writes, in the order that Saxon declares them.
+     */
+    private static final ImmutableList<String> DECLARED_PREFIXES = ImmutableList.of(
+            "rdf", "dct", "rdfs", "tei", "saws");
+
+    private static final AtomicLong DOCUMENTS = new AtomicLong();
+
+    private static final HashFunction FINGERPRINTS = Hashing.murmur3_128();
+
+    private final XMLInputFactory factory;
+
+    private volatile IdStrategy idStrategy = IdStrategy.GENERATED;
+
+    /**
+     * Uses the default {@link XMLInputFactory}.
+     */
+    public StreamingTeiExtractor() {
+        this(XMLInputFactory.newInstance());
+    }
+
+    /**
+     * @param factory The {@link XMLInputFactory} from which to get readers. It
+     *        must not be reconfigured while this extractor is in use.
+     */
+    public StreamingTeiExtractor(final XMLInputFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * @param idStrategy How to name elements without an {@code xml:id}, as
+     *        add-ids.xslt would with the same strategy. The default is
+     *        {@link IdStrategy#GENERATED}.
+     */
+    public void setIdStrategy(final IdStrategy idStrategy) {
+        this.idStrategy = idStrategy;
+    }
+
+    /**
+     * @return How elements without an {@code xml:id} are named.
+     */
+    public IdStrategy getIdStrategy() {
+        return idStrategy;
+    }
+
+    /**
+     * @param tei An {@link InputStream} with TEI XML, which is not closed.
+     * @param rdfXml The recipient of RDF/XML.
+     * @throws XMLStreamException If the TEI cannot be parsed.
+     * @throws SAXException If {@code rdfXml} refuses an event, or a
+     *         {@code <relation>} names a property that tei2rdf.xslt could not.
+     */
+    public void extract(final InputStream tei, final ContentHandler rdfXml)
+        throws XMLStreamException, SAXException {
+        extract(tei, rdfXml, idStrategy);
+    }
+
+    /**
+     * As {@link #extract(InputStream, ContentHandler)}, but naming elements by
+     * the given strategy rather than by ours.
+     *
+     * @param tei
+     * @param rdfXml
+     * @param ids How to name elements without an {@code xml:id}.
+     * @throws XMLStreamException
+     * @throws SAXException
+     */
+    public void extract(final InputStream tei, final ContentHandler rdfXml,
+        final IdStrategy ids) throws XMLStreamException, SAXException {
+        extract(tei, rdfXml, nextDocument(), null, ids);
+    }
+
+    /**
+     * As {@link #extract(InputStream, ContentHandler)}, but with generated ids
+     * numbered as the given document, so that they are the same from one pass
+     * to the next wherever the document is unchanged, and with each subtree
+     * reported to {@code subtrees} as it is passed.
+     *
+     * @param tei
+     * @param rdfXml
+     * @param document The number of the document in generated ids.
+     * @param subtrees The recipient of subtrees, or {@code null}.
+     * @throws XMLStreamException
+     * @throws SAXException
+     */
+    void extract(final InputStream tei, final ContentHandler rdfXml,
+        final long document, final SubtreeSink subtrees)
+        throws XMLStreamException, SAXException {
+        extract(tei, rdfXml, document, subtrees, idStrategy);
+    }
+
+    private void extract(final InputStream tei, final ContentHandler rdfXml,
+        final long document, final SubtreeSink subtrees, final IdStrategy ids)
+        throws XMLStreamException, SAXException {
+        final XMLStreamReader reader = factory.createXMLStreamReader(tei);
+        try {
+            new Extraction(reader, rdfXml, document, subtrees,
+                    ids == IdStrategy.PATH).run();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return A number for a document not yet numbered in this run.
+     */
+    static long nextDocument() {
+        return DOCUMENTS.incrementAndGet();
+    }
+
+    /**
+     * What we know about an open TEI element.
+     */
+    private static class Frame {
+
+        final Frame parent;
+
+        final String name;
+
+        final String id;
+
+        /**
+         * Whether this element is {@code /TEI/text} or inside it.
+         */
+        boolean inText;
+
+        /**
+         * Whether this element is inside a {@code <body>}.
+         */
+        boolean inBody;
+
+        /**
+         * The property of the document for which to collect the string value
+         * of this element, if any.
+         */
+        String property;
+
+        StringBuilder value;
+
+        boolean author;
+
+        boolean hasText;
+
+        /**
+         * The key of the subtree of which this element is the root, if any.
+         */
+        String subtree;
+
+        /**
+         * Elements added as children.
+         */
+        int positions;
+
+        /**
+         * What the path ids of children begin with: this element's own
+         * {@code xml:id}, or its path.
+         */
+        String path;
+
+        Frame(final Frame parent, final String name, final String id) {
+            this.parent = parent;
+            this.name = name;
+            this.id = id;
+        }
+    }
+
+    /**
+     * The state of one pass over one document.
+     */
+    private static class Extraction {
+
+        private final XMLStreamReader reader;
+
+        private final ContentHandler out;
+
+        private final long document;
+
+        private final SubtreeSink subtrees;
+
+        /**
+         * Fingerprints of the open subtrees, innermost first.
+         */
+        private final Deque<Hasher> fingerprints = new ArrayDeque<>();
+
+        private final Set<String> subtreeKeys = new HashSet<>();
+
+        /**
+         * Elements begun so far.
+         */
+        private long elements = 0;
+
+        private int topLevelPositions = 0;
+
+        /**
+         * Whether to name elements by {@link IdStrategy#PATH}.
+         */
+        private final boolean paths;
+
+        private boolean inTextRun = false;
+
+        private boolean teiRoot = false;
+
+        private Frame current;
+
+        /**
+         * Open elements collecting their string value or looking for text.
+         */
+        private final List<Frame> listening = new ArrayList<>();
+
+        Extraction(final XMLStreamReader reader, final ContentHandler out,
+            final long document, final SubtreeSink subtrees,
+            final boolean paths) {
+            this.reader = reader;
+            this.out = out;
+            this.document = document;
+            this.subtrees = subtrees;
+            this.paths = paths;
+        }
+
+        void run() throws XMLStreamException, SAXException {
+            if (subtrees != null) {
+                subtrees.startSubtree("");
+                fingerprints.push(FINGERPRINTS.newHasher());
+            }
+            out.startDocument();
+            for (final String prefix : DECLARED_PREFIXES) {
+                out.startPrefixMapping(prefix, STYLESHEET_NAMESPACES
+                        .get(prefix));
+            }
+            out.startElement(RDF_NS, "RDF", "rdf:RDF", new AttributesImpl());
+            describe("");
+            literal(DCT_NS, "type", "TEI/XML");
+            end();
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case START_ELEMENT:
+                        inTextRun = false;
+                        countElement();
+                        startElement();
+                        break;
+                    case END_ELEMENT:
+                        inTextRun = false;
+                        endElement();
+                        break;
+                    case CHARACTERS:
+                    case CDATA:
+                    case SPACE:
+                        text();
+                        break;
+                    case COMMENT:
+                        inTextRun = false;
+                        fingerprint('C');
+                        break;
+                    case PROCESSING_INSTRUCTION:
+                        inTextRun = false;
+                        fingerprint('P');
+                        // add-ids.xslt surrounds copied instructions with
+                        // newlines
+                        for (final Frame frame : listening) {
+                            if (frame.value != null) {
+                                frame.value.append("\n\n");
+                            }
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+            if (current != null) {
+                throw new XMLStreamException("Unexpected end of TEI!");
+            }
+            out.endElement(RDF_NS, "RDF", "rdf:RDF");
+            for (final String prefix : DECLARED_PREFIXES.reverse()) {
+                out.endPrefixMapping(prefix);
+            }
+            out.endDocument();
+            if (subtrees != null) {
+                subtrees.endSubtree("", fingerprints.pop().hash());
+            }
+        }
+
+        private void fingerprint(final char event) {
+            if (!fingerprints.isEmpty()) {
+                fingerprints.peek().putChar(event);
+            }
+        }
+
+        /**
+         * Begins a subtree at the current element if it is a {@code <div>} or
+         * {@code <p>} that carries its own {@code xml:id} and whose string
+         * value is not being collected for an ancestor. Its fingerprint starts
+         * with whatever about its ancestors affects its triples.
+         */
+        private void startSubtree(final Frame frame, final boolean explicitId) {
+            if (!explicitId || !listening.isEmpty() ||
+                    !("div".equals(frame.name) || "p".equals(frame.name))) {
+                return;
+            }
+            String key = frame.id;
+            for (int i = 2; !subtreeKeys.add(key); i++) {
+                key = frame.id + "#" + i;
+            }
+            frame.subtree = key;
+            fingerprints.peek().putChar('U').putString(key).putChar('\0');
+            final Frame parent = frame.parent;
+            fingerprints.push(FINGERPRINTS.newHasher().putString(parent.id)
+                    .putChar('\0').putString(parent.name).putChar('\0')
+                    .putBoolean(parent.inText).putBoolean(parent.inBody)
+                    .putBoolean(parent.parent == null).putBoolean(teiRoot));
+            subtrees.startSubtree(key);
+        }
+
+        /**
+         * Numbers a new element, in the document and among its siblings.
+         */
+        private void countElement() {
+            elements++;
+            if (current == null) {
+                topLevelPositions++;
+            } else {
+                current.positions++;
+            }
+        }
+
+        private void startElement() throws SAXException {
+            final String name = reader.getLocalName();
+            final String prefix = reader.getPrefix();
+            String id = reader.getAttributeValue(XML_NS_URI, "id");
+            final boolean explicitId = id != null;
+            final Frame parent = current;
+            final String path;
+            if (!paths) {
+                path = null;
+            } else if (parent == null) {
+                path = Integer.toString(topLevelPositions);
+            } else {
+                path = parent.path + "." + parent.positions;
+            }
+            if (!explicitId) {
+                id =
+                    (prefix == null || prefix.isEmpty() ? name : prefix + ":" +
+                            name) +
+                            (paths ? "_" + path : "_d" + document + "e" + elements);
+            }
+            final Frame frame = new Frame(parent, name, id);
+            frame.path = explicitId ? id : path;
+            current = frame;
+            if (!fingerprints.isEmpty()) {
+                if (parent != null) {
+                    startSubtree(frame, explicitId);
+                }
+                final Hasher fingerprint = fingerprints.peek();
+                fingerprint.putChar('S').putString(name).putChar('\0')
+                        .putString(id).putChar('\0');
+                for (int i = 0; i < reader.getAttributeCount(); i++) {
+                    final String ns = reader.getAttributeNamespace(i);
+                    fingerprint.putString(ns == null ? "" : ns).putChar('\0')
+                            .putString(reader.getAttributeLocalName(i))
+                            .putChar('\0').putString(reader.getAttributeValue(i))
+                            .putChar('\0');
+                }
+            }
+            if (parent == null) {
+                teiRoot = "TEI".equals(name);
+                describe("");
+                resource(DCT_NS, "conformsTo", teiRoot ? conformation() : "");
+                end();
+                return;
+            }
+            frame.inBody = parent.inBody || "body".equals(parent.name);
+            if (teiRoot && parent.parent == null && "text".equals(name)) {
+                frame.inText = true;
+                describe("");
+                resource(DCT_NS, "hasPart", "");
+                end();
+                describe("#" + id);
+                resource(RDF_NS, "type", LINGUISTIC_OBJECT);
+                resource(DCT_NS, "isPartOf", "");
+                end();
+            } else {
+                frame.inText = parent.inText;
+                if (parent.inText ||
+                        frame.inBody && ("p".equals(name) || "div".equals(name)) ||
+                        "author".equals(name)) {
+                    describe("#" + id);
+                    literal(RDFS_NS, "label", id);
+                    resource(RDF_NS, "type", LINGUISTIC_OBJECT);
+                    resource(DCT_NS, "isPartOf", "#" + parent.id);
+                    end();
+                }
+            }
+            if ("p".equals(name)) {
+                if ("publicationStmt".equals(parent.name)) {
+                    frame.property = "publisher";
+                } else if ("sourceDesc".equals(parent.name)) {
+                    frame.property = "source";
+                }
+                if (frame.property != null) {
+                    frame.value = new StringBuilder();
+                    listening.add(frame);
+                }
+            } else if ("author".equals(name)) {
+                frame.author = true;
+                listening.add(frame);
+            } else if ("relation".equals(name)) {
+                relation();
+            }
+        }
+
+        private void endElement() throws SAXException {
+            final Frame frame = current;
+            current = frame.parent;
+            if (frame.property != null || frame.author) {
+                listening.remove(frame);
+            }
+            if (frame.property != null) {
+                describe("");
+                literal(DCT_NS, frame.property, frame.value.toString());
+                end();
+            }
+            if (frame.author && frame.hasText) {
+                describe("");
+                final AttributesImpl atts = new AttributesImpl();
+                atts.addAttribute(RDF_NS, "parseType", "rdf:parseType",
+                        "CDATA", "Resource");
+                out.startElement(DCT_NS, "creator", "dct:creator", atts);
+                resource(RDF_NS, "type", PERSON);
+                out.endElement(DCT_NS, "creator", "dct:creator");
+                end();
+            }
+            if (!fingerprints.isEmpty()) {
+                fingerprint('E');
+                if (frame.subtree != null) {
+                    subtrees.endSubtree(frame.subtree, fingerprints.pop().hash());
+                }
+            }
+        }
+
+        private void text() {
+            final int length = reader.getTextLength();
+            if (current == null || length == 0) {
+                return;
+            }
+            if (!inTextRun) {
+                inTextRun = true;
+                fingerprint('T');
+            }
+            if (listening.isEmpty() && fingerprints.isEmpty()) {
+                return;
+            }
+            final char[] chars = reader.getTextCharacters();
+            final int start = reader.getTextStart();
+            if (!fingerprints.isEmpty()) {
+                final Hasher fingerprint = fingerprints.peek();
+                for (int i = start; i < start + length; i++) {
+                    fingerprint.putChar(chars[i]);
+                }
+            }
+            for (final Frame frame : listening) {
+                if (frame.value != null) {
+                    frame.value.append(chars, start, length);
+                }
+                if (frame.author && !frame.hasText) {
+                    for (int i = start; i < start + length; i++) {
+                        final char c = chars[i];
+                        if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                            frame.hasText = true;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return The namespaces in scope on the root {@code <TEI>} after
+         *         add-ids.xslt has rebuilt it, in the order Saxon lists them:
+         *         the TEI namespace, those of its qualified attributes and the
+         *         XML namespace.
+         */
+        private String conformation() {
+            final StringBuilder namespaces = new StringBuilder(TEI_NS);
+            final List<String> seen = new ArrayList<>();
+            seen.add(TEI_NS);
+            seen.add(XML_NS_URI);
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                final String ns = reader.getAttributeNamespace(i);
+                if (ns != null && !ns.isEmpty() && !seen.contains(ns)) {
+                    seen.add(ns);
+                    namespaces.append(' ').append(ns);
+                }
+            }
+            return namespaces.append(' ').append(XML_NS_URI).toString();
+        }
+
+        private void relation() throws SAXException {
+            final String active = attribute("active");
+            final String rel = attribute("rel");
+            final String name = attribute("name");
+            final String passive = attribute("passive");
+            final String resp = attribute("resp");
+            describe("#" + (active == null ? "" : active));
+            final String property = rel != null ? rel : name;
+            if (property != null) {
+                final String qName = property.trim();
+                final int colon = qName.indexOf(':');
+                final String prefix = colon < 0 ? "" : qName.substring(0, colon);
+                final String localName = qName.substring(colon + 1);
+                if (!(colon < 0 || isNCName(prefix)) || !isNCName(localName)) {
+                    throw new SAXException("Invalid property name in <relation>: " +
+                            property);
+                }
+                final String ns;
+                if (prefix.isEmpty()) {
+                    ns = "";
+                } else {
+                    ns = STYLESHEET_NAMESPACES.get(prefix);
+                    if (ns == null) {
+                        throw new SAXException("Undeclared prefix in <relation>: " +
+                                property);
+                    }
+                }
+                literal(ns, localName, qName,
+                        "#" + (passive == null ? "" : passive));
+            }
+            literal(DCT_NS, "provenance", resp == null ? "" : resp);
+            end();
+        }
+
+        private String attribute(final String localName) {
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                final String ns = reader.getAttributeNamespace(i);
+                if ((ns == null || ns.isEmpty()) &&
+                        localName.equals(reader.getAttributeLocalName(i))) {
+                    return reader.getAttributeValue(i);
+                }
+            }
+            return null;
+        }
+
+        private void describe(final String about) throws SAXException {
+            final AttributesImpl atts = new AttributesImpl();
+            atts.addAttribute(RDF_NS, "about", "rdf:about", "CDATA", about);
+            out.startElement(RDF_NS, "Description", "rdf:Description", atts);
+        }
+
+        private void end() throws SAXException {
+            out.endElement(RDF_NS, "Description", "rdf:Description");
+        }
+
+        private void resource(final String ns, final String localName,
+            final String uri) throws SAXException {
+            final AttributesImpl atts = new AttributesImpl();
+            atts.addAttribute(RDF_NS, "resource", "rdf:resource", "CDATA", uri);
+            out.startElement(ns, localName, localName, atts);
+            out.endElement(ns, localName, localName);
+        }
+
+        private void literal(final String ns, final String localName,
+            final String value) throws SAXException {
+            literal(ns, localName, localName, value);
+        }
+
+        private void literal(final String ns, final String localName,
+            final String qName, final String value) throws SAXException {
+            out.startElement(ns, localName, qName, new AttributesImpl());
+            out.characters(value.toCharArray(), 0, value.length());
+            out.endElement(ns, localName, qName);
+        }
+    }
+
+    /**
+     * @param name
+     * @return Whether {@code name} can be the prefix or local part of an XML
+     *         name.
+     */
+    static boolean isNCName(final String name) {
+        if (name.isEmpty()) {
+            return false;
+        }
+        final char first = name.charAt(0);
+        if (!(Character.isLetter(first) || first == '_')) {
+            return false;
+        }
+        for (int i = 1; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            if (!(Character.isLetterOrDigit(c) || c == '.' || c == '-' ||
+                    c == '_' || c == '\u00B7')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei.stax;
+
+import com.google.common.hash.HashCode;
+
+/**
+ * Told by a {@link StreamingTeiExtractor} where each subtree of a document
+ * begins and ends, so that the RDF/XML produced in between can be credited to
+ * it. Subtrees nest: the whole document is the subtree keyed {@code ""}, and
+ * within it each {@code <div>} or {@code <p>} with its own {@code xml:id} is
+ * keyed by that id. What an inner subtree produces is not part of the
+ * subtrees around it, nor is its content part of their fingerprints.
+ *
+ * @author ajs6f
+ */
+interface SubtreeSink {
+
+    /**
+     * @param key
+     */
+    void startSubtree(String key);
+
+    /**
+     * @param key
+     * @param fingerprint A hash of everything in the document on which the
+     *        RDF/XML of this subtree depends.
+     */
+    void endSubtree(String key, HashCode fingerprint);
+}
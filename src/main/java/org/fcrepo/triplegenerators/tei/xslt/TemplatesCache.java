@@ -0,0 +1,214 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei.xslt;
+
+import static com.google.common.hash.Hashing.sha1;
+import static com.google.common.io.ByteStreams.toByteArray;
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static javax.xml.transform.TransformerFactory.newInstance;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+
+import org.slf4j.Logger;
+
+import com.google.common.hash.HashCode;
+
+/**
+ * Compiles stylesheets from the classpath once and keeps them. A compiled
+ * {@link Templates} is immutable and may be shared by any number of threads
+ * and {@link TransformerPool}s, so every generator in a JVM can use the same
+ * ones, and only the first to be created pays to compile them. Saxon-HE has
+ * no form of a compiled stylesheet that can be saved and loaded, so this is
+ * as far as compilation can be shared.
+ *
+ * @author ajs6f
+ */
+public class TemplatesCache {
+
+    private static final TemplatesCache SHARED = new TemplatesCache();
+
+    private final SAXTransformerFactory tf;
+
+    private final ConcurrentMap<String, FutureTask<Compiled>> compiled =
+        new ConcurrentHashMap<>();
+
+    private static final Logger LOGGER = getLogger(TemplatesCache.class);
+
+    /**
+     * Compiles with a Saxon {@link SAXTransformerFactory} of our own.
+     */
+    public TemplatesCache() {
+        tf =
+            (SAXTransformerFactory) newInstance(
+                    "net.sf.saxon.TransformerFactoryImpl", null);
+        tf.setErrorListener(new LoggingErrorListener());
+    }
+
+    /**
+     * @return The {@link TemplatesCache} shared by the whole JVM.
+     */
+    public static TemplatesCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * @return The factory that compiles our stylesheets, from which
+     *         transformers for them should be drawn.
+     */
+    public SAXTransformerFactory getTransformerFactory() {
+        return tf;
+    }
+
+    /**
+     * @param resource The classpath location of a stylesheet
+     * @return The stylesheet, compiled.
+     * @throws TransformerConfigurationException
+     * @throws IOException
+     */
+    public Templates getTemplates(final String resource)
+        throws TransformerConfigurationException, IOException {
+        return get(resource).templates;
+    }
+
+    /**
+     * @param resource The classpath location of a stylesheet
+     * @return A digest of the stylesheet, which changes whenever it does.
+     * @throws TransformerConfigurationException
+     * @throws IOException
+     */
+    public HashCode getDigest(final String resource)
+        throws TransformerConfigurationException, IOException {
+        return get(resource).digest;
+    }
+
+    /**
+     * Compiles stylesheets ahead of need, such as while an application starts
+     * up.
+     *
+     * @param resources The classpath locations of stylesheets
+     * @throws TransformerConfigurationException
+     * @throws IOException
+     */
+    public void preload(final String... resources)
+        throws TransformerConfigurationException, IOException {
+        for (final String resource : resources) {
+            get(resource);
+        }
+    }
+
+    /**
+     * Forgets every stylesheet compiled so far.
+     */
+    public void clear() {
+        compiled.clear();
+    }
+
+    /**
+     * Compiles a stylesheet, or waits for another thread already compiling
+     * it. A stylesheet that fails to compile is tried again the next time it
+     * is asked for.
+     */
+    private Compiled get(final String resource)
+        throws TransformerConfigurationException, IOException {
+        FutureTask<Compiled> task = compiled.get(resource);
+        if (task == null) {
+            final FutureTask<Compiled> newTask =
+                new FutureTask<>(new Callable<Compiled>() {
+
+                    @Override
+                    public Compiled call() throws Exception {
+                        return compile(resource);
+                    }
+                });
+            task = compiled.putIfAbsent(resource, newTask);
+            if (task == null) {
+                task = newTask;
+                task.run();
+            }
+        }
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (final ExecutionException e) {
+            compiled.remove(resource, task);
+            final Throwable cause = e.getCause();
+            if (cause instanceof TransformerConfigurationException) {
+                throw (TransformerConfigurationException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new TransformerConfigurationException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private Compiled compile(final String resource)
+        throws TransformerConfigurationException, IOException {
+        final long start = nanoTime();
+        final URL location = getClass().getResource(resource);
+        if (location == null) {
+            throw new IOException("No stylesheet found at " + resource);
+        }
+        final byte[] stylesheet;
+        try (final InputStream sourceStream = location.openStream()) {
+            stylesheet = toByteArray(sourceStream);
+        }
+        final Templates templates =
+            tf.newTemplates(new StreamSource(new ByteArrayInputStream(
+                    stylesheet), location.toString()));
+        LOGGER.debug("Compiled {} in {} ms.", resource, NANOSECONDS
+                .toMillis(nanoTime() - start));
+        return new Compiled(templates, sha1().hashBytes(stylesheet));
+    }
+
+    private static class Compiled {
+
+        private final Templates templates;
+
+        private final HashCode digest;
+
+        Compiled(final Templates templates, final HashCode digest) {
+            this.templates = templates;
+            this.digest = digest;
+        }
+    }
+}
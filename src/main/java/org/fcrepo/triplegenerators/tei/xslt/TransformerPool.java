@@ -0,0 +1,175 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei.xslt;
+
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+
+import org.slf4j.Logger;
+
+/**
+ * A bounded pool of {@link Transformer}s created from a single compiled
+ * {@link Templates}. A {@link Transformer} must not be used by more than one
+ * thread at a time, but the {@link Templates} from which it comes can be
+ * shared freely, so we compile each stylesheet once and hand out at most
+ * {@code capacity} {@link Transformer}s from it. Callers that find the pool
+ * exhausted wait until another thread returns a {@link Transformer}.
+ *
+ * @author ajs6f
+ */
+public class TransformerPool {
+
+    private final Templates templates;
+
+    private final int capacity;
+
+    private final BlockingQueue<Transformer> idle;
+
+    private final AtomicInteger created = new AtomicInteger();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong waitNanos = new AtomicLong();
+
+    /**
+     * How long a caller waits for an idle {@link Transformer} before it looks
+     * again for room to create one.
+     */
+    private static final long RETRY_MILLIS = 100;
+
+    private static final Logger LOGGER = getLogger(TransformerPool.class);
+
+    /**
+     * @param templates The compiled stylesheet to draw {@link Transformer}s
+     *        from.
+     * @param capacity The most {@link Transformer}s this pool will ever create.
+     */
+    public TransformerPool(final Templates templates, final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(
+                    "A TransformerPool must have a capacity of at least 1!");
+        }
+        this.templates = templates;
+        this.capacity = capacity;
+        this.idle = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Retrieves a {@link Transformer} for the exclusive use of the calling
+     * thread. It must be given back via {@link #release(Transformer)}.
+     *
+     * @return A {@link Transformer}
+     * @throws TransformerConfigurationException
+     * @throws InterruptedException
+     */
+    public Transformer borrow() throws TransformerConfigurationException,
+        InterruptedException {
+        final long start = nanoTime();
+        boolean waited = false;
+        while (true) {
+            Transformer transformer =
+                waited ? idle.poll(RETRY_MILLIS, MILLISECONDS) : idle.poll();
+            if (transformer == null &&
+                    created.incrementAndGet() <= capacity) {
+                LOGGER.debug("Creating new Transformer for pool.");
+                try {
+                    transformer = templates.newTransformer();
+                    transformer.setErrorListener(new LoggingErrorListener());
+                } catch (final TransformerConfigurationException |
+                        RuntimeException e) {
+                    // give back the slot, or the pool would shrink for good
+                    created.decrementAndGet();
+                    throw e;
+                }
+            } else if (transformer == null) {
+                created.decrementAndGet();
+                // a creation that fails frees a slot without a Transformer
+                // ever coming back, so we look again now and then
+                waited = true;
+                continue;
+            } else {
+                hits.incrementAndGet();
+            }
+            if (waited) {
+                waitNanos.addAndGet(nanoTime() - start);
+            }
+            return transformer;
+        }
+    }
+
+    /**
+     * Returns a {@link Transformer} to the pool after clearing any state left
+     * behind by its last use.
+     *
+     * @param transformer A {@link Transformer} previously retrieved from
+     *        {@link #borrow()}
+     */
+    public void release(final Transformer transformer) {
+        transformer.reset();
+        transformer.setErrorListener(new LoggingErrorListener());
+        if (!idle.offer(transformer)) {
+            LOGGER.warn("Discarding a Transformer that did not come from this pool!");
+        }
+    }
+
+    /**
+     * @return The compiled stylesheet behind this pool.
+     */
+    public Templates getTemplates() {
+        return templates;
+    }
+
+    /**
+     * @return The number of times {@link #borrow()} was satisfied by an
+     *         already-created {@link Transformer}.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of {@link Transformer}s this pool has created.
+     */
+    public int getCreations() {
+        return created.get();
+    }
+
+    /**
+     * @return The total time in nanoseconds that callers have spent waiting
+     *         for a {@link Transformer} to be returned to this pool.
+     */
+    public long getWaitNanos() {
+        return waitNanos.get();
+    }
+
+    /**
+     * @return The most {@link Transformer}s this pool will ever create.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei.xslt;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+
+/**
+ * An {@link XMLReader} that "parses" its input by transforming it, reporting
+ * the output of the transform as SAX events. Used as the reader of a
+ * {@link javax.xml.transform.sax.SAXSource}, it chains two
+ * {@link Transformer}s, each of which can come from a
+ * {@link TransformerPool}, without serializing what passes between them.
+ *
+ * @author ajs6f
+ */
+public class TransformingXMLReader implements XMLReader {
+
+    private static final String NAMESPACES =
+        "http://xml.org/sax/features/namespaces";
+
+    private static final String NAMESPACE_PREFIXES =
+        "http://xml.org/sax/features/namespace-prefixes";
+
+    private static final String LEXICAL_HANDLER =
+        "http://xml.org/sax/properties/lexical-handler";
+
+    private final Transformer transformer;
+
+    private ContentHandler contentHandler;
+
+    private LexicalHandler lexicalHandler;
+
+    private DTDHandler dtdHandler;
+
+    private EntityResolver entityResolver;
+
+    private ErrorHandler errorHandler;
+
+    /**
+     * @param transformer The {@link Transformer} to run over each input.
+     */
+    public TransformingXMLReader(final Transformer transformer) {
+        this.transformer = transformer;
+    }
+
+    @Override
+    public void parse(final InputSource input) throws SAXException {
+        final StreamSource source = new StreamSource();
+        source.setInputStream(input.getByteStream());
+        source.setReader(input.getCharacterStream());
+        source.setSystemId(input.getSystemId());
+        source.setPublicId(input.getPublicId());
+        final SAXResult result = new SAXResult(contentHandler);
+        result.setLexicalHandler(lexicalHandler);
+        try {
+            transformer.transform(source, result);
+        } catch (final TransformerException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    @Override
+    public void parse(final String systemId) throws SAXException {
+        parse(new InputSource(systemId));
+    }
+
+    /**
+     * The events of a transform are always namespace-aware and never carry
+     * {@code xmlns} attributes, so only those values of the two features
+     * that say so are supported. Other features are recognized only when
+     * turned off.
+     */
+    @Override
+    public boolean getFeature(final String name)
+        throws SAXNotRecognizedException {
+        if (NAMESPACES.equals(name)) {
+            return true;
+        }
+        if (NAMESPACE_PREFIXES.equals(name)) {
+            return false;
+        }
+        throw new SAXNotRecognizedException(name);
+    }
+
+    @Override
+    public void setFeature(final String name, final boolean value)
+        throws SAXNotRecognizedException, SAXNotSupportedException {
+        if (NAMESPACES.equals(name) || NAMESPACE_PREFIXES.equals(name)) {
+            if (value != getFeature(name)) {
+                throw new SAXNotSupportedException(name + " = " + value);
+            }
+        } else if (value) {
+            throw new SAXNotRecognizedException(name);
+        }
+    }
+
+    @Override
+    public Object getProperty(final String name)
+        throws SAXNotRecognizedException {
+        if (LEXICAL_HANDLER.equals(name)) {
+            return lexicalHandler;
+        }
+        throw new SAXNotRecognizedException(name);
+    }
+
+    @Override
+    public void setProperty(final String name, final Object value)
+        throws SAXNotRecognizedException, SAXNotSupportedException {
+        if (!LEXICAL_HANDLER.equals(name)) {
+            throw new SAXNotRecognizedException(name);
+        }
+        if (value != null && !(value instanceof LexicalHandler)) {
+            throw new SAXNotSupportedException(name);
+        }
+        this.lexicalHandler = (LexicalHandler) value;
+    }
+
+    @Override
+    public void setEntityResolver(final EntityResolver resolver) {
+        this.entityResolver = resolver;
+    }
+
+    @Override
+    public EntityResolver getEntityResolver() {
+        return entityResolver;
+    }
+
+    @Override
+    public void setDTDHandler(final DTDHandler handler) {
+        this.dtdHandler = handler;
+    }
+
+    @Override
+    public DTDHandler getDTDHandler() {
+        return dtdHandler;
+    }
+
+    @Override
+    public void setContentHandler(final ContentHandler handler) {
+        this.contentHandler = handler;
+    }
+
+    @Override
+    public ContentHandler getContentHandler() {
+        return contentHandler;
+    }
+
+    @Override
+    public void setErrorHandler(final ErrorHandler handler) {
+        this.errorHandler = handler;
+    }
+
+    @Override
+    public ErrorHandler getErrorHandler() {
+        return errorHandler;
+    }
+}
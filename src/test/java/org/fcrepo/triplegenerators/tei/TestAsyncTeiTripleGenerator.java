@@ -0,0 +1,197 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Charsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.fcrepo.metrics.RegistryService.getMetrics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import javax.jcr.Binary;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.hp.hpl.jena.query.Dataset;
+
+public class TestAsyncTeiTripleGenerator {
+
+    private TeiTripleGenerator generator;
+
+    private AsyncTeiTripleGenerator async;
+
+    @Before
+    public void setUp() throws Exception {
+        generator = new TeiTripleGenerator();
+        async = new AsyncTeiTripleGenerator(generator, 1, 1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        async.close();
+    }
+
+    @Test
+    public void testGenerate() throws Exception {
+        final Dataset results =
+            async.getProperties(tei(), "http://fedora").get(10, SECONDS);
+        assertEquals(generator.getProperties(tei(), "http://fedora")
+                .getNamedModel(generator.getPropertyModelName()).size(),
+                results.getNamedModel(generator.getPropertyModelName()).size());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        final Future<Dataset> endless =
+            async.getProperties(endless(), "http://fedora/endless");
+        Thread.sleep(200);
+        assertTrue(endless.cancel(true));
+        try {
+            endless.get();
+            fail("Cancelled document produced results!");
+        } catch (final CancellationException e) {
+            // expected
+        }
+        // the only thread has been freed for another document
+        async.getProperties(tei(), "http://fedora").get(10, SECONDS);
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        async.setTimeout(200, MILLISECONDS);
+        final long timeouts = TeiMetrics.ASYNC_TIMEOUTS.getCount();
+        try {
+            async.getProperties(endless(), "http://fedora/endless").get(10,
+                    SECONDS);
+            fail("Endless document didn't time out!");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        async.getProperties(tei(), "http://fedora").get(10, SECONDS);
+        assertEquals(timeouts + 1, TeiMetrics.ASYNC_TIMEOUTS.getCount());
+    }
+
+    @Test
+    public void testQueueFull() throws Exception {
+        final Future<Dataset> running =
+            async.getProperties(endless(), "http://fedora/endless");
+        final Future<Dataset> waiting =
+            async.getProperties(tei(), "http://fedora/waiting");
+        try {
+            async.getProperties(tei(), "http://fedora/refused").get();
+            fail("Accepted more documents than there is room for!");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        } finally {
+            running.cancel(true);
+        }
+        waiting.get(10, SECONDS);
+    }
+
+    @Test
+    public void testCloseSettlesWaiting() throws Exception {
+        final String gauge =
+            name(TeiTripleGenerator.class, async.getMetricName(), "depth");
+        assertTrue(getMetrics().getGauges().containsKey(gauge));
+        final Future<Dataset> running =
+            async.getProperties(endless(), "http://fedora/endless");
+        final Future<Dataset> waiting =
+            async.getProperties(tei(), "http://fedora/waiting");
+        async.setShutdownTimeout(200, MILLISECONDS);
+        async.close();
+        assertTrue("Document left waiting was never settled!", waiting
+                .isCancelled());
+        try {
+            running.get(10, SECONDS);
+        } catch (final ExecutionException e) {
+            // interrupted, as it should be
+        }
+        assertFalse("Closed generator is still reported!", getMetrics()
+                .getGauges().containsKey(gauge));
+    }
+
+    private static Binary tei() throws Exception {
+        final Binary binary = mock(Binary.class);
+        when(binary.getStream()).thenAnswer(new Answer<InputStream>() {
+
+            @Override
+            public InputStream answer(final InvocationOnMock invocation)
+                throws Throwable {
+                return new FileInputStream(new File(
+                        "target/test-classes/tei.xml"));
+            }
+        });
+        return binary;
+    }
+
+    /**
+     * @return A {@link Binary} of TEI that trickles in and never ends.
+     */
+    private static Binary endless() throws Exception {
+        final Binary binary = mock(Binary.class);
+        when(binary.getStream()).thenReturn(new InputStream() {
+
+            private final byte[] start =
+                "<TEI xmlns='http://www.tei-c.org/ns/1.0'><text><body>"
+                        .getBytes(UTF_8);
+
+            private final byte[] paragraph = "<p>More</p>".getBytes(UTF_8);
+
+            private long position;
+
+            @Override
+            public int read() throws InterruptedIOException {
+                try {
+                    Thread.sleep(1);
+                } catch (final InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                final long i = position++;
+                return i < start.length ? start[(int) i]
+                        : paragraph[(int) ((i - start.length) % paragraph.length)];
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len)
+                throws InterruptedIOException {
+                b[off] = (byte) read();
+                return 1;
+            }
+        });
+        return binary;
+    }
+}
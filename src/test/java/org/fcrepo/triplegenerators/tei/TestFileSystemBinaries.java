@@ -0,0 +1,92 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.hash.Hashing.sha1;
+import static com.google.common.io.Files.createParentDirs;
+import static com.google.common.io.Files.createTempDir;
+import static com.google.common.io.Files.write;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+
+import javax.jcr.Binary;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link FileSystemBinaries}
+ *
+ * @author ajs6f
+ */
+public class TestFileSystemBinaries {
+
+    private static final byte[] CONTENT = "<TEI/>".getBytes(UTF_8);
+
+    private static final String HASH = sha1().hashBytes(CONTENT).toString();
+
+    private File directory;
+
+    private File stored;
+
+    private FileSystemBinaries binaries;
+
+    private org.modeshape.jcr.api.Binary binary;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = createTempDir();
+        stored =
+            new File(directory, HASH.substring(0, 2) + "/" +
+                    HASH.substring(2, 4) + "/" + HASH.substring(4, 6) + "/" +
+                    HASH);
+        createParentDirs(stored);
+        write(CONTENT, stored);
+        binaries = new FileSystemBinaries(directory);
+        binary = mock(org.modeshape.jcr.api.Binary.class);
+        when(binary.getHexHash()).thenReturn(HASH);
+        when(binary.getSize()).thenReturn((long) CONTENT.length);
+    }
+
+    @Test
+    public void testFind() throws Exception {
+        assertEquals(stored, binaries.find(binary));
+    }
+
+    @Test
+    public void testNotStored() throws Exception {
+        when(binary.getHexHash()).thenReturn(
+                sha1().hashBytes(new byte[0]).toString());
+        assertNull(binaries.find(binary));
+    }
+
+    @Test
+    public void testWrongSize() throws Exception {
+        when(binary.getSize()).thenReturn(CONTENT.length + 1L);
+        assertNull(binaries.find(binary));
+    }
+
+    @Test
+    public void testNotModeShape() throws Exception {
+        assertNull(binaries.find(mock(Binary.class)));
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.fcrepo.metrics.RegistryService.getMetrics;
+import static org.fcrepo.triplegenerators.tei.TeiMetrics.ADMISSION_REJECTIONS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link MemoryBudget}
+ *
+ * @author ajs6f
+ */
+public class TestMemoryBudget {
+
+    private MemoryBudget budget;
+
+    private ExecutorService waiter;
+
+    @Before
+    public void setUp() {
+        budget = new MemoryBudget(100);
+        budget.setCostFactor(1);
+        budget.setMinimumCost(1);
+        budget.setPatience(1, SECONDS);
+        waiter = newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        waiter.shutdownNow();
+        budget.close();
+    }
+
+    private Future<MemoryBudget.Admission> admitLater(final long size) {
+        return waiter.submit(new Callable<MemoryBudget.Admission>() {
+
+            @Override
+            public MemoryBudget.Admission call() throws InterruptedException {
+                return budget.admit(size);
+            }
+        });
+    }
+
+    private void awaitWaiting(final int waiting) throws InterruptedException {
+        for (int i = 0; i < 500 && budget.getWaiting() != waiting; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(waiting, budget.getWaiting());
+    }
+
+    @Test
+    public void testMetricsRemovedOnClose() {
+        final MemoryBudget other = new MemoryBudget(100);
+        final String ours =
+            name(TeiTripleGenerator.class, budget.getMetricName(), "reserved");
+        final String theirs =
+            name(TeiTripleGenerator.class, other.getMetricName(), "reserved");
+        assertTrue("A new budget replaced the report on an older one!",
+                getMetrics().getGauges().containsKey(ours));
+        other.close();
+        assertFalse(getMetrics().getGauges().containsKey(theirs));
+        assertTrue(getMetrics().getGauges().containsKey(ours));
+    }
+
+    @Test
+    public void testCost() {
+        assertEquals(50, budget.cost(50));
+        assertEquals("Cost wasn't capped at the budget!", 100, budget
+                .cost(1000));
+        budget.setMinimumCost(10);
+        assertEquals(10, budget.cost(1));
+        budget.setCostFactor(2);
+        assertEquals(80, budget.cost(40));
+    }
+
+    @Test
+    public void testAdmitAndRelease() throws Exception {
+        try (final MemoryBudget.Admission first = budget.admit(60)) {
+            assertEquals(60, budget.getReserved());
+            try (final MemoryBudget.Admission second = budget.admit(40)) {
+                assertEquals(100, budget.getReserved());
+            }
+            assertEquals(60, budget.getReserved());
+        }
+        assertEquals(0, budget.getReserved());
+    }
+
+    @Test
+    public void testWaitForRoom() throws Exception {
+        final MemoryBudget.Admission first = budget.admit(60);
+        final Future<MemoryBudget.Admission> second = admitLater(50);
+        awaitWaiting(1);
+        assertFalse(second.isDone());
+        first.close();
+        second.get(5, SECONDS).close();
+        assertEquals(0, budget.getReserved());
+    }
+
+    @Test
+    public void testSmallPassesLarge() throws Exception {
+        final MemoryBudget.Admission first = budget.admit(60);
+        final Future<MemoryBudget.Admission> large = admitLater(50);
+        awaitWaiting(1);
+        try (final MemoryBudget.Admission small = budget.admit(30)) {
+            assertEquals(90, budget.getReserved());
+        }
+        first.close();
+        large.get(5, SECONDS).close();
+    }
+
+    @Test
+    public void testLargeNotStarved() throws Exception {
+        budget.setPatience(10, MILLISECONDS);
+        final MemoryBudget.Admission first = budget.admit(60);
+        final Future<MemoryBudget.Admission> large = admitLater(50);
+        awaitWaiting(1);
+        budget.setMaxWait(200, MILLISECONDS);
+        Thread.sleep(50);
+        try (final MemoryBudget.Admission small = budget.admit(30)) {
+            fail("A small document passed a large one out of patience!");
+        } catch (final RejectedExecutionException e) {
+            // expected
+        }
+        first.close();
+        large.get(5, SECONDS).close();
+    }
+
+    @Test
+    public void testTooManyWaiting() throws Exception {
+        budget.setMaxWaiting(0);
+        final long rejections = ADMISSION_REJECTIONS.getCount();
+        try (final MemoryBudget.Admission first = budget.admit(100)) {
+            try (final MemoryBudget.Admission second = budget.admit(1)) {
+                fail("Admitted a document past the budget!");
+            } catch (final RejectedExecutionException e) {
+                assertEquals(rejections + 1, ADMISSION_REJECTIONS.getCount());
+            }
+        }
+    }
+
+    @Test
+    public void testMaxWait() throws Exception {
+        budget.setMaxWait(20, MILLISECONDS);
+        try (final MemoryBudget.Admission first = budget.admit(100)) {
+            try (final MemoryBudget.Admission second = budget.admit(1)) {
+                fail("Admitted a document past the budget!");
+            } catch (final RejectedExecutionException e) {
+                assertEquals(0, budget.getWaiting());
+            }
+        }
+    }
+}
@@ -16,6 +16,9 @@
 package org.fcrepo.triplegenerators.tei;
 
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.slf4j.LoggerFactory.getLogger;
@@ -27,6 +30,7 @@ import org.apache.any23.Any23;
 import org.apache.any23.extractor.ExtractionException;
 import org.apache.any23.source.DocumentSource;
 import org.apache.any23.source.FileDocumentSource;
+import org.apache.any23.source.StringDocumentSource;
 import org.apache.any23.writer.TripleHandlerException;
 import org.junit.After;
 import org.junit.Before;
@@ -34,6 +38,7 @@ import org.junit.Test;
 import org.slf4j.Logger;
 
 import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.Resource;
 
 /**
  * Tests for {@link SetTripleHandler}
@@ -142,6 +147,80 @@ public class TestModelTripleHandler extends ModelTripleHandler {
         close();
     }
 
+    /**
+     * Checks that language tags and datatypes survive into the accumulated
+     * triples.
+     *
+     * @throws IOException
+     * @throws ExtractionException
+     * @throws TripleHandlerException
+     */
+    @Test
+    public void testLanguageAndDatatype() throws IOException,
+            ExtractionException, TripleHandlerException {
+        LOGGER.info("Running testLanguageAndDatatype()...");
+        any23.extract(new StringDocumentSource(
+                "<rdf:RDF xmlns:rdf='http://www.w3.org/1999/02/22-rdf-syntax-ns#'"
+                        + " xmlns:uva='http://fedora.lib.virginia.edu/relationships#'>"
+                        + "<rdf:Description rdf:about='info:fedora/uva-lib:1038847'>"
+                        + "<uva:title xml:lang='en'>title</uva:title>"
+                        + "<uva:count rdf:datatype='http://www.w3.org/2001/XMLSchema#int'>5</uva:count>"
+                        + "</rdf:Description></rdf:RDF>", "http://fedora",
+                "application/rdf+xml"), this);
+        final Resource subject =
+            model.createResource("info:fedora/uva-lib:1038847");
+        assertTrue("Lost language tag!", getModel().contains(subject,
+                model.createProperty("http://fedora.lib.virginia.edu/relationships#title"),
+                model.createLiteral("title", "en")));
+        assertTrue("Lost datatype!", getModel().contains(subject,
+                model.createProperty("http://fedora.lib.virginia.edu/relationships#count"),
+                model.createTypedLiteral(5)));
+        close();
+    }
+
+    /**
+     * Checks that the prefixes declared in the sample RDF are collected into
+     * the accumulated {@link Model}, and forgotten on reset.
+     *
+     * @throws IOException
+     * @throws ExtractionException
+     * @throws TripleHandlerException
+     */
+    @Test
+    public void testNamespaces() throws IOException, ExtractionException,
+            TripleHandlerException {
+        LOGGER.info("Running testNamespaces()...");
+        any23.extract(rdfXmlSource, this);
+        receiveNamespace("xml", "http://www.w3.org/XML/1998/namespace", null);
+        receiveNamespace("", "urn:default", null);
+        assertEquals("http://fedora.lib.virginia.edu/relationships#",
+                getModel().getNsPrefixURI("uva"));
+        assertEquals("info:fedora/fedora-system:def/model#", getModel()
+                .getNsPrefixURI("fedora-model"));
+        assertNull("Collected the xml prefix!", getModel().getNsPrefixURI(
+                "xml"));
+        assertNull("Collected a default namespace!", getModel()
+                .getNsPrefixURI(""));
+        reset();
+        assertTrue("Prefixes survived a reset!", getModel().getNsPrefixMap()
+                .isEmpty());
+        close();
+    }
+
+    /**
+     * Checks our test for URI-like literals against {@link java.net.URI}.
+     */
+    @Test
+    public void testIsAbsoluteUri() {
+        assertTrue(isAbsoluteUri("http://www.ancientwisdoms.ac.uk"));
+        assertTrue(isAbsoluteUri("info:fedora/uva-lib:1038847"));
+        assertFalse(isAbsoluteUri("/relative/uri/"));
+        assertFalse(isAbsoluteUri("#p1"));
+        assertFalse(isAbsoluteUri("Note: not a URI"));
+        assertFalse(isAbsoluteUri("literal value"));
+        assertFalse(isAbsoluteUri("urn:"));
+    }
+
     /**
      * We do not implement setContentLength() because there is no need for it in
      * the Fedora context.
@@ -0,0 +1,187 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei;
+
+import static com.hp.hpl.jena.rdf.model.ModelFactory.createDefaultModel;
+import static javax.xml.parsers.SAXParserFactory.newInstance;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.any23.Any23;
+import org.apache.any23.source.FileDocumentSource;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.Statement;
+
+/**
+ * Tests for {@link RdfXmlContentHandler}
+ *
+ * @author ajs6f
+ */
+public class TestRdfXmlContentHandler {
+
+    private static final String BASE = "http://fedora";
+
+    private static Model parse(final byte[] rdfXml) throws Exception {
+        final SAXParserFactory factory = newInstance();
+        factory.setNamespaceAware(true);
+        try (final ModelTripleHandler handler = new ModelTripleHandler()) {
+            factory.newSAXParser().parse(new ByteArrayInputStream(rdfXml),
+                    new RdfXmlContentHandler(BASE, handler));
+            return handler.getModel();
+        }
+    }
+
+    private static Model parse(final File rdfXml) throws Exception {
+        return parse(com.google.common.io.Files.toByteArray(rdfXml));
+    }
+
+    @Test
+    public void testSameTriplesAsAny23() throws Exception {
+        final File rdfXml = new File("target/test-classes/rdf.xml");
+        try (final ModelTripleHandler any23Handler = new ModelTripleHandler()) {
+            new Any23().extract(new FileDocumentSource(rdfXml, BASE),
+                    any23Handler);
+            final Model direct = parse(rdfXml);
+            assertTrue("Direct emission didn't match Any23 extraction!",
+                    direct.isIsomorphicWith(any23Handler.getModel()));
+            assertEquals("Direct emission declared different prefixes!",
+                    any23Handler.getModel().getNsPrefixMap(), direct
+                            .getNsPrefixMap());
+        }
+    }
+
+    @Test
+    public void testRelativeReferences() throws Exception {
+        final Model results =
+            parse(("<rdf:RDF xmlns:rdf='" + RdfXmlContentHandler.RDF_NS +
+                    "' xmlns:dct='http://purl.org/dc/terms/'>" +
+                    "<rdf:Description rdf:about='#p1'>" +
+                    "<dct:isPartOf rdf:resource=''/>" +
+                    "</rdf:Description></rdf:RDF>").getBytes("UTF-8"));
+        assertTrue(results.contains(results.createResource(BASE + "#p1"),
+                results.createProperty("http://purl.org/dc/terms/isPartOf"),
+                results.createResource(BASE)));
+    }
+
+    @Test
+    public void testParseTypeResource() throws Exception {
+        final Model results =
+            parse(("<rdf:RDF xmlns:rdf='" + RdfXmlContentHandler.RDF_NS +
+                    "' xmlns:dct='http://purl.org/dc/terms/'>" +
+                    "<rdf:Description rdf:about=''>" +
+                    "<dct:creator rdf:parseType='Resource'>" +
+                    "<rdf:type rdf:resource='http://purl.org/saws/ontology#Person'/>" +
+                    "</dct:creator></rdf:Description></rdf:RDF>")
+                    .getBytes("UTF-8"));
+        assertEquals(2, results.size());
+        final Statement creator =
+            results.getResource(BASE).getProperty(
+                    results.createProperty("http://purl.org/dc/terms/creator"));
+        final Resource person = creator.getObject().asResource();
+        assertTrue("Creator should be a blank node!", person.isAnon());
+        assertTrue(person.hasProperty(
+                results.createProperty(RdfXmlContentHandler.RDF_NS, "type"),
+                results.createResource("http://purl.org/saws/ontology#Person")));
+    }
+
+    @Test
+    public void testBlankNodesDifferAcrossDocuments() throws Exception {
+        final byte[] rdfXml =
+            ("<rdf:RDF xmlns:rdf='" + RdfXmlContentHandler.RDF_NS +
+                    "' xmlns:dct='http://purl.org/dc/terms/'>" +
+                    "<rdf:Description rdf:about=''>" +
+                    "<dct:creator rdf:parseType='Resource'/>" +
+                    "<dct:contributor rdf:nodeID='c'/>" +
+                    "</rdf:Description></rdf:RDF>").getBytes("UTF-8");
+        final Model first = parse(rdfXml);
+        final Model second = parse(rdfXml);
+        assertEquals(2, first.size());
+        final Model both = first.union(second);
+        assertEquals("Blank nodes of different documents were merged!", 4,
+                both.size());
+    }
+
+    @Test
+    public void testPropertyAttributesOnPropertyElement() throws Exception {
+        assertSameAsJena("<rdf:Description rdf:about=''>" +
+                "<ex:p ex:q='v'/><ex:r rdf:resource='#o' ex:s='w'/>" +
+                "<ex:t rdf:nodeID='n' rdf:type='http://example.org/T'/>" +
+                "</rdf:Description>");
+    }
+
+    @Test
+    public void testListItems() throws Exception {
+        assertSameAsJena("<rdf:Seq rdf:about='#s'>" +
+                "<rdf:li>a</rdf:li><rdf:li rdf:resource='#b'/>" +
+                "<rdf:li rdf:parseType='Resource'><ex:p>c</ex:p></rdf:li>" +
+                "</rdf:Seq>");
+    }
+
+    @Test(expected = SAXException.class)
+    public void testLiteralParseType() throws Exception {
+        parse(rdfXml("<rdf:Description rdf:about=''>" +
+                "<ex:p rdf:parseType='Literal'><ex:b>bold</ex:b></ex:p>" +
+                "</rdf:Description>"));
+    }
+
+    @Test(expected = SAXException.class)
+    public void testReification() throws Exception {
+        parse(rdfXml("<rdf:Description rdf:about=''>" +
+                "<ex:p rdf:ID='statement'>v</ex:p></rdf:Description>"));
+    }
+
+    @Test(expected = SAXException.class)
+    public void testNodeBesideText() throws Exception {
+        parse(rdfXml("<rdf:Description rdf:about=''>" +
+                "<ex:p>text<rdf:Description rdf:about='#o'/></ex:p>" +
+                "</rdf:Description>"));
+    }
+
+    private static byte[] rdfXml(final String descriptions) throws Exception {
+        return ("<rdf:RDF xmlns:rdf='" + RdfXmlContentHandler.RDF_NS +
+                "' xmlns:ex='http://example.org/'>" + descriptions +
+                "</rdf:RDF>").getBytes("UTF-8");
+    }
+
+    private static void assertSameAsJena(final String descriptions)
+        throws Exception {
+        final byte[] rdfXml = rdfXml(descriptions);
+        final Model jena = createDefaultModel();
+        jena.read(new ByteArrayInputStream(rdfXml), BASE);
+        final Model direct = parse(rdfXml);
+        assertTrue("Direct emission didn't match Jena! Got " + direct
+                .listStatements().toList() + " but expected " + jena
+                .listStatements().toList(), direct.isIsomorphicWith(jena));
+    }
+
+    @Test
+    public void testHasScheme() {
+        assertTrue(RdfXmlContentHandler.hasScheme("info:fedora/x"));
+        assertTrue(!RdfXmlContentHandler.hasScheme("#p1"));
+        assertTrue(!RdfXmlContentHandler.hasScheme("/relative/uri/"));
+        assertTrue(!RdfXmlContentHandler.hasScheme("1a:b"));
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei;
+
+import static com.google.common.io.Files.toByteArray;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.any23.Any23;
+import org.apache.any23.extractor.IssueReport.Issue;
+import org.apache.any23.source.ByteArrayDocumentSource;
+import org.junit.Test;
+
+import com.hp.hpl.jena.rdf.model.Model;
+
+/**
+ * Tests for {@link RdfXmlExtraction}
+ *
+ * @author ajs6f
+ */
+public class TestRdfXmlExtraction {
+
+    private static final String BASE_URI = "http://fedora/tei";
+
+    private final RdfXmlExtraction extraction = new RdfXmlExtraction();
+
+    private static byte[] rdfXml() throws Exception {
+        try (
+            final InputStream tei =
+                new FileInputStream("target/test-classes/tei.xml")) {
+            return new TeiTripleGenerator(1).createRDFXML(tei);
+        }
+    }
+
+    private Model extract(final byte[] rdfXml) throws Exception {
+        try (final ModelTripleHandler handler = new ModelTripleHandler()) {
+            extraction.extract(new ByteArrayInputStream(rdfXml), BASE_URI,
+                    handler);
+            return handler.getModel();
+        }
+    }
+
+    @Test
+    public void testSameTriplesAsAny23() throws Exception {
+        final byte[] rdfXml = rdfXml();
+        final Model expected;
+        try (final ModelTripleHandler handler = new ModelTripleHandler()) {
+            new Any23().extract(new ByteArrayDocumentSource(rdfXml, BASE_URI,
+                    "application/rdf+xml"), handler);
+            expected = handler.getModel();
+        }
+        final Model extracted = extract(rdfXml);
+        assertFalse("Extracted no triples!", extracted.isEmpty());
+        assertTrue("Extracted different triples than Any23 does!", extracted
+                .isIsomorphicWith(expected));
+    }
+
+    @Test
+    public void testIssues() throws Exception {
+        final byte[] rdfXml =
+            toByteArray(new File("target/test-classes/bad-rdf.xml"));
+        try (final ModelTripleHandler handler = new ModelTripleHandler()) {
+            final Collection<Issue> issues =
+                extraction.extract(new ByteArrayInputStream(rdfXml),
+                        BASE_URI, handler);
+            assertFalse("Found no issues with bad RDF/XML!", issues.isEmpty());
+        }
+        try (final ModelTripleHandler handler = new ModelTripleHandler()) {
+            assertTrue("Found issues with good RDF/XML!", extraction.extract(
+                    new ByteArrayInputStream(rdfXml()), BASE_URI, handler)
+                    .isEmpty());
+        }
+    }
+
+    @Test
+    public void testSharedAcrossThreads() throws Exception {
+        final byte[] rdfXml = rdfXml();
+        final long expected = extract(rdfXml).size();
+        final ExecutorService threads = newFixedThreadPool(4);
+        try {
+            final List<Future<Model>> results = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                results.add(threads.submit(new Callable<Model>() {
+
+                    @Override
+                    public Model call() throws Exception {
+                        return extract(rdfXml);
+                    }
+                }));
+            }
+            for (final Future<Model> result : results) {
+                assertEquals(expected, result.get().size());
+            }
+        } finally {
+            threads.shutdown();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Charsets.UTF_8;
+import static com.hp.hpl.jena.rdf.model.ResourceFactory.createProperty;
+import static com.hp.hpl.jena.rdf.model.ResourceFactory.createResource;
+import static org.fcrepo.metrics.RegistryService.getMetrics;
+import static org.fcrepo.rdf.GraphProperties.PROBLEMS_MODEL_NAME;
+import static org.fcrepo.triplegenerators.tei.StylesheetRegistry.BUILT_IN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.modeshape.jcr.api.JcrConstants.JCR_CONTENT;
+import static org.modeshape.jcr.api.JcrConstants.JCR_DATA;
+import static org.modeshape.jcr.api.JcrConstants.JCR_MIME_TYPE;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import javax.jcr.Binary;
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.nodetype.NodeType;
+
+import org.fcrepo.rdf.GraphSubjects;
+import org.fcrepo.triplegenerators.tei.stax.IncrementalTeiExtractor;
+import org.fcrepo.triplegenerators.tei.stax.StreamingTeiExtractor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.hp.hpl.jena.datatypes.xsd.impl.XMLLiteralType;
+import com.hp.hpl.jena.query.Dataset;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.Statement;
+
+public class TestStylesheetRegistry {
+
+    private static final String TEST_PROFILE = "test";
+
+    private static final String TEI_NAMESPACE = "http://www.tei-c.org/ns/1.0";
+
+    @Mock
+    private Node mockNode;
+
+    @Mock
+    private GraphSubjects mockGraphSubjects;
+
+    @Mock
+    private Resource mockResource;
+
+    @Mock
+    private Property mockData;
+
+    @Mock
+    private Property mockMimeType;
+
+    @Mock
+    private Binary mockBinary;
+
+    private StylesheetRegistry registry;
+
+    private TeiTripleGenerator builtIn;
+
+    @Before
+    public void setUp() throws Exception {
+        initMocks(this);
+        when(mockGraphSubjects.getGraphSubject(mockNode)).thenReturn(
+                mockResource);
+        when(mockResource.getURI()).thenReturn("http://fedora");
+        when(mockNode.getPath()).thenReturn("/test");
+        when(mockNode.getNode(JCR_CONTENT)).thenReturn(mockNode);
+        when(mockNode.getProperty(JCR_DATA)).thenReturn(mockData);
+        when(mockNode.getMixinNodeTypes()).thenReturn(new NodeType[0]);
+        when(mockData.getBinary()).thenReturn(mockBinary);
+        when(mockBinary.getStream()).thenAnswer(new Answer<InputStream>() {
+
+            @Override
+            public InputStream answer(final InvocationOnMock invocation)
+                throws Throwable {
+                return new FileInputStream(new File(
+                        "target/test-classes/tei.xml"));
+            }
+        });
+        registry = new StylesheetRegistry(1);
+        builtIn = registry.getProfile(BUILT_IN);
+        registry.register(TEST_PROFILE, "/xslt/add-ids.xslt",
+                "/xslt/test-tei2rdf.xslt");
+    }
+
+    @After
+    public void tearDown() {
+        registry.close();
+    }
+
+    @Test
+    public void testReplacedProfileClosed() throws Exception {
+        final String replaced =
+            name(TeiTripleGenerator.class, registry.getProfile(TEST_PROFILE)
+                    .getMetricName(), "tei2rdf", "hits");
+        assertTrue(getMetrics().getGauges().containsKey(replaced));
+        registry.register(TEST_PROFILE, "/xslt/add-ids.xslt",
+                "/xslt/test-tei2rdf.xslt");
+        assertFalse("Still reporting on a replaced profile!", getMetrics()
+                .getGauges().containsKey(replaced));
+    }
+
+    @Test
+    public void testDefault() throws Exception {
+        assertEquals(BUILT_IN, registry.select(mockNode));
+        assertTrue(properties().size() > 1);
+    }
+
+    @Test
+    public void testByMixin() throws Exception {
+        final NodeType mixin = mock(NodeType.class);
+        when(mixin.getName()).thenReturn("test:edition");
+        when(mockNode.getMixinNodeTypes()).thenReturn(new NodeType[] {mixin});
+        registry.selectByMixin("test:edition", TEST_PROFILE);
+        assertEquals(TEST_PROFILE, registry.select(mockNode));
+        final Model results = properties();
+        assertEquals(1, results.size());
+        assertTrue(results.contains(createResource("http://fedora"),
+                createProperty("http://purl.org/dc/terms/type"),
+                "test profile"));
+    }
+
+    @Test
+    public void testByMimeType() throws Exception {
+        when(mockNode.hasProperty(JCR_MIME_TYPE)).thenReturn(true);
+        when(mockNode.getProperty(JCR_MIME_TYPE)).thenReturn(mockMimeType);
+        when(mockMimeType.getString()).thenReturn("application/tei+xml");
+        registry.selectByMimeType("application/tei+xml", TEST_PROFILE);
+        assertEquals(TEST_PROFILE, registry.select(mockNode));
+    }
+
+    @Test
+    public void testByNamespace() throws Exception {
+        registry.selectByNamespace(TEI_NAMESPACE, TEST_PROFILE);
+        assertEquals(TEST_PROFILE, registry.select(mockNode));
+        when(mockBinary.getStream()).thenReturn(
+                new ByteArrayInputStream("<TEI/>".getBytes(UTF_8)));
+        assertEquals(BUILT_IN, registry.select(mockNode));
+    }
+
+    @Test
+    public void testRegisteringLeavesOthers() throws Exception {
+        registry.register("another", "/xslt/add-ids.xslt",
+                "/xslt/test-tei2rdf.xslt");
+        assertSame(builtIn, registry.getProfile(BUILT_IN));
+        assertTrue(registry.getProfileNames().contains("another"));
+        assertFalse(registry.getProfile(TEST_PROFILE).getStylesheetVersion()
+                .equals(builtIn.getStylesheetVersion()));
+    }
+
+    @Test
+    public void testCustomProfileExtractedByAny23() throws Exception {
+        registry.register("literal", "/xslt/add-ids.xslt",
+                "/xslt/test-literal-tei2rdf.xslt");
+        final TeiTripleGenerator literal = registry.getProfile("literal");
+        final Dataset results =
+            literal.getProperties(mockBinary, "http://fedora");
+        assertFalse(results.containsNamedModel(PROBLEMS_MODEL_NAME));
+        final Statement description =
+            results.getNamedModel(literal.getPropertyModelName()).getResource(
+                    "http://fedora").getProperty(
+                    createProperty("http://purl.org/dc/terms/description"));
+        assertEquals(XMLLiteralType.theXMLLiteralType.getURI(), description
+                .getLiteral().getDatatypeURI());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownProfile() {
+        registry.selectByMixin("test:edition", "unknown");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCustomProfileCannotBeIncremental() {
+        registry.getProfile(TEST_PROFILE).setIncremental(
+                new IncrementalTeiExtractor(new StreamingTeiExtractor(), 1000));
+    }
+
+    private Model properties() throws Exception {
+        return registry.getProperties(mockNode, mockGraphSubjects)
+                .getNamedModel(registry.getPropertyModelName());
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.io.ByteStreams.asByteSource;
+import static org.fcrepo.rdf.GraphProperties.PROBLEMS_MODEL_NAME;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.transform.TransformerConfigurationException;
+
+import org.fcrepo.triplegenerators.tei.TeiBatchGenerator.BatchReport;
+import org.fcrepo.triplegenerators.tei.TeiBatchGenerator.DatasetSink;
+import org.fcrepo.triplegenerators.tei.TeiBatchGenerator.Document;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.ByteSource;
+import com.google.common.io.Files;
+import com.hp.hpl.jena.query.Dataset;
+
+public class TestTeiBatchGenerator {
+
+    private TeiTripleGenerator generator;
+
+    @Before
+    public void setUp() throws TransformerConfigurationException, IOException {
+        generator = new TeiTripleGenerator();
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        final ByteSource tei =
+            Files.asByteSource(new File("target/test-classes/tei.xml"));
+        final List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            documents.add(Document.of("http://fedora/" + i, tei));
+        }
+        documents.add(Document.of("http://fedora/bad", asByteSource("<TEI>"
+                .getBytes(UTF_8))));
+        final Map<String, Dataset> results = new HashMap<>();
+        final BatchReport report;
+        try (final TeiBatchGenerator batch = new TeiBatchGenerator(generator, 3)) {
+            report = batch.run(documents.iterator(), new DatasetSink() {
+
+                @Override
+                public void accept(final String baseUri, final Dataset dataset) {
+                    results.put(baseUri, dataset);
+                }
+            });
+        }
+        assertEquals(9, report.getDocuments());
+        assertEquals(1, report.getFailures());
+        assertEquals(9, results.size());
+        final Dataset first = results.get("http://fedora/0");
+        assertFalse(first.containsNamedModel(PROBLEMS_MODEL_NAME));
+        final long size =
+            first.getNamedModel(generator.getPropertyModelName()).size();
+        assertEquals(8 * size, report.getTriples());
+        assertTrue(results.get("http://fedora/bad").containsNamedModel(
+                PROBLEMS_MODEL_NAME));
+    }
+
+    @Test(timeout = 10000)
+    public void testFailingDocuments() throws Exception {
+        final ByteSource tei =
+            Files.asByteSource(new File("target/test-classes/tei.xml"));
+        final Iterator<Document> documents = new Iterator<Document>() {
+
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public Document next() {
+                if (i++ < 2) {
+                    return Document.of("http://fedora/" + i, tei);
+                }
+                throw new IllegalStateException("No more documents!");
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        try (final TeiBatchGenerator batch = new TeiBatchGenerator(generator, 1)) {
+            batch.run(documents, new DatasetSink() {
+
+                @Override
+                public void accept(final String baseUri, final Dataset dataset) {
+                }
+            });
+            fail("Swallowed a failure to supply a document!");
+        } catch (final IllegalStateException e) {
+            // expected, and without waiting for a permit never given back
+        }
+    }
+
+    @Test
+    public void testFailureCountedOnce() throws Exception {
+        final List<Document> documents = new ArrayList<>();
+        documents.add(Document.of("http://fedora/bad", asByteSource("<TEI>"
+                .getBytes(UTF_8))));
+        final BatchReport report;
+        try (final TeiBatchGenerator batch = new TeiBatchGenerator(generator, 1)) {
+            report = batch.run(documents.iterator(), new DatasetSink() {
+
+                @Override
+                public void accept(final String baseUri, final Dataset dataset)
+                    throws Exception {
+                    throw new Exception("Sink refused " + baseUri);
+                }
+            });
+        }
+        assertEquals(1, report.getFailures());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNothingInFlight() {
+        new TeiBatchGenerator(generator, null, 0);
+    }
+}
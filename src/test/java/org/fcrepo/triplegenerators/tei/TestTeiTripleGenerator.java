@@ -16,17 +16,31 @@
 
 package org.fcrepo.triplegenerators.tei;
 
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.hash.Hashing.sha1;
+import static com.google.common.io.Files.copy;
+import static com.google.common.io.Files.createParentDirs;
+import static com.google.common.io.Files.createTempDir;
+import static com.google.common.io.Files.hash;
 import static com.google.common.io.Files.toByteArray;
+import static com.hp.hpl.jena.rdf.model.ModelFactory.createDefaultModel;
 import static com.hp.hpl.jena.rdf.model.ResourceFactory.createProperty;
 import static com.hp.hpl.jena.rdf.model.ResourceFactory.createResource;
+import static org.fcrepo.metrics.RegistryService.getMetrics;
+import static org.fcrepo.triplegenerators.tei.TeiMetrics.MAPPED_BINARIES;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 import static org.modeshape.jcr.api.JcrConstants.JCR_CONTENT;
 import static org.modeshape.jcr.api.JcrConstants.JCR_DATA;
 import static org.slf4j.LoggerFactory.getLogger;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -35,11 +49,18 @@ import java.io.InputStream;
 import javax.jcr.Binary;
 import javax.jcr.Node;
 import javax.jcr.Property;
+import javax.jcr.RepositoryException;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerFactoryConfigurationError;
 
 import org.apache.any23.extractor.ExtractionException;
 import org.fcrepo.rdf.GraphSubjects;
+import org.fcrepo.triplegenerators.tei.cache.TeiDatasetCache;
+import org.fcrepo.triplegenerators.tei.graph.CompactGraph;
+import org.fcrepo.triplegenerators.tei.stax.IncrementalTeiExtractor;
+import org.fcrepo.triplegenerators.tei.stax.StreamingTeiExtractor;
+import org.fcrepo.triplegenerators.tei.xslt.TransformerPool;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
@@ -47,6 +68,7 @@ import org.slf4j.Logger;
 
 import com.hp.hpl.jena.query.Dataset;
 import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.RDFNode;
 import com.hp.hpl.jena.rdf.model.Resource;
 import com.hp.hpl.jena.rdf.model.Statement;
 import com.hp.hpl.jena.rdf.model.StmtIterator;
@@ -99,6 +121,11 @@ public class TestTeiTripleGenerator extends TeiTripleGenerator {
                 new FileInputStream(new File("target/test-classes/tei.xml")));
     }
 
+    @After
+    public void tearDown() {
+        close();
+    }
+
     @Test
     public void testExtraction() throws Exception {
         Model results;
@@ -117,6 +144,465 @@ public class TestTeiTripleGenerator extends TeiTripleGenerator {
         LOGGER.info("Found test triple: {}", testTriple.asTriple());
     }
 
+    @Test
+    public void testTwoStepPipeline() throws Exception {
+        setIdStrategy(IdStrategy.PATH);
+        final Model fused;
+        final Model twoStep;
+        try {
+            fused =
+                getProperties(mockContentNode, mockGraphSubjects)
+                        .getNamedModel(getPropertyModelName());
+            when(mockBinary.getStream()).thenReturn(
+                    new FileInputStream(new File("target/test-classes/tei.xml")));
+            setFusedPipeline(false);
+            twoStep =
+                getProperties(mockContentNode, mockGraphSubjects)
+                        .getNamedModel(getPropertyModelName());
+        } finally {
+            setFusedPipeline(true);
+            setIdStrategy(IdStrategy.GENERATED);
+        }
+        assertTrue("Pipelines produced different triples!", fused
+                .isIsomorphicWith(twoStep));
+        assertTrue("Didn't find test triple!", twoStep.contains(testTriple));
+    }
+
+    @Test
+    public void testFusedPipelineReusesTransformers() throws Exception {
+        getProperties(mockContentNode, mockGraphSubjects);
+        final TransformerPool pool = getTei2RdfTransformerPool();
+        final long hits = pool.getHits();
+        final int creations = pool.getCreations();
+        when(mockBinary.getStream()).thenReturn(
+                new FileInputStream(new File("target/test-classes/tei.xml")));
+        getProperties(mockContentNode, mockGraphSubjects);
+        assertEquals("Didn't reuse a tei2rdf Transformer!", hits + 1, pool
+                .getHits());
+        assertEquals(creations, pool.getCreations());
+    }
+
+    @Test
+    public void testSpilledPipeline() throws Exception {
+        final Model inMemory =
+            getProperties(mockContentNode, mockGraphSubjects).getNamedModel(
+                    getPropertyModelName());
+        when(mockBinary.getStream()).thenReturn(
+                new FileInputStream(new File("target/test-classes/tei.xml")));
+        final long spills = TeiMetrics.SPILLS.getCount();
+        setFusedPipeline(false);
+        setSpillThreshold(1024);
+        final Model spilled;
+        try {
+            spilled =
+                getProperties(mockContentNode, mockGraphSubjects)
+                        .getNamedModel(getPropertyModelName());
+        } finally {
+            setFusedPipeline(true);
+            setSpillThreshold(16L * 1024 * 1024);
+        }
+        assertEquals("Didn't spill both intermediate and result buffers!",
+                spills + 2, TeiMetrics.SPILLS.getCount());
+        assertEquals(inMemory.size(), spilled.size());
+        assertTrue("Didn't find test triple!", spilled.contains(testTriple));
+    }
+
+    @Test
+    public void testPagedProperties() throws Exception {
+        final long total =
+            getProperties(mockContentNode, mockGraphSubjects).getNamedModel(
+                    getPropertyModelName()).size();
+        when(mockBinary.getStream()).thenReturn(
+                new FileInputStream(new File("target/test-classes/tei.xml")));
+        assertEquals("Didn't get a full first page!", 5, getProperties(
+                mockContentNode, mockGraphSubjects, 0, 5).getNamedModel(
+                getPropertyModelName()).size());
+        when(mockBinary.getStream()).thenReturn(
+                new FileInputStream(new File("target/test-classes/tei.xml")));
+        assertEquals("Didn't get a partial last page!", 2, getProperties(
+                mockContentNode, mockGraphSubjects, total - 2, 5)
+                .getNamedModel(getPropertyModelName()).size());
+    }
+
+    @Test
+    public void testPagesNameElementsAlike() throws Exception {
+        final Model whole;
+        setIdStrategy(IdStrategy.PATH);
+        try {
+            whole =
+                getProperties(mockContentNode, mockGraphSubjects)
+                        .getNamedModel(getPropertyModelName());
+        } finally {
+            setIdStrategy(IdStrategy.GENERATED);
+        }
+        final Model pages = createDefaultModel();
+        for (long offset = 0; offset < whole.size(); offset += 5) {
+            when(mockBinary.getStream()).thenReturn(
+                    new FileInputStream(new File("target/test-classes/tei.xml")));
+            pages.add(getProperties(mockContentNode, mockGraphSubjects, offset,
+                    5).getNamedModel(getPropertyModelName()));
+        }
+        assertTrue("Pages named elements differently!", whole
+                .isIsomorphicWith(pages));
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        final long expected =
+            getProperties(mockContentNode, mockGraphSubjects).getNamedModel(
+                    getPropertyModelName()).size();
+        when(mockBinary.getStream()).thenReturn(
+                new FileInputStream(new File("target/test-classes/tei.xml")));
+        when(mockBinary.getSize()).thenReturn(1024L);
+        setStreamingThreshold(0);
+        final Model streamed;
+        try {
+            streamed =
+                getProperties(mockContentNode, mockGraphSubjects)
+                        .getNamedModel(getPropertyModelName());
+        } finally {
+            setStreamingThreshold(Long.MAX_VALUE);
+        }
+        assertEquals("Streaming produced a different number of triples!",
+                expected, streamed.size());
+        assertTrue("Didn't find test triple!", streamed.contains(testTriple));
+    }
+
+    @Test
+    public void testMappedBinary() throws Exception {
+        final long expected =
+            getProperties(mockContentNode, mockGraphSubjects).getNamedModel(
+                    getPropertyModelName()).size();
+        final File tei = new File("target/test-classes/tei.xml");
+        final String hash = hash(tei, sha1()).toString();
+        final File directory = createTempDir();
+        final File stored =
+            new File(directory, hash.substring(0, 2) + "/" +
+                    hash.substring(2, 4) + "/" + hash.substring(4, 6) + "/" +
+                    hash);
+        createParentDirs(stored);
+        copy(tei, stored);
+        final org.modeshape.jcr.api.Binary binary =
+            mock(org.modeshape.jcr.api.Binary.class);
+        when(binary.getHexHash()).thenReturn(hash);
+        when(binary.getSize()).thenReturn(tei.length());
+        when(binary.getStream()).thenThrow(
+                new RepositoryException("Read as a stream!"));
+        final long mapped = MAPPED_BINARIES.getCount();
+        setBinaryFiles(new FileSystemBinaries(directory));
+        final Model model;
+        try {
+            model =
+                getProperties(binary, "http://fedora").getNamedModel(
+                        getPropertyModelName());
+        } finally {
+            setBinaryFiles(null);
+        }
+        assertEquals(mapped + 1, MAPPED_BINARIES.getCount());
+        assertEquals("Mapping produced a different number of triples!",
+                expected, model.size());
+        assertTrue("Didn't find test triple!", model.contains(testTriple));
+    }
+
+    @Test
+    public void testCachedPrefixes() throws Exception {
+        final org.modeshape.jcr.api.Binary binary =
+            mock(org.modeshape.jcr.api.Binary.class);
+        when(binary.getHexHash()).thenReturn("prefixes");
+        when(binary.getStream()).thenReturn(
+                new FileInputStream(new File("target/test-classes/tei.xml")));
+        final TeiDatasetCache cache =
+            new TeiDatasetCache(100000, createTempDir());
+        setCache(cache);
+        final Model generated;
+        final Model reloaded;
+        final Model unprefixed;
+        try {
+            generated =
+                getProperties(binary, "http://fedora").getNamedModel(
+                        getPropertyModelName());
+            cache.invalidateAll();
+            setFragmentPrefix("doc");
+            reloaded =
+                getProperties(binary, "http://fedora").getNamedModel(
+                        getPropertyModelName());
+            setFragmentPrefix(null);
+            unprefixed =
+                getProperties(binary, "http://fedora").getNamedModel(
+                        getPropertyModelName());
+        } finally {
+            setFragmentPrefix(null);
+            setCache(null);
+        }
+        assertEquals("Lost declared prefixes from disk!",
+                "http://purl.org/dc/terms/", reloaded.getNsPrefixURI("dct"));
+        assertEquals("doc:Thales_tr", reloaded
+                .shortForm("http://fedora#Thales_tr"));
+        assertEquals("Changed the prefixes of the cached graph!", generated
+                .getNsPrefixMap(), unprefixed.getNsPrefixMap());
+    }
+
+    @Test
+    public void testMemoryBudget() throws Exception {
+        final MemoryBudget budget = new MemoryBudget(1024);
+        budget.setMaxWaiting(0);
+        setMemoryBudget(budget);
+        try {
+            try (final MemoryBudget.Admission all = budget.admit(1024)) {
+                assertTrue("Transformed a binary past the budget!",
+                        getProperties(mockBinary, "http://fedora")
+                                .containsNamedModel(PROBLEMS_MODEL_NAME));
+            }
+            assertTrue("Didn't find test triple!", getProperties(mockBinary,
+                    "http://fedora").getNamedModel(getPropertyModelName())
+                    .contains(testTriple));
+            assertEquals(0, budget.getReserved());
+        } finally {
+            setMemoryBudget(null);
+            budget.close();
+        }
+    }
+
+    @Test
+    public void testCompactResults() throws Exception {
+        final Model expected =
+            getProperties(mockContentNode, mockGraphSubjects).getNamedModel(
+                    getPropertyModelName());
+        when(mockBinary.getStream()).thenReturn(
+                new FileInputStream(new File("target/test-classes/tei.xml")));
+        setCompactResults(true);
+        final Model compact;
+        try {
+            compact =
+                getProperties(mockContentNode, mockGraphSubjects)
+                        .getNamedModel(getPropertyModelName());
+        } finally {
+            setCompactResults(false);
+        }
+        assertTrue(compact.getGraph() instanceof CompactGraph);
+        assertEquals(expected.size(), compact.size());
+        assertTrue("Didn't find test triple!", compact.contains(testTriple));
+    }
+
+    @Test
+    public void testPrefixes() throws Exception {
+        final Model fused =
+            getProperties(mockContentNode, mockGraphSubjects).getNamedModel(
+                    getPropertyModelName());
+        assertEquals("http://purl.org/dc/terms/", fused.getNsPrefixURI("dct"));
+        assertEquals("http://www.w3.org/2000/01/rdf-schema#", fused
+                .getNsPrefixURI("rdfs"));
+        when(mockBinary.getStream()).thenReturn(
+                new FileInputStream(new File("target/test-classes/tei.xml")));
+        when(mockBinary.getSize()).thenReturn(1024L);
+        setStreamingThreshold(0);
+        setFragmentPrefix("doc");
+        final Model streamed;
+        try {
+            streamed =
+                getProperties(mockContentNode, mockGraphSubjects)
+                        .getNamedModel(getPropertyModelName());
+        } finally {
+            setFragmentPrefix(null);
+            setStreamingThreshold(Long.MAX_VALUE);
+        }
+        assertEquals("doc:Thales_tr", streamed
+                .shortForm("http://fedora#Thales_tr"));
+        streamed.removeNsPrefix("doc");
+        assertEquals("Streaming declared different prefixes!", fused
+                .getNsPrefixMap(), streamed.getNsPrefixMap());
+    }
+
+    @Test
+    public void testPathIds() throws Exception {
+        final String tei =
+            new String(toByteArray(new File("target/test-classes/tei.xml")),
+                    UTF_8);
+        final Binary commented = mock(Binary.class);
+        when(commented.getStream()).thenReturn(
+                new ByteArrayInputStream(tei.replace("<text>",
+                        "<!-- a comment --><text>").getBytes(UTF_8)));
+        setIdStrategy(IdStrategy.PATH);
+        final Model first;
+        final Model second;
+        final Model third;
+        try {
+            first =
+                getProperties(mockContentNode, mockGraphSubjects)
+                        .getNamedModel(getPropertyModelName());
+            when(mockBinary.getStream()).thenReturn(
+                    new FileInputStream(new File("target/test-classes/tei.xml")));
+            second =
+                getProperties(mockContentNode, mockGraphSubjects)
+                        .getNamedModel(getPropertyModelName());
+            third =
+                getProperties(commented, "http://fedora").getNamedModel(
+                        getPropertyModelName());
+        } finally {
+            setIdStrategy(IdStrategy.GENERATED);
+        }
+        assertTrue("Path ids differed from one run to the next!", first
+                .isIsomorphicWith(second));
+        assertTrue("A comment changed path ids!", first.isIsomorphicWith(third));
+        assertTrue("Didn't find a path id!", first.containsResource(
+                createResource("http://fedora#text_MSH.2")));
+    }
+
+    @Test
+    public void testDelta() throws Exception {
+        final String tei =
+            new String(toByteArray(new File("target/test-classes/tei.xml")),
+                    UTF_8);
+        final Binary edited = mock(Binary.class);
+        when(edited.getStream()).thenReturn(
+                new ByteArrayInputStream(tei.replace(
+                        "http://www.ancientwisdoms.ac.uk",
+                        "http://www.kcl.ac.uk").getBytes(UTF_8)));
+        setIdStrategy(IdStrategy.PATH);
+        final Model previous;
+        final Dataset delta;
+        try {
+            previous =
+                getProperties(mockBinary, "http://fedora").getNamedModel(
+                        getPropertyModelName());
+            delta = getDelta(previous.getGraph(), edited, "http://fedora");
+        } finally {
+            setIdStrategy(IdStrategy.GENERATED);
+        }
+        final TripleDelta triples = TripleDelta.of(delta);
+        assertEquals(1, triples.getAdditions().size());
+        assertEquals(1, triples.getRemovals().size());
+        assertTrue(triples.getRemovals().contains(testTriple.asTriple()));
+    }
+
+    @Test
+    public void testIncremental() throws Exception {
+        final long expected =
+            getProperties(mockContentNode, mockGraphSubjects).getNamedModel(
+                    getPropertyModelName()).size();
+        when(mockBinary.getStream()).thenReturn(
+                new FileInputStream(new File("target/test-classes/tei.xml")));
+        setIncremental(new IncrementalTeiExtractor(new StreamingTeiExtractor(),
+                100000));
+        final Model incremental;
+        try {
+            incremental =
+                getProperties(mockContentNode, mockGraphSubjects)
+                        .getNamedModel(getPropertyModelName());
+        } finally {
+            setIncremental(null);
+        }
+        assertEquals("Incremental extraction produced a different number of triples!",
+                expected, incremental.size());
+        assertTrue("Didn't find test triple!", incremental.contains(testTriple));
+    }
+
+    @Test
+    public void testEachElementDescribedOnce() throws Exception {
+        final String rdfXml;
+        try (
+            final InputStream tei =
+                new FileInputStream(new File("target/test-classes/tei.xml"))) {
+            rdfXml = new String(createRDFXML(tei), UTF_8);
+        }
+        final Model results =
+            getProperties(mockContentNode, mockGraphSubjects).getNamedModel(
+                    getPropertyModelName());
+        final long labels =
+            results.listStatements(null,
+                    createProperty("http://www.w3.org/2000/01/rdf-schema#label"),
+                    (RDFNode) null).toList().size();
+        assertEquals("Described some elements more than once!", labels, rdfXml
+                .split("<rdfs:label>", -1).length - 1);
+    }
+
+    /**
+     * Compares our triples under path ids with those that tei2rdf.xslt made
+     * before it described each element once.
+     */
+    @Test
+    public void testSameGraphAsBeforeDescribingOnce() throws Exception {
+        setIdStrategy(IdStrategy.PATH);
+        try {
+            for (final String tei : new String[] {"tei", "tei-features"}) {
+                final Binary binary = mock(Binary.class);
+                when(binary.getStream()).thenReturn(
+                        new FileInputStream(new File("target/test-classes/" +
+                                tei + ".xml")));
+                final Model results =
+                    getProperties(binary, "http://fedora").getNamedModel(
+                            getPropertyModelName());
+                final Model expected = createDefaultModel();
+                try (
+                    final InputStream triples =
+                        new FileInputStream(new File("target/test-classes/" +
+                                tei + "-path.nt"))) {
+                    expected.read(triples, null, "N-TRIPLES");
+                }
+                assertTrue("Graph of " + tei + ".xml changed!", results
+                        .isIsomorphicWith(expected));
+            }
+        } finally {
+            setIdStrategy(IdStrategy.GENERATED);
+        }
+    }
+
+    @Test
+    public void testExport() throws Exception {
+        setIdStrategy(IdStrategy.PATH);
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertTrue("Found problems exporting TEI!", export(mockBinary,
+                    "http://fedora", out).isEmpty());
+            final Model exported = createDefaultModel();
+            exported.read(new ByteArrayInputStream(out.toByteArray()), null,
+                    "N-TRIPLES");
+            when(mockBinary.getStream()).thenReturn(
+                    new FileInputStream(new File("target/test-classes/tei.xml")));
+            assertTrue("Exported different triples!", exported
+                    .isIsomorphicWith(getProperties(mockContentNode,
+                            mockGraphSubjects).getNamedModel(
+                            getPropertyModelName())));
+        } finally {
+            setIdStrategy(IdStrategy.GENERATED);
+        }
+        assertFalse("Didn't report problem!", export(
+                new ByteArrayInputStream("<TEI>".getBytes(UTF_8)),
+                "http://fedora", new ByteArrayOutputStream()).isEmpty());
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        final long generated = TeiMetrics.GENERATE.getCount();
+        final long documents = TeiMetrics.TRIPLES.getCount();
+        final long problems = TeiMetrics.PROBLEMS.getCount();
+        getProperties(mockContentNode, mockGraphSubjects);
+        assertEquals(generated + 1, TeiMetrics.GENERATE.getCount());
+        assertEquals(documents + 1, TeiMetrics.TRIPLES.getCount());
+        exceptionRdf("uri", new Exception("Bad news!"));
+        assertEquals(problems + 1, TeiMetrics.PROBLEMS.getCount());
+        assertTrue("Didn't report on transformer pool!", getMetrics()
+                .getGauges().containsKey(
+                        name(TeiTripleGenerator.class, getMetricName(),
+                                "add-ids", "hits")));
+    }
+
+    @Test
+    public void testMetricsRemovedOnClose() throws Exception {
+        final TeiTripleGenerator other = new TeiTripleGenerator(1);
+        final String ours =
+            name(TeiTripleGenerator.class, getMetricName(), "tei2rdf", "hits");
+        final String theirs =
+            name(TeiTripleGenerator.class, other.getMetricName(), "tei2rdf",
+                    "hits");
+        assertTrue("A new generator replaced the report on an older one!",
+                getMetrics().getGauges().containsKey(ours));
+        assertTrue(getMetrics().getGauges().containsKey(theirs));
+        other.close();
+        assertFalse(getMetrics().getGauges().containsKey(theirs));
+        assertTrue(getMetrics().getGauges().containsKey(ours));
+    }
+
     @Test(expected = ExtractionException.class)
     public void testextractTriplesWithBadRdfXml() throws Exception {
         final byte[] rdfXml =
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei;
+
+import static com.hp.hpl.jena.graph.NodeFactory.createAnon;
+import static com.hp.hpl.jena.graph.NodeFactory.createLiteral;
+import static com.hp.hpl.jena.graph.NodeFactory.createURI;
+import static com.hp.hpl.jena.update.UpdateAction.parseExecute;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.mem.GraphMem;
+
+public class TestTripleDelta {
+
+    private static final Node DOCUMENT = createURI("http://fedora");
+
+    private static final Node CREATOR =
+        createURI("http://purl.org/dc/terms/creator");
+
+    private static final Node TYPE =
+        createURI("http://www.w3.org/1999/02/22-rdf-syntax-ns#type");
+
+    private static final Node PERSON =
+        createURI("http://purl.org/saws/ontology#Person");
+
+    private static final Node PUBLISHER =
+        createURI("http://purl.org/dc/terms/publisher");
+
+    @Test
+    public void testDelta() {
+        final Graph previous = version("SAWS", 2);
+        final Graph current = version("KCL \"DDH\"", 3);
+        final TripleDelta delta = TripleDelta.between(previous, current);
+        assertTrue(delta.getAdditions().contains(DOCUMENT, PUBLISHER,
+                createLiteral("KCL \"DDH\"")));
+        assertTrue(delta.getRemovals().contains(DOCUMENT, PUBLISHER,
+                createLiteral("SAWS")));
+        // the creators are indistinguishable, so all are replaced
+        assertEquals(1 + 2 * 3, delta.getAdditions().size());
+        assertEquals(1 + 2 * 2, delta.getRemovals().size());
+
+        parseExecute(delta.toSparqlUpdate(null), previous);
+        assertTrue("Update didn't produce the new version!", previous
+                .isIsomorphicWith(current));
+    }
+
+    @Test
+    public void testNoChange() {
+        final TripleDelta delta =
+            TripleDelta.between(version("SAWS", 2), version("SAWS", 2));
+        assertTrue(delta.isEmpty());
+        assertEquals("", delta.toSparqlUpdate("http://graph"));
+    }
+
+    @Test
+    public void testDataset() {
+        final TripleDelta delta =
+            TripleDelta.between(version("SAWS", 1), version("KCL", 1));
+        final TripleDelta roundTripped = TripleDelta.of(delta.toDataset());
+        assertTrue(roundTripped.getAdditions().isIsomorphicWith(
+                delta.getAdditions()));
+        assertTrue(roundTripped.getRemovals().isIsomorphicWith(
+                delta.getRemovals()));
+    }
+
+    private static Graph version(final String publisher, final int creators) {
+        final Graph graph = new GraphMem();
+        graph.add(new Triple(DOCUMENT, PUBLISHER, createLiteral(publisher)));
+        for (int i = 0; i < creators; i++) {
+            final Node creator = createAnon();
+            graph.add(new Triple(DOCUMENT, CREATOR, creator));
+            graph.add(new Triple(creator, TYPE, PERSON));
+        }
+        return graph;
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei.buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestOffHeapBuffer {
+
+    private final BufferPool pool = new BufferPool(100, 4);
+
+    private final byte[] content = new byte[1000];
+
+    @Before
+    public void setUp() {
+        new Random(1).nextBytes(content);
+    }
+
+    @Test
+    public void testInMemory() throws Exception {
+        final OffHeapBuffer buffer = written(new OffHeapBuffer(pool, 1000));
+        assertFalse(buffer.isSpilled());
+        assertEquals(content.length, buffer.size());
+        assertArrayEquals(content, buffer.asByteSource().read());
+        // can be read again
+        assertArrayEquals(content, buffer.asByteSource().read());
+        buffer.reset();
+        assertEquals("Didn't give back buffers!", 4, pool.getIdle());
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void testSpilled() throws Exception {
+        final OffHeapBuffer buffer = written(new OffHeapBuffer(pool, 250));
+        assertTrue(buffer.isSpilled());
+        assertEquals("Kept buffers after spilling!", 3, pool.getIdle());
+        assertArrayEquals(content, buffer.asByteSource().read());
+        buffer.reset();
+        assertFalse(buffer.isSpilled());
+    }
+
+    @Test
+    public void testMarkAndReset() throws Exception {
+        final OffHeapBuffer buffer = written(new OffHeapBuffer(pool, 1000));
+        try (final InputStream in = buffer.asByteSource().openStream()) {
+            assertTrue(in.markSupported());
+            in.skip(50);
+            in.mark(1000);
+            final byte[] first = new byte[300];
+            assertEquals(300, read(in, first));
+            in.reset();
+            final byte[] second = new byte[300];
+            assertEquals(300, read(in, second));
+            assertArrayEquals(first, second);
+            assertEquals(content[50], first[0]);
+        } finally {
+            buffer.reset();
+        }
+    }
+
+    @Test
+    public void testPoolReuse() throws Exception {
+        written(new OffHeapBuffer(pool, 1000)).reset();
+        final long allocated = pool.getAllocated();
+        written(new OffHeapBuffer(pool, 1000)).reset();
+        assertEquals(4, pool.getHits());
+        assertEquals(allocated + 6, pool.getAllocated());
+    }
+
+    private OffHeapBuffer written(final OffHeapBuffer buffer) throws Exception {
+        // in pieces that do not line up with the buffers
+        for (int i = 0; i < content.length; i += 30) {
+            buffer.write(content, i, Math.min(30, content.length - i));
+        }
+        buffer.close();
+        return buffer;
+    }
+
+    private static int read(final InputStream in, final byte[] b)
+        throws Exception {
+        int total = 0;
+        while (total < b.length) {
+            final int n = in.read(b, total, b.length - total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei.cache;
+
+import static com.hp.hpl.jena.graph.NodeFactory.createLiteral;
+import static com.hp.hpl.jena.graph.NodeFactory.createURI;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.mem.GraphMem;
+import com.hp.hpl.jena.shared.AddDeniedException;
+
+public class TestTeiDatasetCache {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String KEY = TeiDatasetCache.key("abc", "v1",
+            "http://fedora");
+
+    private static Graph graph(final int size) {
+        final Graph graph = new GraphMem();
+        for (int i = 0; i < size; i++) {
+            graph.add(new Triple(createURI("http://fedora"),
+                    createURI("http://purl.org/dc/terms/type"),
+                    createLiteral("t" + i)));
+        }
+        return graph;
+    }
+
+    @Test
+    public void testMemoryHit() {
+        final TeiDatasetCache cache = new TeiDatasetCache(100);
+        assertNull(cache.get(KEY));
+        cache.put(KEY, graph(3));
+        assertEquals(3, cache.get(KEY).size());
+        assertEquals(1, cache.stats().hitCount());
+        assertEquals(1, cache.stats().missCount());
+    }
+
+    @Test
+    public void testWeightEviction() {
+        final TeiDatasetCache cache = new TeiDatasetCache(5);
+        cache.put(KEY, graph(4));
+        cache.put(TeiDatasetCache.key("def", "v1", "http://fedora"), graph(4));
+        assertNull("Cache held more triples than allowed!", cache.get(KEY));
+    }
+
+    @Test
+    public void testDiskTier() throws Exception {
+        final TeiDatasetCache cache =
+            new TeiDatasetCache(100, folder.newFolder("cache"));
+        cache.put(KEY, graph(3));
+        cache.invalidateAll();
+        final Graph reloaded = cache.get(KEY);
+        assertNotNull("Didn't reload triples from disk!", reloaded);
+        assertTrue(reloaded.isIsomorphicWith(graph(3)));
+        assertEquals(1, cache.getDiskHits());
+        assertNull(cache.get(TeiDatasetCache.key("def", "v1", "http://fedora")));
+        assertEquals(1, cache.getDiskMisses());
+    }
+
+    @Test
+    public void testDiskBound() throws Exception {
+        final File unbounded = folder.newFolder("unbounded");
+        new TeiDatasetCache(100, unbounded).put(KEY, graph(3));
+        final long bytes = unbounded.listFiles()[0].length();
+        final File directory = folder.newFolder("bounded");
+        final TeiDatasetCache cache =
+            new TeiDatasetCache(100, directory, bytes * 3 / 2);
+        cache.put(KEY, graph(3));
+        for (final File file : directory.listFiles()) {
+            file.setLastModified(file.lastModified() - 60000);
+        }
+        final String other = TeiDatasetCache.key("def", "v1", "http://fedora");
+        cache.put(other, graph(3));
+        assertEquals(1, cache.getDiskEvictions());
+        assertEquals("Left more than the newest file!", 1, directory
+                .listFiles().length);
+        cache.invalidateAll();
+        assertNull("Kept the least recently used file!", cache.get(KEY));
+        assertNotNull(cache.get(other));
+    }
+
+    @Test
+    public void testPurgeDisk() throws Exception {
+        final File directory = folder.newFolder("cache");
+        final TeiDatasetCache cache = new TeiDatasetCache(100, directory);
+        cache.put(KEY, graph(3));
+        cache.purgeDisk();
+        assertEquals(0, directory.listFiles().length);
+        assertNotNull("Purged memory too!", cache.get(KEY));
+        cache.invalidateAll();
+        assertNull(cache.get(KEY));
+    }
+
+    @Test
+    public void testDiskTierKeepsPrefixes() throws Exception {
+        final TeiDatasetCache cache =
+            new TeiDatasetCache(100, folder.newFolder("cache"));
+        final Graph graph = graph(3);
+        graph.getPrefixMapping().setNsPrefix("dct", "http://purl.org/dc/terms/");
+        cache.put(KEY, graph);
+        cache.invalidateAll();
+        final Graph reloaded = cache.get(KEY);
+        assertEquals(graph.getPrefixMapping().getNsPrefixMap(), reloaded
+                .getPrefixMapping().getNsPrefixMap());
+        assertTrue(reloaded.isIsomorphicWith(graph(3)));
+    }
+
+    @Test(expected = AddDeniedException.class)
+    public void testReadOnly() {
+        final TeiDatasetCache cache = new TeiDatasetCache(100);
+        cache.put(KEY, graph(1)).add(
+                new Triple(createURI("http://fedora"),
+                        createURI("http://purl.org/dc/terms/type"),
+                        createLiteral("extra")));
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei.graph;
+
+import static com.hp.hpl.jena.graph.Node.ANY;
+import static com.hp.hpl.jena.graph.NodeFactory.createAnon;
+import static com.hp.hpl.jena.graph.NodeFactory.createLiteral;
+import static com.hp.hpl.jena.graph.NodeFactory.createURI;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.mem.GraphMem;
+import com.hp.hpl.jena.shared.AddDeniedException;
+
+public class TestCompactGraph {
+
+    private final Node[] nodes = new Node[12];
+
+    private final Graph expected = new GraphMem();
+
+    private final CompactGraph graph = new CompactGraph();
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < 8; i++) {
+            nodes[i] = createURI("http://fedora#n" + i);
+        }
+        nodes[8] = createLiteral("n8");
+        nodes[9] = createLiteral("n9", "en", false);
+        nodes[10] = createAnon();
+        nodes[11] = createURI("http://fedora#absent");
+        final Random random = new Random(1);
+        for (int i = 0; i < 500; i++) {
+            // duplicates are likely
+            final Triple t =
+                new Triple(nodes[random.nextInt(4)], nodes[random.nextInt(4)],
+                        nodes[random.nextInt(11)]);
+            expected.add(t);
+            graph.add(t);
+        }
+    }
+
+    @Test
+    public void testFind() {
+        assertEquals(expected.size(), graph.size());
+        final Node[] patterns = new Node[nodes.length + 1];
+        System.arraycopy(nodes, 0, patterns, 0, nodes.length);
+        patterns[nodes.length] = ANY;
+        for (final Node s : patterns) {
+            for (final Node p : patterns) {
+                for (final Node o : patterns) {
+                    assertEquals("Wrong triples for " + s + " " + p + " " + o,
+                            set(expected, s, p, o), set(graph, s, p, o));
+                    assertEquals(expected.contains(s, p, o), graph.contains(s,
+                            p, o));
+                }
+            }
+        }
+    }
+
+    @Test(expected = AddDeniedException.class)
+    public void testReadOnly() {
+        graph.size();
+        graph.add(new Triple(nodes[0], nodes[0], nodes[0]));
+    }
+
+    @Test
+    public void testClear() {
+        graph.size();
+        graph.clear();
+        graph.add(new Triple(nodes[0], nodes[1], nodes[2]));
+        assertEquals(1, graph.size());
+        assertFalse(graph.contains(nodes[0], nodes[1], nodes[3]));
+    }
+
+    private static Set<Triple> set(final Graph graph, final Node s,
+        final Node p, final Node o) {
+        return new HashSet<>(graph.find(s, p, o).toList());
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei.stax;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.io.ByteStreams.asByteSource;
+import static com.hp.hpl.jena.graph.Node.ANY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.fcrepo.triplegenerators.tei.ModelTripleHandler;
+import org.fcrepo.triplegenerators.tei.RdfXmlContentHandler;
+import org.fcrepo.triplegenerators.tei.stax.IncrementalTeiExtractor.Update;
+import org.junit.Test;
+
+import com.google.common.io.ByteSource;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+
+public class TestIncrementalTeiExtractor {
+
+    private static final String BASE_URI = "http://fedora";
+
+    private static final String TEI =
+        "<TEI xmlns='http://www.tei-c.org/ns/1.0'><teiHeader><fileDesc>" +
+                "<titleStmt><author>Anon.</author></titleStmt>" +
+                "<publicationStmt><p>SAWS</p></publicationStmt></fileDesc>" +
+                "</teiHeader><text><body>" +
+                "<div xml:id='d1'><p xml:id='p1'>First <hi>one</hi></p>" +
+                "<p xml:id='p2'>Second<relation active='a' rel='dct:references'" +
+                " passive='%s'/></p><p>Third</p></div>" +
+                "<div xml:id='d2'><author>Someone</author>%s</div>" +
+                "</body></text></TEI>";
+
+    private final StreamingTeiExtractor streamingExtractor =
+        new StreamingTeiExtractor();
+
+    private final IncrementalTeiExtractor extractor =
+        new IncrementalTeiExtractor(streamingExtractor, 100000);
+
+    @Test
+    public void testEditRegeneratesOneSubtree() throws Exception {
+        final Update first = update(tei("b", "<p xml:id='p3'>Last</p>"), null);
+        assertEquals("Didn't find every subtree!", 6, first.getSubtrees());
+        assertEquals(6, first.getRegenerated());
+        assertTrue(first.getRemoved().isEmpty());
+        assertEquals(first.snapshot().size(), first.getAdded().size());
+
+        final String edited = tei("c", "<p xml:id='p3'>Last</p>");
+        final Update second = update(edited, null);
+        assertEquals("Regenerated more than the edited subtree!", 1, second
+                .getRegenerated());
+        assertEquals(1, second.getAdded().size());
+        assertEquals(1, second.getRemoved().size());
+        assertEquals("#c", second.getAdded().get(0).getObject()
+                .getLiteralLexicalForm());
+        assertEquals(stream(edited), normalize(second.snapshot()));
+    }
+
+    @Test
+    public void testRemovedSubtree() throws Exception {
+        update(tei("b", "<p xml:id='p3'>Last</p>"), null);
+        final String edited = tei("b", "");
+        final Update update = update(edited, null);
+        assertEquals(5, update.getSubtrees());
+        assertTrue(update.getAdded().isEmpty());
+        assertEquals("Didn't remove the triples of the subtree!", 3, update
+                .getRemoved().size());
+        assertEquals(stream(edited), normalize(update.snapshot()));
+    }
+
+    @Test
+    public void testSameVersionIsNotRead() throws Exception {
+        final Update first = update(tei("b", ""), "v1");
+        final Update second = extractor.update(new ByteSource() {
+
+            @Override
+            public InputStream openStream() throws IOException {
+                throw new IOException("Read a version already seen!");
+            }
+        }, BASE_URI, "v1");
+        assertEquals(0, second.getRegenerated());
+        assertEquals(first.snapshot().size(), second.snapshot().size());
+    }
+
+    private Update update(final String tei, final String version)
+        throws Exception {
+        return extractor.update(asByteSource(tei.getBytes(UTF_8)), BASE_URI,
+                version);
+    }
+
+    private static String tei(final String passive, final String lastParagraph) {
+        return String.format(TEI, passive, lastParagraph);
+    }
+
+    private Set<String> stream(final String tei) throws Exception {
+        try (final ModelTripleHandler handler = new ModelTripleHandler()) {
+            streamingExtractor.extract(new ByteArrayInputStream(tei
+                    .getBytes(UTF_8)), new RdfXmlContentHandler(BASE_URI,
+                    handler));
+            return normalize(handler.getModel().getGraph());
+        }
+    }
+
+    /**
+     * Generated ids carry the number of the document, and blank nodes are
+     * labelled arbitrarily, so we compare without either.
+     */
+    private static Set<String> normalize(final Graph graph) {
+        final Set<String> triples = new TreeSet<>();
+        final ExtendedIterator<Triple> i = graph.find(ANY, ANY, ANY);
+        try {
+            while (i.hasNext()) {
+                final Triple t = i.next();
+                triples.add((label(t.getSubject()) + " " + t.getPredicate() +
+                        " " + label(t.getObject())).replaceAll("_d\\d+e", "_de"));
+            }
+        } finally {
+            i.close();
+        }
+        return triples;
+    }
+
+    private static String label(final Node node) {
+        return node.isBlank() ? "_:b" : node.toString();
+    }
+}
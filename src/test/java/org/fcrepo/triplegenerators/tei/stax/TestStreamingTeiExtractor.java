@@ -0,0 +1,168 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei.stax;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static java.util.Collections.sort;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.fcrepo.triplegenerators.tei.IdStrategy;
+import org.fcrepo.triplegenerators.tei.ModelTripleHandler;
+import org.fcrepo.triplegenerators.tei.RdfXmlContentHandler;
+import org.fcrepo.triplegenerators.tei.TeiTripleGenerator;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.rdf.model.StmtIterator;
+
+public class TestStreamingTeiExtractor {
+
+    private static final String BASE_URI = "http://fedora";
+
+    private final StreamingTeiExtractor extractor = new StreamingTeiExtractor();
+
+    /**
+     * Streamed ids are numbered otherwise than by {@code generate-id()}, so we
+     * compare them only as far as their owners, and check that they name as
+     * many elements.
+     */
+    @Test
+    public void testSameTriplesAsStylesheets() throws Exception {
+        final TeiTripleGenerator generator = new TeiTripleGenerator(1);
+        for (final String resource : new String[] {"tei.xml", "tei-features.xml"}) {
+            final Model expected;
+            try (final InputStream tei = open(resource)) {
+                expected =
+                    generator.getProperties(tei, BASE_URI).getNamedModel(
+                            generator.getPropertyModelName());
+            }
+            final Model streamed;
+            try (final InputStream tei = open(resource)) {
+                streamed = stream(tei);
+            }
+            assertFalse("Got no triples!", streamed.isEmpty());
+            assertEquals("Streaming produced different triples from " +
+                    resource + "!", withoutGeneratedIds(expected),
+                    withoutGeneratedIds(streamed));
+            assertEquals("Streaming named a different number of elements!",
+                    expected.listSubjects().toSet().size(), streamed
+                            .listSubjects().toSet().size());
+        }
+    }
+
+    @Test
+    public void testSamePathIdsAsStylesheets() throws Exception {
+        final TeiTripleGenerator generator = new TeiTripleGenerator(1);
+        generator.setIdStrategy(IdStrategy.PATH);
+        extractor.setIdStrategy(IdStrategy.PATH);
+        for (final String resource : new String[] {"tei.xml", "tei-features.xml"}) {
+            final Model expected;
+            try (final InputStream tei = open(resource)) {
+                expected =
+                    generator.getProperties(tei, BASE_URI).getNamedModel(
+                            generator.getPropertyModelName());
+            }
+            final Model streamed;
+            try (final InputStream tei = open(resource)) {
+                streamed = stream(tei);
+            }
+            final List<String> triples = normalize(streamed);
+            assertEquals("Streaming produced different path ids from " +
+                    resource + "!", normalize(expected), triples);
+            assertEquals("Generated ids with the wrong strategy!", triples,
+                    withoutGeneratedIds(streamed));
+        }
+    }
+
+    @Test
+    public void testBadRelation() throws Exception {
+        try {
+            stream(new ByteArrayInputStream(
+                    "<TEI><relation active='a' rel='nope:p' passive='b'/></TEI>"
+                            .getBytes(UTF_8)));
+        } catch (final SAXException e) {
+            assertTrue(e.getMessage().contains("nope:p"));
+            return;
+        }
+        throw new AssertionError("Accepted an undeclared prefix!");
+    }
+
+    @Test
+    public void testIsNCName() {
+        assertTrue(StreamingTeiExtractor.isNCName("isVariantOf"));
+        assertFalse(StreamingTeiExtractor.isNCName(""));
+        assertFalse(StreamingTeiExtractor.isNCName("1st"));
+        assertFalse(StreamingTeiExtractor.isNCName("has space"));
+    }
+
+    private Model stream(final InputStream tei) throws Exception {
+        try (final ModelTripleHandler handler = new ModelTripleHandler()) {
+            extractor.extract(tei, new RdfXmlContentHandler(BASE_URI, handler));
+            return handler.getModel();
+        }
+    }
+
+    private static InputStream open(final String resource) throws Exception {
+        return new FileInputStream(new File("target/test-classes/" + resource));
+    }
+
+    /**
+     * Blank nodes are labelled arbitrarily, so we compare without their
+     * labels.
+     *
+     * @return The triples of {@code model}, in order.
+     */
+    private static List<String> normalize(final Model model) {
+        final List<String> triples = new ArrayList<>();
+        for (final StmtIterator i = model.listStatements(); i.hasNext();) {
+            final Statement s = i.next();
+            triples.add(label(s.getSubject()) + " " + s.getPredicate() + " " +
+                    label(s.getObject()));
+        }
+        sort(triples);
+        return triples;
+    }
+
+    /**
+     * @return The triples of {@code model}, in order, with each generated id
+     *         cut down to the name of the element it belongs to.
+     */
+    private static List<String> withoutGeneratedIds(final Model model) {
+        final List<String> triples = new ArrayList<>();
+        for (final String triple : normalize(model)) {
+            triples.add(triple.replaceAll("_d\\d+e\\d+", "_"));
+        }
+        sort(triples);
+        return triples;
+    }
+
+    private static String label(final RDFNode node) {
+        return node.isAnon() ? "_:b" : node.toString();
+    }
+}
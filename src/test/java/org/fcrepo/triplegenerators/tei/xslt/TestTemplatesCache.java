@@ -0,0 +1,78 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei.xslt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.transform.Templates;
+
+import org.fcrepo.triplegenerators.tei.TeiTripleGenerator;
+import org.junit.Test;
+
+public class TestTemplatesCache {
+
+    private static final String ADD_IDS = "/xslt/add-ids.xslt";
+
+    private final TemplatesCache cache = new TemplatesCache();
+
+    @Test
+    public void testCompiledOnce() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final Callable<Templates> compile = new Callable<Templates>() {
+
+                @Override
+                public Templates call() throws Exception {
+                    return cache.getTemplates(ADD_IDS);
+                }
+            };
+            final Future<Templates> first = executor.submit(compile);
+            final Future<Templates> second = executor.submit(compile);
+            assertSame(first.get(), second.get());
+        } finally {
+            executor.shutdown();
+        }
+        final Templates compiled = cache.getTemplates(ADD_IDS);
+        cache.clear();
+        assertNotSame(compiled, cache.getTemplates(ADD_IDS));
+        assertEquals(cache.getDigest(ADD_IDS), new TemplatesCache()
+                .getDigest(ADD_IDS));
+    }
+
+    @Test
+    public void testSharedByGenerators() throws Exception {
+        final TeiTripleGenerator first = new TeiTripleGenerator(1);
+        final TeiTripleGenerator second = new TeiTripleGenerator(1);
+        assertSame(first.getAddIdsTransformerPool().getTemplates(), second
+                .getAddIdsTransformerPool().getTemplates());
+        assertEquals(first.getStylesheetVersion(), second
+                .getStylesheetVersion());
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingStylesheet() throws Exception {
+        cache.getTemplates("/xslt/missing.xslt");
+    }
+}
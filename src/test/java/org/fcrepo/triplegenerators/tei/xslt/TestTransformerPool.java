@@ -0,0 +1,192 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.triplegenerators.tei.xslt;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static javax.xml.transform.TransformerFactory.newInstance;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestTransformerPool {
+
+    private TransformerPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        try (
+            final InputStream xslt =
+                getClass().getResourceAsStream("/xslt/add-ids.xslt")) {
+            pool =
+                new TransformerPool(newInstance(
+                        "net.sf.saxon.TransformerFactoryImpl", null)
+                        .newTemplates(new StreamSource(xslt)), 2);
+        }
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        final Transformer first = pool.borrow();
+        pool.release(first);
+        assertSame("Didn't reuse released Transformer!", first, pool.borrow());
+        assertEquals(1, pool.getCreations());
+        assertEquals(1, pool.getHits());
+    }
+
+    @Test
+    public void testBoundedCreation() throws Exception {
+        final Transformer first = pool.borrow();
+        final Transformer second = pool.borrow();
+        assertNotSame(first, second);
+        assertEquals(2, pool.getCreations());
+        final ExecutorService waiter = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Transformer> third =
+                waiter.submit(new Callable<Transformer>() {
+
+                    @Override
+                    public Transformer call() throws Exception {
+                        return pool.borrow();
+                    }
+                });
+            Thread.sleep(100);
+            assertTrue("Pool created more Transformers than its capacity!",
+                    !third.isDone());
+            pool.release(second);
+            assertSame(second, third.get(5, SECONDS));
+            assertEquals(2, pool.getCreations());
+            assertTrue("Didn't record time spent waiting!",
+                    pool.getWaitNanos() > 0);
+        } finally {
+            waiter.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testFailedCreation() throws Exception {
+        final Templates templates = pool.getTemplates();
+        final Templates failing = new Templates() {
+
+            private boolean failed;
+
+            @Override
+            public Transformer newTransformer()
+                throws TransformerConfigurationException {
+                if (!failed) {
+                    failed = true;
+                    throw new TransformerConfigurationException("Broken!");
+                }
+                return templates.newTransformer();
+            }
+
+            @Override
+            public Properties getOutputProperties() {
+                return templates.getOutputProperties();
+            }
+        };
+        final TransformerPool failingPool = new TransformerPool(failing, 1);
+        try {
+            failingPool.borrow();
+            fail("Creating a Transformer should have failed!");
+        } catch (final TransformerConfigurationException e) {
+            assertEquals(0, failingPool.getCreations());
+        }
+        assertNotNull("Failed creation used up the pool!", failingPool
+                .borrow());
+        assertEquals(1, failingPool.getCreations());
+    }
+
+    @Test(timeout = 10000)
+    public void testWaiterCreatesAfterFailedCreation() throws Exception {
+        final Templates templates = pool.getTemplates();
+        final CountDownLatch creating = new CountDownLatch(1);
+        final Templates slow = new Templates() {
+
+            private final AtomicBoolean failed = new AtomicBoolean();
+
+            @Override
+            public Transformer newTransformer()
+                throws TransformerConfigurationException {
+                if (!failed.getAndSet(true)) {
+                    creating.countDown();
+                    try {
+                        Thread.sleep(300);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new TransformerConfigurationException("Broken!");
+                }
+                return templates.newTransformer();
+            }
+
+            @Override
+            public Properties getOutputProperties() {
+                return templates.getOutputProperties();
+            }
+        };
+        final TransformerPool slowPool = new TransformerPool(slow, 1);
+        final ExecutorService failing = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Transformer> first =
+                failing.submit(new Callable<Transformer>() {
+
+                    @Override
+                    public Transformer call() throws Exception {
+                        return slowPool.borrow();
+                    }
+                });
+            creating.await();
+            // waits for the only slot while it is being wasted
+            assertNotNull(slowPool.borrow());
+            try {
+                first.get();
+                fail("Creating a Transformer should have failed!");
+            } catch (final ExecutionException e) {
+                assertTrue(e.getCause() instanceof
+                        TransformerConfigurationException);
+            }
+        } finally {
+            failing.shutdownNow();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroCapacity() {
+        new TransformerPool(pool.getTemplates(), 0);
+    }
+}